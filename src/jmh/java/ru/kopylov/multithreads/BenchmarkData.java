@@ -0,0 +1,83 @@
+package ru.kopylov.multithreads;
+
+import ru.kopylov.multithreads.controller.SourceStubController.RawReviewDto;
+import ru.kopylov.multithreads.model.Review;
+import ru.kopylov.multithreads.util.DedupKey;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Детерминированные наборы данных для бенчмарков (фиксированный seed, чтобы прогоны были сравнимы).
+ */
+public final class BenchmarkData {
+    private static final long SEED = 42L;
+    private static final LocalDate BASE_DATE = LocalDate.of(2025, 1, 1);
+    private static final Instant BASE_INSTANT = Instant.parse("2025-01-01T00:00:00Z");
+
+    private BenchmarkData() {}
+
+    /**
+     * Аргументы запуска контекста для бенчмарков на H2: без веба и без фоновых задач (опрос очереди,
+     * планировщик, догон поискового индекса, прогрев фильтра дублей), которые иначе попадают в замер.
+     */
+    public static String[] quietContextArgs(String database) {
+        return new String[]{
+                "--spring.main.web-application-type=none",
+                "--spring.main.banner-mode=off",
+                "--spring.datasource.url=jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1",
+                "--logging.level.root=WARN",
+                "--dispatcher.poll-ms=3600000",
+                "--dispatcher.lease-seconds=3600",
+                "--scheduler.tick-ms=3600000",
+                "--scheduler.metrics-sources-refresh-ms=3600000",
+                "--search.index.enabled=false",
+                "--dedup.filter.enabled=false",
+        };
+    }
+
+    public static List<RawReviewDto> rawReviews(int size) {
+        SplittableRandom rnd = new SplittableRandom(SEED);
+        List<RawReviewDto> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(new RawReviewDto(
+                    "  user_" + i + " ",
+                    rnd.nextInt(1, 6),
+                    reviewText(rnd, i),
+                    BASE_DATE.minusDays(rnd.nextInt(0, 365))
+            ));
+        }
+        return result;
+    }
+
+    public static List<Review> reviews(int size) {
+        SplittableRandom rnd = new SplittableRandom(SEED);
+        List<Review> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(Review.builder()
+                    .id((long) i + 1)
+                    .sourceUrl("https://example.com/product/" + (i % 16))
+                    .authorName("user_" + i)
+                    .rating(rnd.nextInt(1, 6))
+                    .text(reviewText(rnd, i))
+                    .createdAt(BASE_DATE.minusDays(rnd.nextInt(0, 365)))
+                    .fetchedAt(BASE_INSTANT.plusSeconds(rnd.nextInt(0, 86_400 * 30)))
+                    .dedupKey(new DedupKey(rnd.nextLong(), rnd.nextLong(), rnd.nextLong(), rnd.nextLong()))
+                    .build());
+        }
+        return result;
+    }
+
+    public static String reviewText(SplittableRandom rnd, int i) {
+        int words = rnd.nextInt(5, 60);
+        StringBuilder sb = new StringBuilder(words * 8);
+        sb.append("отзыв #").append(i);
+        for (int w = 0; w < words; w++) {
+            sb.append(' ').append("слово").append(rnd.nextInt(0, 5000));
+        }
+        return sb.toString();
+    }
+}
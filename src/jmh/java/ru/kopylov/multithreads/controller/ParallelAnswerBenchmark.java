@@ -0,0 +1,82 @@
+package ru.kopylov.multithreads.controller;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import ru.kopylov.multithreads.BenchmarkData;
+import ru.kopylov.multithreads.MultithreadsApplication;
+import ru.kopylov.multithreads.dto.ReviewResponse;
+import ru.kopylov.multithreads.model.Review;
+import ru.kopylov.multithreads.repository.ReviewRepository;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Фильтрация/сортировка/пагинация в ParallelAnswerController.parallel.
+ * <p>
+ * engine=db (по умолчанию в API) - запрос к H2 с заранее записанными size отзывами, сортировка и страница
+ * по индексам. engine=memory - репозиторий подменён прокси, который отдаёт заранее построенный список,
+ * так что замеряется только parallel stream, без чтения таблицы.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelAnswerBenchmark {
+
+    private static final int INSERT_CHUNK = 10_000;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"fetchedAt", "rating", "createdAt"})
+    public String sortBy;
+
+    @Param({"db", "memory"})
+    public String engine;
+
+    private ConfigurableApplicationContext context;
+    private ParallelAnswerController controller;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<Review> reviews = BenchmarkData.reviews(size);
+        if ("db".equals(engine)) {
+            context = SpringApplication.run(MultithreadsApplication.class,
+                    BenchmarkData.quietContextArgs("answer" + size));
+            ReviewRepository repository = context.getBean(ReviewRepository.class);
+            reviews.forEach(r -> r.setId(null));
+            for (int from = 0; from < reviews.size(); from += INSERT_CHUNK) {
+                repository.insertAll(reviews.subList(from, Math.min(from + INSERT_CHUNK, reviews.size())));
+            }
+            controller = new ParallelAnswerController(repository);
+            return;
+        }
+        ReviewRepository repository = (ReviewRepository) Proxy.newProxyInstance(
+                ReviewRepository.class.getClassLoader(),
+                new Class<?>[]{ReviewRepository.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("findAll") && (args == null || args.length == 0)) {
+                        return reviews;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        controller = new ParallelAnswerController(repository);
+    }
+
+    @Benchmark
+    public ParallelAnswerController.ParallelPage<ReviewResponse> parallel() {
+        return controller.parallel(0, 20, 3, sortBy, "desc", engine);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (context != null) {
+            context.close();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package ru.kopylov.multithreads.service;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.kopylov.multithreads.BenchmarkData;
+import ru.kopylov.multithreads.controller.SourceStubController.RawReviewDto;
+import ru.kopylov.multithreads.util.DedupUtils;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DedupBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private List<RawReviewDto> raw;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        raw = BenchmarkData.rawReviews(size).stream()
+                .map(r -> new RawReviewDto(r.getAuthorName().trim(), r.getRating(), r.getText().trim(), r.getCreatedAt()))
+                .toList();
+    }
+
+    @Benchmark
+    public void dedupKey(Blackhole bh) {
+        for (RawReviewDto r : raw) {
+            bh.consume(DedupUtils.dedupKey(r.getAuthorName(), r.getCreatedAt(), r.getRating(), r.getText()));
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package ru.kopylov.multithreads.service;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import ru.kopylov.multithreads.BenchmarkData;
+import ru.kopylov.multithreads.MultithreadsApplication;
+import ru.kopylov.multithreads.controller.SourceStubController.RawReviewDto;
+import ru.kopylov.multithreads.model.ParseJob;
+import ru.kopylov.multithreads.model.ParseStatus;
+import ru.kopylov.multithreads.repository.ParseJobRepository;
+import ru.kopylov.multithreads.repository.ReviewAggregateRepository;
+import ru.kopylov.multithreads.repository.ReviewRepository;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Нормализация, дедупликация и сохранение батча в H2 (saveReviewsAndCompleteJob).
+ * Каждый вызов пишет в новый sourceUrl, поэтому измеряется вставка, а не пропуск дублей.
+ * Перед каждой итерацией таблицы очищаются, чтобы замер не зависел от того, сколько уже записано.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IngestionBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private ConfigurableApplicationContext context;
+    private ParseJobRunner runner;
+    private ParseJobRepository parseJobRepository;
+    private ReviewRepository reviewRepository;
+    private ReviewAggregateRepository reviewAggregateRepository;
+    private List<RawReviewDto> raw;
+
+    private ParseJob job;
+    private String url;
+    private ConcurrentLinkedQueue<RawReviewDto> collected;
+
+    @Setup(Level.Trial)
+    public void startContext() {
+        context = SpringApplication.run(MultithreadsApplication.class, BenchmarkData.quietContextArgs("bench"));
+        runner = context.getBean(ParseJobRunner.class);
+        parseJobRepository = context.getBean(ParseJobRepository.class);
+        reviewRepository = context.getBean(ReviewRepository.class);
+        reviewAggregateRepository = context.getBean(ReviewAggregateRepository.class);
+        raw = BenchmarkData.rawReviews(size);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetData() {
+        reviewRepository.deleteAllInBatch();
+        reviewAggregateRepository.deleteAllInBatch();
+        parseJobRepository.deleteAllInBatch();
+    }
+
+    @Setup(Level.Invocation)
+    public void prepareJob() {
+        url = "https://example.com/bench/" + UUID.randomUUID();
+        job = parseJobRepository.save(ParseJob.builder()
+                .id(UUID.randomUUID())
+                .sourceUrl(url)
+                .status(ParseStatus.RUNNING)
+                .createdAt(Instant.now())
+                .startedAt(Instant.now())
+                .build());
+        collected = new ConcurrentLinkedQueue<>(raw);
+    }
+
+    @Benchmark
+    public Integer saveReviewsAndCompleteJob() {
+        runner.saveReviewsAndCompleteJob(job, job.getId(), url, collected);
+        return job.getCreatedReviews();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopContext() {
+        context.close();
+    }
+}
@@ -0,0 +1,66 @@
+package ru.kopylov.multithreads.service;
+
+import org.openjdk.jmh.annotations.*;
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.core.ObjectWriteContext;
+import tools.jackson.core.json.JsonFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import static ru.kopylov.multithreads.BenchmarkData.reviewText;
+
+/**
+ * Потоковый разбор ответа appreviews в RawReviewDto (без HTTP): от байтов тела до готовой страницы.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SteamDecodeBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private byte[] body;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SplittableRandom rnd = new SplittableRandom(42L);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator g = new JsonFactory().createGenerator(ObjectWriteContext.empty(), out)) {
+            g.writeStartObject();
+            g.writeNumberProperty("success", 1);
+            g.writeStringProperty("cursor", "AoJ4xbm");
+            g.writeArrayPropertyStart("reviews");
+            for (int i = 0; i < size; i++) {
+                g.writeStartObject();
+                g.writeStringProperty("recommendationid", Long.toString(150_000_000L + i));
+                g.writeObjectPropertyStart("author");
+                g.writeStringProperty("steamid", Long.toString(76_561_198_000_000_000L + i));
+                g.writeNumberProperty("num_games_owned", rnd.nextInt(1, 500));
+                g.writeNumberProperty("playtime_forever", rnd.nextInt(0, 100_000));
+                g.writeEndObject();
+                g.writeStringProperty("language", "english");
+                g.writeStringProperty("review", reviewText(rnd, i));
+                g.writeNumberProperty("timestamp_created", 1_700_000_000L + rnd.nextInt(0, 86_400 * 365));
+                g.writeBooleanProperty("voted_up", rnd.nextBoolean());
+                g.writeNumberProperty("votes_up", rnd.nextInt(0, 100));
+                g.writeStringProperty("weighted_vote_score", "0.5");
+                g.writeEndObject();
+            }
+            g.writeEndArray();
+            g.writeEndObject();
+        }
+        body = out.toByteArray();
+    }
+
+    @Benchmark
+    public SteamReviewsClient.SteamPage decode() {
+        return SteamReviewsDecoder.decode(new ByteArrayInputStream(body), SteamReviewsClient.ReviewFilter.ALL);
+    }
+}
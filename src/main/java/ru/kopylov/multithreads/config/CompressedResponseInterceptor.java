@@ -0,0 +1,83 @@
+package ru.kopylov.multithreads.config;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Просит сжатый ответ и распаковывает gzip/deflate. Нужен для транспорта jdk:
+ * java.net.http.HttpClient сам сжатие не поддерживает.
+ */
+class CompressedResponseInterceptor implements ClientHttpRequestInterceptor {
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+            throws IOException {
+        request.getHeaders().set(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
+
+        ClientHttpResponse response = execution.execute(request, body);
+        String encoding = response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+        if (encoding == null) {
+            return response;
+        }
+        encoding = encoding.trim().toLowerCase();
+        if (!encoding.equals("gzip") && !encoding.equals("deflate")) {
+            return response;
+        }
+        return new DecompressedResponse(response, encoding.equals("gzip"));
+    }
+
+    private static final class DecompressedResponse implements ClientHttpResponse {
+        private final ClientHttpResponse delegate;
+        private final boolean gzip;
+        private final HttpHeaders headers;
+        private InputStream body;
+
+        DecompressedResponse(ClientHttpResponse delegate, boolean gzip) {
+            this.delegate = delegate;
+            this.gzip = gzip;
+            this.headers = new HttpHeaders();
+            this.headers.putAll(delegate.getHeaders());
+            // длина и кодировка относятся к сжатому телу
+            this.headers.remove(HttpHeaders.CONTENT_ENCODING);
+            this.headers.remove(HttpHeaders.CONTENT_LENGTH);
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return delegate.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return delegate.getStatusText();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                InputStream raw = delegate.getBody();
+                body = gzip ? new GZIPInputStream(raw) : new InflaterInputStream(raw);
+            }
+            return body;
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+    }
+}
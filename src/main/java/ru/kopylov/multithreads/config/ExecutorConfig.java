@@ -1,5 +1,9 @@
 package ru.kopylov.multithreads.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import java.util.concurrent.*;
@@ -9,8 +13,17 @@ import java.util.concurrent.atomic.AtomicInteger;
 @Configuration
 public class ExecutorConfig {
 
+    // platform - пулы фиксированного размера, virtual - виртуальный поток на каждую задачу
+    // (параллельность в virtual ограничивает ConcurrencyLimiter)
+    @Value("${executor.mode:platform}")
+    private String mode;
+
     @Bean(destroyMethod = "shutdown")
-    public ExecutorService parserExecutor() {
+    public ExecutorService parserExecutor(MeterRegistry meterRegistry) {
+        if (isVirtual()) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("parser-vt-", 1).factory());
+        }
+
         int core = 4;
         int max = 8;
         int queueCapacity = 200;
@@ -29,17 +42,21 @@ public class ExecutorConfig {
             }
         };
 
-        return new ThreadPoolExecutor(
+        return monitor(new ThreadPoolExecutor(
                 core,
                 max,
                 60, TimeUnit.SECONDS,
                 queue,
                 tf,
                 new ThreadPoolExecutor.CallerRunsPolicy()
-        );
+        ), "parserExecutor", meterRegistry);
     }
     @Bean(destroyMethod = "shutdown")
-    public ExecutorService pageExecutor() {
+    public ExecutorService pageExecutor(MeterRegistry meterRegistry) {
+        if (isVirtual()) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("page-vt-", 1).factory());
+        }
+
         int threads = 4;
         ThreadFactory tf = new ThreadFactory() {
             private final java.util.concurrent.atomic.AtomicInteger n =
@@ -53,6 +70,17 @@ public class ExecutorConfig {
                 return t;
             }
         };
-        return Executors.newFixedThreadPool(threads, tf);
+        return monitor(Executors.newFixedThreadPool(threads, tf), "pageExecutor", meterRegistry);
+    }
+
+    // executor.active / executor.queued / executor.pool.size и т.д. с тегом name;
+    // у виртуальных исполнителей пула и очереди нет, там смотреть parser.db.permits.*
+    private static ExecutorService monitor(ExecutorService executor, String name, MeterRegistry meterRegistry) {
+        new ExecutorServiceMetrics(executor, name, Tags.empty()).bindTo(meterRegistry);
+        return executor;
+    }
+
+    private boolean isVirtual() {
+        return "virtual".equalsIgnoreCase(mode);
     }
 }
\ No newline at end of file
@@ -1,20 +1,101 @@
 package ru.kopylov.multithreads.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.restclient.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
+import java.net.http.HttpClient;
+import java.time.Duration;
+
 @Configuration
 public class RestClientConfig {
 
+    // apache - пул keep-alive соединений HttpClient 5 с лимитом на хост, gzip/deflate и метриками пула (HTTP/1.1)
+    // jdk - java.net.http.HttpClient с HTTP/2 (один мультиплексированный поток соединений на хост),
+    //       gzip/deflate распаковывает CompressedResponseInterceptor
+    @Value("${http.client.transport:apache}")
+    private String transport;
+
+    @Value("${http.client.max-total:64}")
+    private int maxTotal;
+
+    @Value("${http.client.max-per-host:8}")
+    private int maxPerHost;
+
+    @Value("${http.client.connect-timeout-ms:5000}")
+    private long connectTimeoutMs;
+
+    @Value("${http.client.read-timeout-ms:15000}")
+    private long readTimeoutMs;
+
     @Bean
-    public RestTemplate restTemplate(RestTemplateBuilder b) {
-        return b.additionalInterceptors((req, body, ex) ->
+    public RestTemplate restTemplate(RestTemplateBuilder b, ClientHttpRequestFactory sourceRequestFactory) {
+        var builder = b.requestFactory(() -> sourceRequestFactory)
+                .additionalInterceptors((req, body, ex) ->
                 {req.getHeaders().add(HttpHeaders.USER_AGENT,
                         "Mozilla/5.0 (compatible; MultithreadsParser/1.0)");
             return ex.execute(req, body);
-        }).build();
+        });
+        if (isJdk()) {
+            builder = builder.additionalInterceptors(new CompressedResponseInterceptor());
+        }
+        return builder.build();
+    }
+
+    @Bean
+    public ClientHttpRequestFactory sourceRequestFactory(MeterRegistry meterRegistry) {
+        if (isJdk()) {
+            HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_2)
+                    .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                    .followRedirects(HttpClient.Redirect.NORMAL)
+                    .build();
+            var factory = new JdkClientHttpRequestFactory(client);
+            factory.setReadTimeout(Duration.ofMillis(readTimeoutMs));
+            return factory;
+        }
+
+        PoolingHttpClientConnectionManager pool = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxTotal)
+                .setMaxConnPerRoute(maxPerHost)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                        .setSocketTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(10))
+                        .setTimeToLive(TimeValue.ofMinutes(5))
+                        .build())
+                .build();
+        // httpcomponents.httpclient.pool.total.connections{state=leased|available}, .total.max, .total.pending
+        new PoolingHttpClientConnectionManagerMetricsBinder(pool, "sources").bindTo(meterRegistry);
+
+        var client = HttpClients.custom()
+                .setConnectionManager(pool)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        // ожидание свободного соединения пула
+                        .setConnectionRequestTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                        .build())
+                .evictIdleConnections(TimeValue.ofSeconds(30))
+                .build();
+        // распаковка gzip/deflate и Accept-Encoding включены в HttpClient по умолчанию
+        return new HttpComponentsClientHttpRequestFactory(client);
+    }
+
+    private boolean isJdk() {
+        return "jdk".equalsIgnoreCase(transport);
     }
-}
\ No newline at end of file
+}
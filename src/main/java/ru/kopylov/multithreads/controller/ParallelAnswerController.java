@@ -1,6 +1,8 @@
 package ru.kopylov.multithreads.controller;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.web.bind.annotation.*;
 import ru.kopylov.multithreads.dto.ReviewResponse;
 import ru.kopylov.multithreads.repository.ReviewRepository;
@@ -15,14 +17,40 @@ public class ParallelAnswerController {
 
     private final ReviewRepository reviewRepository;
 
+    /**
+     * engine=db (по умолчанию) - фильтр, сортировка и пагинация выполняются в БД по индексам,
+     * engine=memory - вся таблица загружается в память и обрабатывается parallel stream.
+     */
     @GetMapping("/parallel")
     public ParallelPage<ReviewResponse> parallel(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "20") int size,
             @RequestParam(required = false) Integer minRating,
             @RequestParam(defaultValue = "fetchedAt") String sortBy,
-            @RequestParam(defaultValue = "desc") String direction
+            @RequestParam(defaultValue = "desc") String direction,
+            @RequestParam(defaultValue = "db") String engine
     ) {
+        if ("memory".equalsIgnoreCase(engine)) {
+            return inMemory(page, size, minRating, sortBy, direction);
+        }
+
+        String property = switch (sortBy) {
+            case "rating", "createdAt" -> sortBy;
+            default -> "fetchedAt";
+        };
+        Sort.Direction dir = "desc".equalsIgnoreCase(direction) ? Sort.Direction.DESC : Sort.Direction.ASC;
+        var pageable = PageRequest.of(page, size, Sort.by(dir, property).and(Sort.by(dir, "id")));
+
+        var result = minRating == null
+                ? reviewRepository.findAll(pageable)
+                : reviewRepository.findByRatingGreaterThanEqual(minRating, pageable);
+
+        List<ReviewResponse> content = result.map(ReviewResponse::from).getContent();
+
+        return new ParallelPage<>(content, page, size, (int) result.getTotalElements());
+    }
+
+    private ParallelPage<ReviewResponse> inMemory(int page, int size, Integer minRating, String sortBy, String direction) {
         var all = reviewRepository.findAll();
 
         Comparator<ru.kopylov.multithreads.model.Review> cmp = switch (sortBy) {
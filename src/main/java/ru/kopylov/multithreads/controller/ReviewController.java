@@ -7,21 +7,49 @@ import org.springdoc.core.annotations.ParameterObject;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.web.PageableDefault;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.kopylov.multithreads.dto.JobIdResponse;
 import ru.kopylov.multithreads.dto.JobResponse;
+import ru.kopylov.multithreads.dto.ParseBatchRequest;
+import ru.kopylov.multithreads.dto.ParseBatchResponse;
+import ru.kopylov.multithreads.dto.ParseBatchStatusResponse;
 import ru.kopylov.multithreads.dto.ParseRequest;
+import ru.kopylov.multithreads.dto.ReviewAggregatesResponse;
 import ru.kopylov.multithreads.dto.ReviewResponse;
+import ru.kopylov.multithreads.dto.ReviewSearchResponse;
+import ru.kopylov.multithreads.dto.ReviewSliceResponse;
+import ru.kopylov.multithreads.service.JobProgress;
+import ru.kopylov.multithreads.service.ReviewAggregates;
+import ru.kopylov.multithreads.service.ReviewExporter;
 import ru.kopylov.multithreads.service.ReviewService;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.NoSuchElementException;
 import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequiredArgsConstructor
 @Tag(name = "Reviews", description = "Парсинг и получение отзывов")
 public class ReviewController {
 
+    private static final int EXPORT_BUFFER = 64 * 1024;
+
     private final ReviewService reviewService;
+    private final ReviewExporter reviewExporter;
+    private final ReviewAggregates reviewAggregates;
+    private final JobProgress jobProgress;
 
     @PostMapping("/parse")
     public JobIdResponse parse(@Valid @RequestBody ParseRequest request) {
@@ -29,13 +57,139 @@ public class ReviewController {
         return new JobIdResponse(jobId);
     }
 
+    /**
+     * Запуск парсинга списка источников одним запросом: задачи создаются одной транзакцией,
+     * ход всего пакета - GET /parse/batch/{batchId}.
+     */
+    @PostMapping("/parse/batch")
+    public ParseBatchResponse parseBatch(@Valid @RequestBody ParseBatchRequest request) {
+        return ParseBatchResponse.from(request.getUrls(), reviewService.startParseBatch(request.getUrls()));
+    }
+
+    @GetMapping("/parse/batch/{id}")
+    public ParseBatchStatusResponse batch(@PathVariable UUID id,
+                                          @RequestParam(defaultValue = "false") boolean withJobs) {
+        try {
+            return ParseBatchStatusResponse.from(reviewService.getBatch(id, withJobs));
+        } catch (NoSuchElementException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage(), e);
+        }
+    }
+
     @GetMapping("/jobs/{id}")
     public JobResponse job(@PathVariable UUID id) {
         return JobResponse.from(reviewService.getJob(id));
     }
 
+    /**
+     * Ход задачи в реальном времени (Server-Sent Events, событие progress): сразу текущий снимок,
+     * затем каждое изменение - страницы, число отзывов, фазы. Поток закрывается после SUCCESS/FAILED.
+     * Изменения раздаются из памяти узла, без опроса БД.
+     */
+    @GetMapping(value = "/jobs/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter jobEvents(@PathVariable UUID id) {
+        try {
+            return jobProgress.subscribe(id);
+        } catch (NoSuchElementException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage(), e);
+        }
+    }
+
     @GetMapping("/answer")
     public Page<ReviewResponse> answer(@ParameterObject @PageableDefault(size = 20) Pageable pageable) {
         return reviewService.getReviews(pageable).map(ReviewResponse::from);
     }
+
+    /**
+     * То же, что /answer, но с курсором вместо номера страницы: без OFFSET и COUNT, глубокие страницы
+     * не дороже первой. Первая страница - без cursor, следующие - с nextCursor из предыдущего ответа.
+     */
+    @GetMapping("/answer/seek")
+    public ReviewSliceResponse answerSeek(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size,
+            @RequestParam(defaultValue = "fetchedAt") String sort,
+            @RequestParam(defaultValue = "desc") String direction,
+            @RequestParam(defaultValue = "false") boolean withTotal
+    ) {
+        try {
+            return ReviewSliceResponse.from(reviewService.getReviewsAfter(sort, direction, cursor, size, withTotal));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Поиск по тексту отзывов: все слова запроса должны встретиться в отзыве. Регистр и ё/е не различаются.
+     */
+    @GetMapping("/reviews/search")
+    public ReviewSearchResponse search(
+            @RequestParam String q,
+            @RequestParam(required = false) String source,
+            @RequestParam(defaultValue = "1") int minRating,
+            @RequestParam(defaultValue = "5") int maxRating,
+            @RequestParam(defaultValue = "relevance") String order,
+            @RequestParam(defaultValue = "20") int size
+    ) {
+        try {
+            return ReviewSearchResponse.from(reviewService.searchReviews(q, source, minRating, maxRating, order, size));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Гистограмма рейтингов и число отзывов по дням из счётчиков, без чтения самих отзывов.
+     * Даты - дата отзыва на сайте (createdAt), полуинтервал [from, to).
+     */
+    @GetMapping("/reviews/aggregates")
+    public ReviewAggregatesResponse aggregates(
+            @RequestParam(required = false) String source,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to
+    ) {
+        return reviewAggregates.summary(source, from, to);
+    }
+
+    /**
+     * Выгрузка всех отзывов одним ответом: строки идут из БД курсором прямо в ответ, память не растёт
+     * с размером выгрузки. Фильтр по источнику и по fetchedAt в [from, to).
+     */
+    @GetMapping("/reviews/export")
+    public ResponseEntity<StreamingResponseBody> export(
+            @RequestParam(defaultValue = "ndjson") String format,
+            @RequestParam(required = false) String source,
+            @RequestParam(required = false) Instant from,
+            @RequestParam(required = false) Instant to,
+            @RequestParam(defaultValue = "false") boolean gzip
+    ) {
+        ReviewExporter.Format f;
+        try {
+            f = ReviewExporter.Format.of(format);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+        if (from != null && to != null && !from.isBefore(to)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "from должен быть раньше to");
+        }
+
+        StreamingResponseBody body = out -> {
+            if (gzip) {
+                var gz = new GZIPOutputStream(out, EXPORT_BUFFER);
+                reviewExporter.export(f, source, from, to, gz);
+                gz.finish();
+            } else {
+                reviewExporter.export(f, source, from, to, out);
+            }
+        };
+        String filename = "reviews." + f.extension() + (gzip ? ".gz" : "");
+        return ResponseEntity.ok()
+                .contentType(gzip
+                        ? MediaType.parseMediaType("application/gzip")
+                        : new MediaType(MediaType.parseMediaType(f.contentType()), StandardCharsets.UTF_8))
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(filename).build().toString())
+                .body(body);
+    }
 }
\ No newline at end of file
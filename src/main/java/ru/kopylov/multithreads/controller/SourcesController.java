@@ -6,6 +6,7 @@ import org.springframework.web.bind.annotation.*;
 import ru.kopylov.multithreads.dto.AddSourceRequest;
 import ru.kopylov.multithreads.model.SourceUrl;
 import ru.kopylov.multithreads.repository.SourceUrlRepository;
+import ru.kopylov.multithreads.service.DedupKeyFilter;
 
 import java.util.List;
 
@@ -15,6 +16,7 @@ import java.util.List;
 public class SourcesController {
 
     private final SourceUrlRepository sourceUrlRepository;
+    private final DedupKeyFilter dedupKeyFilter;
 
     @PostMapping
     public SourceUrl add(@Valid @RequestBody AddSourceRequest req) {
@@ -34,6 +36,8 @@ public class SourcesController {
     public SourceUrl enable(@PathVariable Long id) {
         var s = sourceUrlRepository.findById(id).orElseThrow();
         s.setEnabled(true);
+        s.setNextDueAt(null);
+        s.setConsecutiveFailures(0);
         return sourceUrlRepository.save(s);
     }
 
@@ -43,4 +47,9 @@ public class SourcesController {
         s.setEnabled(false);
         return sourceUrlRepository.save(s);
     }
+
+    @GetMapping("/dedup-filter")
+    public List<DedupKeyFilter.Stats> dedupFilter() {
+        return dedupKeyFilter.stats();
+    }
 }
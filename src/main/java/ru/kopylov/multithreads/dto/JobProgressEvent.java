@@ -0,0 +1,49 @@
+package ru.kopylov.multithreads.dto;
+
+import ru.kopylov.multithreads.model.ParseJob;
+import ru.kopylov.multithreads.model.ParseStatus;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Снимок хода задачи, отправляемый подписчикам GET /jobs/{id}/events.
+ *
+ * @param phase       текущая фаза (FETCH, SAVE, STREAM); null, если задача не выполняется на этом узле
+ * @param pagesTotal  сколько страниц задача собирается загрузить
+ * @param pagesDone   сколько загружено
+ * @param raw         получено отзывов от источника
+ * @param saved       новых отзывов в БД
+ * @param skipped     отброшено дублей
+ * @param phaseMillis длительность завершённых фаз и текущей на момент снимка
+ * @param message     ошибка или причина отсрочки
+ */
+public record JobProgressEvent(UUID jobId,
+                               String sourceUrl,
+                               ParseStatus status,
+                               String phase,
+                               int pagesTotal,
+                               int pagesDone,
+                               long raw,
+                               long saved,
+                               long skipped,
+                               Map<String, Long> phaseMillis,
+                               String message,
+                               Instant updatedAt) {
+
+    /**
+     * Снимок по строке parse_jobs - для задач, которые выполняются не на этом узле или уже давно завершены.
+     */
+    public static JobProgressEvent from(ParseJob j) {
+        long saved = j.getCreatedReviews() == null ? 0 : j.getCreatedReviews();
+        Instant updated = j.getFinishedAt() != null ? j.getFinishedAt()
+                : j.getStartedAt() != null ? j.getStartedAt() : j.getCreatedAt();
+        return new JobProgressEvent(j.getId(), j.getSourceUrl(), j.getStatus(), null,
+                0, 0, 0, saved, 0, Map.of(), j.getErrorMessage(), updated);
+    }
+
+    public boolean finished() {
+        return status == ParseStatus.SUCCESS || status == ParseStatus.FAILED;
+    }
+}
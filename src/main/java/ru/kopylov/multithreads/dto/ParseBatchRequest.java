@@ -0,0 +1,27 @@
+package ru.kopylov.multithreads.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.*;
+import ru.kopylov.multithreads.service.ReviewService;
+
+import java.util.List;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(name = "ParseBatchRequest", description = "Запрос на запуск парсинга сразу по списку URL")
+public class ParseBatchRequest {
+
+    @NotEmpty(message = "urls не должен быть пустым")
+    @Size(max = ReviewService.MAX_BATCH_SIZE, message = "не больше " + ReviewService.MAX_BATCH_SIZE + " url в пакете")
+    @Schema(
+            description = "URL страниц товаров с отзывами",
+            example = "[\"https://example.com/product/1\", \"https://store.steampowered.com/app/570/\"]",
+            requiredMode = Schema.RequiredMode.REQUIRED
+    )
+    private List<@NotBlank(message = "url не должен быть пустым") String> urls;
+}
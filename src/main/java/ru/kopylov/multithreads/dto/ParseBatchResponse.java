@@ -0,0 +1,31 @@
+package ru.kopylov.multithreads.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import ru.kopylov.multithreads.service.ReviewService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+@Getter
+@AllArgsConstructor
+public class ParseBatchResponse {
+    private UUID batchId;
+    private List<Item> jobs;
+
+    @Getter
+    @AllArgsConstructor
+    public static class Item {
+        private String url;
+        private UUID jobId;
+    }
+
+    public static ParseBatchResponse from(List<String> urls, ReviewService.ParseBatch batch) {
+        List<Item> items = new ArrayList<>(urls.size());
+        for (int i = 0; i < urls.size(); i++) {
+            items.add(new Item(urls.get(i), batch.jobIds().get(i)));
+        }
+        return new ParseBatchResponse(batch.batchId(), items);
+    }
+}
@@ -0,0 +1,34 @@
+package ru.kopylov.multithreads.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import ru.kopylov.multithreads.model.ParseStatus;
+import ru.kopylov.multithreads.service.ReviewService;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+@Getter
+@AllArgsConstructor
+public class ParseBatchStatusResponse {
+    private UUID batchId;
+    private long total;
+    private Map<ParseStatus, Long> counts;
+    private long createdReviews;
+    // в пакете не осталось задач в очереди и выполняющихся
+    private boolean finished;
+    // только при withJobs=true
+    private List<JobResponse> jobs;
+
+    public static ParseBatchStatusResponse from(ReviewService.ParseBatchStatus s) {
+        return new ParseBatchStatusResponse(
+                s.batchId(),
+                s.total(),
+                s.counts(),
+                s.createdReviews(),
+                s.finished(),
+                s.jobs() == null ? null : s.jobs().stream().map(JobResponse::from).toList()
+        );
+    }
+}
@@ -0,0 +1,47 @@
+package ru.kopylov.multithreads.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+@Getter
+@AllArgsConstructor
+@Schema(name = "ReviewAggregatesResponse", description = "Сводка по отзывам источника из счётчиков review_aggregates")
+public class ReviewAggregatesResponse {
+
+    @Schema(description = "URL источника; null - все источники", example = "https://example.com/product/123", nullable = true)
+    private String source;
+
+    @Schema(description = "Всего отзывов в выборке", example = "1500")
+    private long total;
+
+    @Schema(description = "Средний рейтинг", example = "3.9")
+    private double averageRating;
+
+    @Schema(description = "Число отзывов по рейтингу 1..5")
+    private Map<Integer, Long> ratingHistogram;
+
+    @Schema(description = "Отзывы без даты (в ряд по дням не входят)", example = "0")
+    private long undated;
+
+    @Schema(description = "Число отзывов и средний рейтинг по дням, по возрастанию даты")
+    private List<DayStats> days;
+
+    @Getter
+    @AllArgsConstructor
+    public static class DayStats {
+
+        @Schema(description = "Дата отзыва на сайте", example = "2025-12-20")
+        private LocalDate day;
+
+        @Schema(description = "Отзывов за день", example = "42")
+        private long count;
+
+        @Schema(description = "Средний рейтинг за день", example = "4.1")
+        private double averageRating;
+    }
+}
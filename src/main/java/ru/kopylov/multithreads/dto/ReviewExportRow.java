@@ -0,0 +1,17 @@
+package ru.kopylov.multithreads.dto;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+/**
+ * Строка экспорта отзывов. Выбирается JPQL-конструктором, а не сущностью: такие объекты не попадают
+ * в контекст персистентности, и на выгрузке любой длины в памяти держится только текущая порция строк.
+ */
+public record ReviewExportRow(Long id,
+                              String sourceUrl,
+                              String authorName,
+                              int rating,
+                              String text,
+                              LocalDate createdAt,
+                              Instant fetchedAt) {
+}
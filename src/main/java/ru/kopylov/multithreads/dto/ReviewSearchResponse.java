@@ -0,0 +1,27 @@
+package ru.kopylov.multithreads.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import ru.kopylov.multithreads.service.ReviewService;
+
+import java.util.List;
+
+@Getter
+@AllArgsConstructor
+@Schema(name = "ReviewSearchResponse", description = "Результат поиска по тексту отзывов")
+public class ReviewSearchResponse {
+
+    @Schema(description = "Найденные отзывы, лучшие первыми")
+    private List<ReviewResponse> content;
+
+    @Schema(description = "Всего отзывов под запрос и фильтры", example = "1342")
+    private long totalHits;
+
+    public static ReviewSearchResponse from(ReviewService.ReviewSearchResult result) {
+        return new ReviewSearchResponse(
+                result.reviews().stream().map(ReviewResponse::from).toList(),
+                result.totalHits()
+        );
+    }
+}
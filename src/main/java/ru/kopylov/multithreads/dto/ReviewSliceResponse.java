@@ -0,0 +1,31 @@
+package ru.kopylov.multithreads.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import ru.kopylov.multithreads.service.ReviewService;
+
+import java.util.List;
+
+@Getter
+@AllArgsConstructor
+@Schema(name = "ReviewSliceResponse", description = "Страница отзывов keyset-пагинации")
+public class ReviewSliceResponse {
+
+    @Schema(description = "Отзывы страницы")
+    private List<ReviewResponse> content;
+
+    @Schema(description = "Курсор следующей страницы; null - страница последняя", example = "ZmV0Y2hlZEF0fGRlc2N8NDJ8MjAyNS0xMi0yN1QxODoyMjoxMS4xMjNa")
+    private String nextCursor;
+
+    @Schema(description = "Всего отзывов, только при withTotal=true", example = "1000000", nullable = true)
+    private Long totalElements;
+
+    public static ReviewSliceResponse from(ReviewService.ReviewSlice slice) {
+        return new ReviewSliceResponse(
+                slice.reviews().stream().map(ReviewResponse::from).toList(),
+                slice.nextCursor(),
+                slice.total()
+        );
+    }
+}
@@ -0,0 +1,22 @@
+package ru.kopylov.multithreads.model;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+import ru.kopylov.multithreads.util.DedupKey;
+
+/**
+ * Ключ хранится в БД как 32 байта (VARBINARY) вместо 64-символьной hex-строки.
+ */
+@Converter
+public class DedupKeyConverter implements AttributeConverter<DedupKey, byte[]> {
+
+    @Override
+    public byte[] convertToDatabaseColumn(DedupKey key) {
+        return key == null ? null : key.toBytes();
+    }
+
+    @Override
+    public DedupKey convertToEntityAttribute(byte[] bytes) {
+        return bytes == null ? null : DedupKey.fromBytes(bytes);
+    }
+}
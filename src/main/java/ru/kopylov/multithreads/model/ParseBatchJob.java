@@ -0,0 +1,33 @@
+package ru.kopylov.multithreads.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.util.UUID;
+
+/**
+ * Задача, входящая в пакет POST /parse/batch. Задача может быть новой или уже стоявшей в очереди
+ * у того же источника - тогда пакет ждёт её результата.
+ */
+@Entity
+@Table(name = "parse_batch_jobs",
+        indexes = {
+                @Index(name = "idx_parse_batch_jobs_batch_id", columnList = "batch_id")
+        })
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ParseBatchJob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "batch_id", nullable = false, columnDefinition = "UUID")
+    private UUID batchId;
+
+    @Column(name = "job_id", nullable = false, columnDefinition = "UUID")
+    private UUID jobId;
+}
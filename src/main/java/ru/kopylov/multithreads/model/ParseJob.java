@@ -7,7 +7,14 @@ import java.time.Instant;
 import java.util.UUID;
 
 @Entity
-@Table(name = "parse_jobs")
+@Table(name = "parse_jobs",
+        uniqueConstraints = {
+                @UniqueConstraint(name = "uk_parse_jobs_flight_key", columnNames = {"flight_key"})
+        },
+        indexes = {
+                @Index(name = "idx_parse_jobs_status_created_at", columnList = "status, created_at"),
+                @Index(name = "idx_parse_jobs_source_key", columnList = "source_key")
+        })
 @Getter
 @Setter
 @NoArgsConstructor
@@ -15,6 +22,9 @@ import java.util.UUID;
 @Builder
 public class ParseJob {
 
+    public static final String QUEUED_SUFFIX = "#queued";
+    public static final String RUNNING_SUFFIX = "#running";
+
     @Id
     @Column(columnDefinition = "UUID")
     private UUID id;
@@ -22,6 +32,15 @@ public class ParseJob {
     @Column(nullable = false, length = 2000)
     private String sourceUrl;
 
+    // ключ источника (steam:<appid> или URL), по нему задачи одного источника склеиваются
+    @Column(length = 2000)
+    private String sourceKey;
+
+    // sourceKey + #queued / #running пока задача активна, иначе null. Уникальный индекс по нему гарантирует
+    // не больше одной ожидающей и одной выполняющейся задачи на источник во всём кластере
+    @Column(length = 2020)
+    private String flightKey;
+
     @Enumerated(EnumType.STRING)
     @Column(nullable = false, length = 20)
     private ParseStatus status;
@@ -36,4 +55,45 @@ public class ParseJob {
 
     @Column(length = 5000)
     private String errorMessage;
+
+    // аренда задачи: какой узел её выполняет и до какого момента; просроченную аренду забирает другой узел
+    @Column(length = 200)
+    private String leaseOwner;
+
+    private Instant leaseUntil;
+
+    // сколько раз задачу забирали на выполнение
+    private Integer attempts;
+
+    // отложенная задача (хост источника недоступен) не забирается из очереди раньше этого момента
+    private Instant notBefore;
+
+    // когда задача последний раз вернулась в очередь (отложена или истекла аренда); null - стоит с создания
+    private Instant requeuedAt;
+
+    /**
+     * С какого момента задача ждёт в очереди: с создания или возврата в очередь, но не раньше notBefore.
+     */
+    public Instant queuedSince() {
+        Instant since = requeuedAt != null ? requeuedAt : createdAt;
+        return notBefore != null && notBefore.isAfter(since) ? notBefore : since;
+    }
+
+    public static String flightKey(String sourceKey, ParseStatus status) {
+        if (sourceKey == null) {
+            return null;
+        }
+        return switch (status) {
+            case QUEUED -> sourceKey + QUEUED_SUFFIX;
+            case RUNNING -> sourceKey + RUNNING_SUFFIX;
+            default -> null;
+        };
+    }
+
+    // массовые UPDATE в ParseJobRepository обходят этот колбэк и выставляют flightKey сами
+    @PrePersist
+    @PreUpdate
+    void syncFlightKey() {
+        flightKey = flightKey(sourceKey, status);
+    }
 }
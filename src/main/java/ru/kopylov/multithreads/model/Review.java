@@ -2,6 +2,7 @@ package ru.kopylov.multithreads.model;
 
 import jakarta.persistence.*;
 import lombok.*;
+import ru.kopylov.multithreads.util.DedupKey;
 import ru.kopylov.multithreads.util.DedupUtils;
 
 import java.time.Instant;
@@ -12,6 +13,12 @@ import java.time.Instant;
         name = "reviews",
         uniqueConstraints = {
                 @UniqueConstraint(name = "uk_reviews_source_dedup", columnNames = {"source_url", "dedup_key"})
+        },
+        indexes = {
+                // (поле, id): сортировка и keyset-пагинация по полю идут по индексу, id - однозначный порядок
+                @Index(name = "idx_reviews_rating_id", columnList = "rating, id"),
+                @Index(name = "idx_reviews_created_at_id", columnList = "created_at, id"),
+                @Index(name = "idx_reviews_fetched_at_id", columnList = "fetched_at, id")
         }
 )
 @Getter @Setter
@@ -40,8 +47,9 @@ public class Review {
     @Column(nullable = false)
     private java.time.Instant fetchedAt;
 
-    @Column(name = "dedup_key", nullable = false, length = 64)
-    private String dedupKey;
+    @Convert(converter = DedupKeyConverter.class)
+    @Column(name = "dedup_key", nullable = false, length = DedupKey.BYTES)
+    private DedupKey dedupKey;
 
     @PrePersist
     public void prePersist() {
@@ -49,13 +57,11 @@ public class Review {
             this.fetchedAt = Instant.now();
         }
 
-        if (this.dedupKey == null || this.dedupKey.isBlank()) {
+        if (this.dedupKey == null) {
             String normAuthor = (this.authorName == null) ? "" : this.authorName.trim();
             String normText   = (this.text == null) ? "" : this.text.trim();
-            String normDate   = (this.createdAt == null) ? "" : this.createdAt.toString();
 
-            String material = normAuthor + "|" + normDate + "|" + this.rating + "|" + normText;
-            this.dedupKey = DedupUtils.sha256Hex(material);
+            this.dedupKey = DedupUtils.dedupKey(normAuthor, this.createdAt, this.rating, normText);
         }
     }
 }
\ No newline at end of file
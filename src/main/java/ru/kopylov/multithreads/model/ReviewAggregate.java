@@ -0,0 +1,45 @@
+package ru.kopylov.multithreads.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDate;
+
+/**
+ * Счётчик отзывов в корзине (источник, дата отзыва, рейтинг). Пополняется в той же транзакции,
+ * что и вставка отзывов (ReviewIngestor), поэтому гистограммы и ряды по дням читаются без обхода reviews.
+ * Отзывы без даты попадают в корзину с датой-заглушкой UNDATED: с NULL уникальный индекс корзины
+ * не сработал бы (NULL не совпадает с NULL), и гонка вставок давала бы по корзине несколько строк.
+ */
+@Entity
+@Table(name = "review_aggregates",
+        uniqueConstraints = {
+                @UniqueConstraint(name = "uk_review_aggregates_bucket",
+                        columnNames = {"source_url", "review_date", "rating"})
+        })
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ReviewAggregate {
+
+    // не раньше 1583: старые даты при передаче через JDBC сдвигаются из-за смены календаря
+    public static final LocalDate UNDATED = LocalDate.of(1900, 1, 1);
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "source_url", nullable = false)
+    private String sourceUrl;
+
+    @Column(name = "review_date", nullable = false)
+    private LocalDate reviewDate;
+
+    @Column(nullable = false)
+    private int rating;
+
+    @Column(name = "review_count", nullable = false)
+    private long reviewCount;
+}
@@ -4,6 +4,7 @@ import jakarta.persistence.*;
 import lombok.*;
 
 import java.time.Instant;
+import java.util.UUID;
 
 
 @Entity
@@ -26,4 +27,15 @@ public class SourceUrl {
     private boolean enabled;
 
     private Instant lastTriggeredAt;
+
+    // когда источник пора обходить снова; null - при ближайшем тике планировщика
+    private Instant nextDueAt;
+
+    // текущий интервал между обходами, подстраивается по результатам (ScheduledParser)
+    private Integer intervalSeconds;
+
+    private Integer consecutiveFailures;
+
+    @Column(columnDefinition = "UUID")
+    private UUID lastJobId;
 }
@@ -0,0 +1,45 @@
+package ru.kopylov.multithreads.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * Верхняя граница уже собранных отзывов Steam-источника: время самого свежего отзыва
+ * и id отзывов с этим временем (у Steam точность timestamp_created - секунда).
+ */
+@Entity
+@Table(name = "steam_watermarks")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class SteamWatermark {
+
+    // steam:<appid>
+    @Id
+    @Column(length = 64)
+    private String sourceKey;
+
+    @Column(nullable = false)
+    private long newestCreatedAt;
+
+    // recommendationid через запятую
+    @Column(length = 2000)
+    private String boundaryIds;
+
+    // обход упёрся в лимит страниц, не дойдя до границы: курсор, с которого продолжить, и самый свежий отзыв
+    // уже собранной части; граница сдвигается на него, только когда продолжение дойдёт до старой границы
+    @Column(length = 512)
+    private String resumeCursor;
+
+    private Long resumeNewestCreatedAt;
+
+    @Column(length = 2000)
+    private String resumeBoundaryIds;
+
+    @Column(nullable = false)
+    private Instant updatedAt;
+}
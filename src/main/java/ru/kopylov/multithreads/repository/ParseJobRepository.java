@@ -1,9 +1,201 @@
 package ru.kopylov.multithreads.repository;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 import ru.kopylov.multithreads.model.ParseJob;
+import ru.kopylov.multithreads.model.ParseStatus;
 
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
-public interface ParseJobRepository extends JpaRepository<ParseJob, UUID> {
+public interface ParseJobRepository extends JpaRepository<ParseJob, UUID>, ParseJobRepositoryCustom {
+
+    Optional<ParseJob> findByFlightKey(String flightKey);
+
+    List<ParseJob> findByFlightKeyIn(Collection<String> flightKeys);
+
+    @Query("""
+            select j from ParseJob j
+             where j.id in (select b.jobId from ParseBatchJob b where b.batchId = :batchId)
+             order by j.createdAt, j.id
+            """)
+    List<ParseJob> findByBatchId(@Param("batchId") UUID batchId);
+
+    // статус, число задач, сумма новых отзывов
+    @Query("""
+            select j.status, count(j), coalesce(sum(j.createdReviews), 0) from ParseJob j
+             where j.id in (select b.jobId from ParseBatchJob b where b.batchId = :batchId)
+             group by j.status
+            """)
+    List<Object[]> summarizeBatch(@Param("batchId") UUID batchId);
+
+    long countByStatusIn(Collection<ParseStatus> statuses);
+
+    /**
+     * Задачи в очереди, у источника которых сейчас нет выполняющейся задачи, кроме отложенных на после now.
+     */
+    @Query("""
+            select j.id from ParseJob j
+             where j.status = ru.kopylov.multithreads.model.ParseStatus.QUEUED
+               and (j.notBefore is null or j.notBefore <= :now)
+               and not exists (select r.id from ParseJob r
+                                where r.sourceKey = j.sourceKey
+                                  and r.status = ru.kopylov.multithreads.model.ParseStatus.RUNNING)
+             order by j.createdAt, j.id
+            """)
+    List<UUID> findClaimableIds(@Param("now") Instant now, Pageable pageable);
+
+    /**
+     * Забирает задачу, если она всё ещё в очереди. Условный UPDATE атомарен для строки,
+     * поэтому из нескольких узлов задачу получит ровно один (вернёт 1). Если у источника уже есть
+     * выполняющаяся задача, UPDATE упадёт на уникальном flight_key.
+     */
+    @Modifying
+    @Transactional
+    @Query("""
+            update ParseJob j
+               set j.status = ru.kopylov.multithreads.model.ParseStatus.RUNNING,
+                   j.flightKey = concat(j.sourceKey, '#running'),
+                   j.leaseOwner = :owner,
+                   j.leaseUntil = :until,
+                   j.attempts = coalesce(j.attempts, 0) + 1
+             where j.id = :id
+               and j.status = ru.kopylov.multithreads.model.ParseStatus.QUEUED
+            """)
+    int claim(@Param("id") UUID id, @Param("owner") String owner, @Param("until") Instant until);
+
+    @Modifying
+    @Transactional
+    @Query("""
+            update ParseJob j
+               set j.leaseUntil = :until
+             where j.leaseOwner = :owner
+               and j.status = ru.kopylov.multithreads.model.ParseStatus.RUNNING
+            """)
+    int renewLeases(@Param("owner") String owner, @Param("until") Instant until);
+
+    @Modifying
+    @Transactional
+    @Query("update ParseJob j set j.leaseOwner = null, j.leaseUntil = null where j.id = :id and j.leaseOwner = :owner")
+    int releaseLease(@Param("id") UUID id, @Param("owner") String owner);
+
+    /*
+     * Запись хода и результата задачи её исполнителем. Условие на владельца, номер попытки и RUNNING - фенсинг:
+     * если аренда истекла и задачу вернули в очередь или забрал другой узел (или этот же узел повторно),
+     * UPDATE ничего не меняет (вернёт 0) и не затирает состояние нового владельца.
+     */
+
+    @Modifying
+    @Transactional
+    @Query("""
+            update ParseJob j
+               set j.startedAt = :startedAt
+             where j.id = :id
+               and j.leaseOwner = :owner
+               and j.attempts = :attempt
+               and j.status = ru.kopylov.multithreads.model.ParseStatus.RUNNING
+            """)
+    int markStarted(@Param("id") UUID id,
+                    @Param("owner") String owner,
+                    @Param("attempt") Integer attempt,
+                    @Param("startedAt") Instant startedAt);
+
+    /**
+     * @param status SUCCESS или FAILED
+     */
+    @Modifying
+    @Transactional
+    @Query("""
+            update ParseJob j
+               set j.status = :status,
+                   j.finishedAt = :finishedAt,
+                   j.createdReviews = :createdReviews,
+                   j.errorMessage = :errorMessage,
+                   j.flightKey = null,
+                   j.leaseOwner = null,
+                   j.leaseUntil = null
+             where j.id = :id
+               and j.leaseOwner = :owner
+               and j.attempts = :attempt
+               and j.status = ru.kopylov.multithreads.model.ParseStatus.RUNNING
+            """)
+    int finishLeased(@Param("id") UUID id,
+                     @Param("owner") String owner,
+                     @Param("attempt") Integer attempt,
+                     @Param("status") ParseStatus status,
+                     @Param("finishedAt") Instant finishedAt,
+                     @Param("createdReviews") Integer createdReviews,
+                     @Param("errorMessage") String errorMessage);
+
+    /**
+     * Возвращает свою задачу в очередь. Если у источника уже есть задача в очереди, UPDATE упадёт
+     * на уникальном flight_key.
+     */
+    @Modifying
+    @Transactional
+    @Query("""
+            update ParseJob j
+               set j.status = ru.kopylov.multithreads.model.ParseStatus.QUEUED,
+                   j.flightKey = concat(j.sourceKey, '#queued'),
+                   j.startedAt = null,
+                   j.notBefore = :notBefore,
+                   j.requeuedAt = :now,
+                   j.errorMessage = :errorMessage,
+                   j.leaseOwner = null,
+                   j.leaseUntil = null
+             where j.id = :id
+               and j.leaseOwner = :owner
+               and j.attempts = :attempt
+               and j.status = ru.kopylov.multithreads.model.ParseStatus.RUNNING
+            """)
+    int requeueLeased(@Param("id") UUID id,
+                      @Param("owner") String owner,
+                      @Param("attempt") Integer attempt,
+                      @Param("notBefore") Instant notBefore,
+                      @Param("now") Instant now,
+                      @Param("errorMessage") String errorMessage);
+
+    /**
+     * Возвращает в очередь задачи, чья аренда истекла (узел упал или завис), если попытки ещё остались
+     * и у источника нет другой задачи в очереди (иначе задача завершается в failExpired - её заменит ожидающая).
+     */
+    @Modifying
+    @Transactional
+    @Query("""
+            update ParseJob j
+               set j.status = ru.kopylov.multithreads.model.ParseStatus.QUEUED,
+                   j.flightKey = concat(j.sourceKey, '#queued'),
+                   j.leaseOwner = null,
+                   j.leaseUntil = null,
+                   j.requeuedAt = :now
+             where j.status = ru.kopylov.multithreads.model.ParseStatus.RUNNING
+               and (j.leaseUntil is null or j.leaseUntil < :now)
+               and coalesce(j.attempts, 0) < :maxAttempts
+               and not exists (select q.id from ParseJob q
+                                where q.sourceKey = j.sourceKey
+                                  and q.status = ru.kopylov.multithreads.model.ParseStatus.QUEUED)
+            """)
+    int requeueExpired(@Param("now") Instant now, @Param("maxAttempts") int maxAttempts);
+
+    @Modifying
+    @Transactional
+    @Query("""
+            update ParseJob j
+               set j.status = ru.kopylov.multithreads.model.ParseStatus.FAILED,
+                   j.finishedAt = :now,
+                   j.errorMessage = :message,
+                   j.flightKey = null,
+                   j.leaseOwner = null,
+                   j.leaseUntil = null
+             where j.status = ru.kopylov.multithreads.model.ParseStatus.RUNNING
+               and (j.leaseUntil is null or j.leaseUntil < :now)
+            """)
+    int failExpired(@Param("now") Instant now, @Param("message") String message);
 }
@@ -0,0 +1,20 @@
+package ru.kopylov.multithreads.repository;
+
+import ru.kopylov.multithreads.model.ParseJob;
+
+import java.util.List;
+import java.util.UUID;
+
+public interface ParseJobRepositoryCustom {
+
+    /**
+     * Пакетная вставка задач и состава пакета одной транзакцией, в обход Hibernate: id задач заданы заранее,
+     * и saveAll делал бы SELECT перед каждой вставкой. status, createdAt и flightKey должны быть заполнены:
+     * @PrePersist здесь не вызывается. Если у источника уже есть задача в очереди, вставка упадёт
+     * на uk_parse_jobs_flight_key и откатится целиком.
+     *
+     * @param batchId    пакет, в который входят задачи batchJobIds; null - без записи состава
+     * @param batchJobIds новые и уже существовавшие задачи пакета
+     */
+    void insertQueued(List<ParseJob> jobs, UUID batchId, List<UUID> batchJobIds);
+}
@@ -0,0 +1,47 @@
+package ru.kopylov.multithreads.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+import ru.kopylov.multithreads.model.ParseJob;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.UUID;
+
+public class ParseJobRepositoryCustomImpl implements ParseJobRepositoryCustom {
+    private static final int BATCH_SIZE = 500;
+
+    private static final String INSERT_JOB = """
+            insert into parse_jobs (id, source_url, source_key, flight_key, status, created_at)
+            values (?, ?, ?, ?, ?, ?)
+            """;
+
+    private static final String INSERT_BATCH_JOB = "insert into parse_batch_jobs (batch_id, job_id) values (?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ParseJobRepositoryCustomImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    @Transactional
+    public void insertQueued(List<ParseJob> jobs, UUID batchId, List<UUID> batchJobIds) {
+        if (!jobs.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_JOB, jobs, BATCH_SIZE, (ps, j) -> {
+                ps.setObject(1, j.getId());
+                ps.setString(2, j.getSourceUrl());
+                ps.setString(3, j.getSourceKey());
+                ps.setString(4, j.getFlightKey());
+                ps.setString(5, j.getStatus().name());
+                ps.setTimestamp(6, Timestamp.from(j.getCreatedAt()));
+            });
+        }
+        if (batchId != null && !batchJobIds.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_BATCH_JOB, batchJobIds, BATCH_SIZE, (ps, jobId) -> {
+                ps.setObject(1, batchId);
+                ps.setObject(2, jobId);
+            });
+        }
+    }
+}
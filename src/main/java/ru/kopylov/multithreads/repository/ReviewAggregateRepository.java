@@ -0,0 +1,7 @@
+package ru.kopylov.multithreads.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import ru.kopylov.multithreads.model.ReviewAggregate;
+
+public interface ReviewAggregateRepository extends JpaRepository<ReviewAggregate, Long>, ReviewAggregateRepositoryCustom {
+}
@@ -0,0 +1,37 @@
+package ru.kopylov.multithreads.repository;
+
+import ru.kopylov.multithreads.model.Review;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+public interface ReviewAggregateRepositoryCustom {
+
+    /**
+     * Прибавляет вставленные отзывы к счётчикам их корзин. Вызывать в транзакции вставки отзывов:
+     * при откате откатятся и счётчики.
+     */
+    void addReviews(Collection<Review> inserted);
+
+    /**
+     * Пересчитывает все корзины по таблице reviews (один GROUP BY): для первого запуска на непустой БД.
+     *
+     * @return сколько корзин получилось
+     */
+    int rebuildFromReviews();
+
+    /**
+     * Корзины источника за даты [from, to), суммированные по (дата, рейтинг), по возрастанию даты.
+     *
+     * @param sourceUrl null - все источники
+     * @param from      null - без нижней границы (и вместе с корзиной без даты)
+     * @param to        null - без верхней границы
+     */
+    List<Bucket> findBuckets(String sourceUrl, LocalDate from, LocalDate to);
+
+    /**
+     * @param day null - отзывы без даты
+     */
+    record Bucket(LocalDate day, int rating, long count) {}
+}
@@ -0,0 +1,117 @@
+package ru.kopylov.multithreads.repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.kopylov.multithreads.model.Review;
+import ru.kopylov.multithreads.model.ReviewAggregate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ReviewAggregateRepositoryCustomImpl implements ReviewAggregateRepositoryCustom {
+
+    // счётчик увеличивается в самой строке: параллельные вставки по тому же источнику не теряют приращения
+    private static final String INCREMENT = """
+            update review_aggregates set review_count = review_count + ?
+             where source_url = ? and review_date = ? and rating = ?
+            """;
+
+    private static final String INSERT = """
+            insert into review_aggregates (source_url, review_date, rating, review_count) values (?, ?, ?, ?)
+            """;
+
+    private static final String REBUILD = """
+            insert into review_aggregates (source_url, review_date, rating, review_count)
+            select source_url, coalesce(created_at, ?), rating, count(*) from reviews
+             group by source_url, coalesce(created_at, ?), rating
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public ReviewAggregateRepositoryCustomImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void addReviews(Collection<Review> inserted) {
+        if (inserted.isEmpty()) {
+            return;
+        }
+        // порция - одна задача одного источника, корзин в ней единицы-десятки
+        Map<BucketKey, Long> counts = new HashMap<>();
+        for (Review r : inserted) {
+            LocalDate day = r.getCreatedAt() == null ? ReviewAggregate.UNDATED : r.getCreatedAt();
+            counts.merge(new BucketKey(r.getSourceUrl(), day, r.getRating()), 1L, Long::sum);
+        }
+
+        var buckets = new ArrayList<>(counts.entrySet());
+        int[] updated = jdbcTemplate.batchUpdate(INCREMENT, buckets.stream()
+                .map(e -> new Object[]{e.getValue(), e.getKey().sourceUrl(), e.getKey().day(), e.getKey().rating()})
+                .toList());
+        var missing = new ArrayList<Map.Entry<BucketKey, Long>>();
+        for (int i = 0; i < buckets.size(); i++) {
+            if (updated[i] == 0) {
+                missing.add(buckets.get(i));
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            // если параллельная транзакция успела создать ту же корзину, вставка упадёт на uk_review_aggregates_bucket,
+            // и ReviewIngestor повторит всю порцию в новой транзакции - уже с UPDATE
+            jdbcTemplate.batchUpdate(INSERT, missing.stream()
+                    .map(e -> new Object[]{e.getKey().sourceUrl(), e.getKey().day(), e.getKey().rating(), e.getValue()})
+                    .toList());
+        }
+    }
+
+    @Override
+    public int rebuildFromReviews() {
+        jdbcTemplate.update("delete from review_aggregates");
+        return jdbcTemplate.update(REBUILD, ReviewAggregate.UNDATED, ReviewAggregate.UNDATED);
+    }
+
+    @Override
+    public List<Bucket> findBuckets(String sourceUrl, LocalDate from, LocalDate to) {
+        StringBuilder jpql = new StringBuilder("""
+                select a.reviewDate, a.rating, sum(a.reviewCount)
+                  from ReviewAggregate a
+                 where 1 = 1""");
+        if (sourceUrl != null) {
+            jpql.append(" and a.sourceUrl = :sourceUrl");
+        }
+        if (from != null) {
+            jpql.append(" and a.reviewDate >= :from");
+        }
+        if (to != null) {
+            // заглушка корзины без даты меньше любой верхней границы, но в диапазон дат не входит
+            jpql.append(" and a.reviewDate < :to and a.reviewDate <> :undated");
+        }
+        jpql.append(" group by a.reviewDate, a.rating order by a.reviewDate, a.rating");
+
+        var query = entityManager.createQuery(jpql.toString(), Object[].class);
+        if (sourceUrl != null) {
+            query.setParameter("sourceUrl", sourceUrl);
+        }
+        if (from != null) {
+            query.setParameter("from", from);
+        }
+        if (to != null) {
+            query.setParameter("to", to);
+            query.setParameter("undated", ReviewAggregate.UNDATED);
+        }
+        return query.getResultList().stream()
+                .map(row -> new Bucket(ReviewAggregate.UNDATED.equals(row[0]) ? null : (LocalDate) row[0],
+                        ((Number) row[1]).intValue(), ((Number) row[2]).longValue()))
+                .toList();
+    }
+
+    private record BucketKey(String sourceUrl, LocalDate day, int rating) {}
+}
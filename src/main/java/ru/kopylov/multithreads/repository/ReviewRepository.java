@@ -1,16 +1,18 @@
 package ru.kopylov.multithreads.repository;
 
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.Query;
-import org.springframework.data.repository.query.Param;
 import ru.kopylov.multithreads.model.Review;
 import org.springframework.data.jpa.repository.JpaRepository;
 
-import java.util.Collection;
-import java.util.List;
+import java.util.stream.Stream;
 
-public interface ReviewRepository extends JpaRepository<Review, Long> {
+public interface ReviewRepository extends JpaRepository<Review, Long>, ReviewRepositoryCustom {
 
-    @Query("select r.dedupKey from Review r where r.sourceUrl = :sourceUrl and r.dedupKey in :keys")
-    List<String> findExistingDedupKeys(@Param("sourceUrl") String sourceUrl,
-                                       @Param("keys") Collection<String> keys);
+    // для прогрева фильтра ключей; вызывать внутри транзакции и закрывать поток
+    @Query("select r.sourceUrl, r.dedupKey from Review r")
+    Stream<Object[]> streamAllDedupKeys();
+
+    Page<Review> findByRatingGreaterThanEqual(int minRating, Pageable pageable);
 }
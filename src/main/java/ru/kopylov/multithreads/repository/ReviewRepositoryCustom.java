@@ -0,0 +1,60 @@
+package ru.kopylov.multithreads.repository;
+
+import ru.kopylov.multithreads.dto.ReviewExportRow;
+import ru.kopylov.multithreads.model.Review;
+import ru.kopylov.multithreads.util.DedupKey;
+import ru.kopylov.multithreads.util.ReviewCursor;
+
+import java.util.Collection;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Stream;
+
+public interface ReviewRepositoryCustom {
+
+    // вне derived/@Query-методов: Spring Data принял бы record DedupKey в возвращаемом типе за DTO-проекцию
+    List<DedupKey> findExistingDedupKeys(String sourceUrl, Collection<DedupKey> keys);
+
+    /**
+     * Пакетная вставка отзывов в обход Hibernate с пропуском тех, что уже есть по uk_reviews_source_dedup.
+     * dedupKey и fetchedAt должны быть уже заполнены: @PrePersist здесь не вызывается.
+     *
+     * @return отзывы, которые действительно были вставлены, с проставленными id
+     */
+    List<Review> insertIgnoringDuplicates(List<Review> reviews);
+
+    /**
+     * Пакетная вставка без проверки дублей: для ключей, про которые заранее известно, что их нет в БД.
+     * Дубль приведёт к DuplicateKeyException. Вставленным отзывам проставляются id.
+     */
+    void insertAll(List<Review> reviews);
+
+    /**
+     * Keyset-пагинация: до limit отзывов строго после позиции after в порядке (sort, id).
+     * Вместо OFFSET условие по ключу последнего отзыва, по составному индексу (поле, id), и без COUNT,
+     * поэтому глубокая страница стоит столько же, сколько первая. Отзывы без createdAt идут в конце.
+     *
+     * @param after null - с начала выдачи
+     */
+    List<Review> findPage(ReviewCursor.SortKey sort, boolean descending, ReviewCursor after, int limit);
+
+    /**
+     * Отзывы для выгрузки в порядке id, курсором JDBC порциями по fetchSize. Вызывать внутри транзакции
+     * и закрывать поток.
+     *
+     * @param sourceUrl null - все источники
+     * @param from      fetchedAt не раньше, null - без нижней границы
+     * @param to        fetchedAt строго раньше, null - без верхней границы
+     */
+    Stream<ReviewExportRow> streamForExport(String sourceUrl, Instant from, Instant to, int fetchSize);
+
+    /**
+     * Отзывы с id больше afterId в порядке id, курсором JDBC. Вызывать внутри транзакции и закрывать поток.
+     */
+    Stream<ReviewExportRow> streamAfterId(long afterId, int fetchSize);
+
+    /**
+     * Отзывы с данными id в порядке id; отсутствующие в БД пропускаются.
+     */
+    List<ReviewExportRow> findRowsByIdIn(Collection<Long> ids);
+}
@@ -0,0 +1,248 @@
+package ru.kopylov.multithreads.repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.hibernate.jpa.HibernateHints;
+import ru.kopylov.multithreads.dto.ReviewExportRow;
+import ru.kopylov.multithreads.model.Review;
+import ru.kopylov.multithreads.util.DedupKey;
+import ru.kopylov.multithreads.util.ReviewCursor;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class ReviewRepositoryCustomImpl implements ReviewRepositoryCustom {
+    private static final int BATCH_SIZE = 500;
+
+    // вставка и проверка дубля в одном операторе: один JDBC-батч на порцию вместо SELECT ... IN + INSERT на каждую строку
+    private static final String INSERT_IF_ABSENT = """
+            insert into reviews (source_url, author_name, rating, text, created_at, fetched_at, dedup_key)
+            select ?, ?, ?, ?, ?, ?, ?
+            where not exists (select 1 from reviews where source_url = ? and dedup_key = ?)
+            """;
+
+    private static final String INSERT = """
+            insert into reviews (source_url, author_name, rating, text, created_at, fetched_at, dedup_key)
+            values (?, ?, ?, ?, ?, ?, ?)
+            """;
+
+    private static final String INSERT_ON_CONFLICT = """
+            insert into reviews (source_url, author_name, rating, text, created_at, fetched_at, dedup_key)
+            values (?, ?, ?, ?, ?, ?, ?)
+            on conflict on constraint uk_reviews_source_dedup do nothing
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private volatile Boolean onConflictSupported;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public ReviewRepositoryCustomImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public List<DedupKey> findExistingDedupKeys(String sourceUrl, Collection<DedupKey> keys) {
+        return entityManager.createQuery(
+                        "select r.dedupKey from Review r where r.sourceUrl = :sourceUrl and r.dedupKey in :keys",
+                        DedupKey.class)
+                .setParameter("sourceUrl", sourceUrl)
+                .setParameter("keys", keys)
+                .getResultList();
+    }
+
+    @Override
+    public List<Review> insertIgnoringDuplicates(List<Review> reviews) {
+        if (reviews.isEmpty()) {
+            return List.of();
+        }
+        boolean withExistsCheck = !onConflictSupported();
+        String statement = withExistsCheck ? INSERT_IF_ABSENT : INSERT_ON_CONFLICT;
+        return batchInsert(statement, reviews, withExistsCheck);
+    }
+
+    @Override
+    public void insertAll(List<Review> reviews) {
+        if (reviews.isEmpty()) {
+            return;
+        }
+        batchInsert(INSERT, reviews, false);
+    }
+
+    // порциями по BATCH_SIZE; сгенерированные id проставляются вставленным отзывам
+    private List<Review> batchInsert(String statement, List<Review> reviews, boolean withExistsCheck) {
+        List<Review> inserted = new ArrayList<>(reviews.size());
+        for (int from = 0; from < reviews.size(); from += BATCH_SIZE) {
+            List<Review> chunk = reviews.subList(from, Math.min(from + BATCH_SIZE, reviews.size()));
+            var keys = new GeneratedKeyHolder();
+            int[] counts = jdbcTemplate.batchUpdate(
+                    c -> c.prepareStatement(statement, new String[]{"id"}),
+                    new BatchPreparedStatementSetter() {
+                        @Override
+                        public void setValues(PreparedStatement ps, int i) throws SQLException {
+                            bind(ps, chunk.get(i), withExistsCheck);
+                        }
+
+                        @Override
+                        public int getBatchSize() {
+                            return chunk.size();
+                        }
+                    },
+                    keys);
+
+            // ключи приходят только по вставленным строкам, в порядке батча
+            var generated = keys.getKeyList().iterator();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    Review r = chunk.get(i);
+                    r.setId(((Number) generated.next().values().iterator().next()).longValue());
+                    inserted.add(r);
+                }
+            }
+        }
+        return inserted;
+    }
+
+    private static void bind(PreparedStatement ps, Review r, boolean withExistsCheck) throws SQLException {
+        ps.setString(1, r.getSourceUrl());
+        ps.setString(2, r.getAuthorName());
+        ps.setInt(3, r.getRating());
+        ps.setString(4, r.getText());
+        if (r.getCreatedAt() == null) {
+            ps.setNull(5, Types.DATE);
+        } else {
+            ps.setObject(5, r.getCreatedAt());
+        }
+        ps.setTimestamp(6, Timestamp.from(r.getFetchedAt()));
+        ps.setBytes(7, r.getDedupKey().toBytes());
+        if (withExistsCheck) {
+            ps.setString(8, r.getSourceUrl());
+            ps.setBytes(9, r.getDedupKey().toBytes());
+        }
+    }
+
+    private boolean onConflictSupported() {
+        Boolean supported = onConflictSupported;
+        if (supported == null) {
+            String product = jdbcTemplate.execute((Connection c) -> c.getMetaData().getDatabaseProductName());
+            supported = "PostgreSQL".equalsIgnoreCase(product);
+            onConflictSupported = supported;
+        }
+        return supported;
+    }
+
+    @Override
+    public List<Review> findPage(ReviewCursor.SortKey sort, boolean descending, ReviewCursor after, int limit) {
+        String field = "r." + sort.property();
+        String dir = descending ? " desc" : " asc";
+        String cmp = descending ? " < " : " > ";
+        // createdAt - единственное необязательное поле сортировки
+        boolean nullable = sort == ReviewCursor.SortKey.CREATED_AT;
+
+        StringBuilder jpql = new StringBuilder("select r from Review r");
+        if (after != null) {
+            if (sort == ReviewCursor.SortKey.ID) {
+                jpql.append(" where r.id").append(cmp).append(":id");
+            } else if (after.value() == null) {
+                jpql.append(" where ").append(field).append(" is null and r.id").append(cmp).append(":id");
+            } else {
+                // избыточное field >= :v (<= для desc) даёт БД диапазон по индексу, OR внутри уточняет границу
+                jpql.append(" where (").append(field).append(cmp.trim()).append("= :v and (")
+                        .append(field).append(cmp).append(":v or r.id").append(cmp).append(":id))");
+                if (nullable) {
+                    jpql.append(" or ").append(field).append(" is null");
+                }
+            }
+        }
+        jpql.append(" order by ");
+        if (sort != ReviewCursor.SortKey.ID) {
+            jpql.append(field).append(dir).append(nullable ? " nulls last" : "").append(", ");
+        }
+        jpql.append("r.id").append(dir);
+
+        var query = entityManager.createQuery(jpql.toString(), Review.class).setMaxResults(limit);
+        if (after != null) {
+            query.setParameter("id", after.id());
+            if (sort != ReviewCursor.SortKey.ID && after.value() != null) {
+                query.setParameter("v", sort.parse(after.value()));
+            }
+        }
+        return query.getResultList();
+    }
+
+    @Override
+    public Stream<ReviewExportRow> streamForExport(String sourceUrl, Instant from, Instant to, int fetchSize) {
+        // условия только на заданные фильтры: "(:p is null or ...)" не даёт БД взять индекс по source_url
+        StringBuilder jpql = new StringBuilder("""
+                select new ru.kopylov.multithreads.dto.ReviewExportRow(
+                       r.id, r.sourceUrl, r.authorName, r.rating, r.text, r.createdAt, r.fetchedAt)
+                  from Review r
+                 where 1 = 1""");
+        if (sourceUrl != null) {
+            jpql.append(" and r.sourceUrl = :sourceUrl");
+        }
+        if (from != null) {
+            jpql.append(" and r.fetchedAt >= :from");
+        }
+        if (to != null) {
+            jpql.append(" and r.fetchedAt < :to");
+        }
+        jpql.append(" order by r.id");
+
+        var query = entityManager.createQuery(jpql.toString(), ReviewExportRow.class)
+                .setHint(HibernateHints.HINT_FETCH_SIZE, fetchSize)
+                .setHint(HibernateHints.HINT_READ_ONLY, true);
+        if (sourceUrl != null) {
+            query.setParameter("sourceUrl", sourceUrl);
+        }
+        if (from != null) {
+            query.setParameter("from", from);
+        }
+        if (to != null) {
+            query.setParameter("to", to);
+        }
+        return query.getResultStream();
+    }
+
+    @Override
+    public Stream<ReviewExportRow> streamAfterId(long afterId, int fetchSize) {
+        return entityManager.createQuery("""
+                        select new ru.kopylov.multithreads.dto.ReviewExportRow(
+                               r.id, r.sourceUrl, r.authorName, r.rating, r.text, r.createdAt, r.fetchedAt)
+                          from Review r
+                         where r.id > :afterId
+                         order by r.id""", ReviewExportRow.class)
+                .setParameter("afterId", afterId)
+                .setHint(HibernateHints.HINT_FETCH_SIZE, fetchSize)
+                .setHint(HibernateHints.HINT_READ_ONLY, true)
+                .getResultStream();
+    }
+
+    @Override
+    public List<ReviewExportRow> findRowsByIdIn(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        return entityManager.createQuery("""
+                        select new ru.kopylov.multithreads.dto.ReviewExportRow(
+                               r.id, r.sourceUrl, r.authorName, r.rating, r.text, r.createdAt, r.fetchedAt)
+                          from Review r
+                         where r.id in :ids
+                         order by r.id""", ReviewExportRow.class)
+                .setParameter("ids", ids)
+                .setHint(HibernateHints.HINT_READ_ONLY, true)
+                .getResultList();
+    }
+}
@@ -1,11 +1,23 @@
 package ru.kopylov.multithreads.repository;
 
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import ru.kopylov.multithreads.model.SourceUrl;
 
+import java.time.Instant;
 import java.util.List;
 
 public interface SourceUrlRepository extends JpaRepository<SourceUrl, Long> {
     List<SourceUrl> findAllByEnabledTrue();
+
+    @Query("""
+            select s from SourceUrl s
+             where s.enabled = true
+               and (s.nextDueAt is null or s.nextDueAt <= :now)
+             order by s.nextDueAt nulls first, s.id
+            """)
+    List<SourceUrl> findDue(@Param("now") Instant now, Pageable pageable);
 }
@@ -0,0 +1,7 @@
+package ru.kopylov.multithreads.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import ru.kopylov.multithreads.model.SteamWatermark;
+
+public interface SteamWatermarkRepository extends JpaRepository<SteamWatermark, String> {
+}
@@ -1,25 +1,56 @@
 package ru.kopylov.multithreads.service;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.time.Instant;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Асинхронный логгер событий задач.
+ * <p>
+ * События пишутся в заранее выделенное кольцо слотов (MPSC, схема Вьюкова: у каждого слота свой счётчик
+ * последовательности). Производитель только занимает слот CAS-ом и копирует в него тип, id задачи
+ * и числовые поля - ни строк, ни Instant.now(), ни ожидания. Если кольцо заполнено, событие отбрасывается
+ * и учитывается в счётчике. Единственный поток-потребитель забирает события пачками, форматирует их и пишет в лог.
+ */
 @Component
-public class AsyncEventLogger {
+public class AsyncEventLogger implements MeterBinder {
 
     private static final Logger log = LoggerFactory.getLogger(AsyncEventLogger.class);
-    private final BlockingQueue<String> queue = new LinkedBlockingQueue<>(2000);
+    private static final int DRAIN_BATCH = 256;
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+
+    private final Slot[] ring;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private long reportedDropped;
+
     private final AtomicBoolean running = new AtomicBoolean(true);
     private Thread worker;
 
+    public AsyncEventLogger(@Value("${event-logger.capacity:4096}") int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.ring = new Slot[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Slot(i);
+        }
+    }
+
     @PostConstruct
     public void start() {
         worker = new Thread(this::runLoop);
@@ -27,34 +58,130 @@ public class AsyncEventLogger {
         worker.setDaemon(true);
         worker.start();
 
-        log.info("Логгер запустился (daemon={})", worker.isDaemon());
+        log.info("Логгер запустился (daemon={}, ёмкость={})", worker.isDaemon(), ring.length);
     }
 
-    public void logEvent(String message) {
-        String msg = Instant.now() + " [" + Thread.currentThread().getName() + "] " + message;
-        boolean accepted;
-        try {
-            accepted = queue.offer(msg, 50, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            accepted = false;
+    public void logEvent(EventType type, UUID jobId) {
+        publish(type, jobId, 0, 0, 0, null);
+    }
+
+    public void logEvent(EventType type, UUID jobId, Object detail) {
+        publish(type, jobId, 0, 0, 0, detail);
+    }
+
+    public void logEvent(EventType type, UUID jobId, long a) {
+        publish(type, jobId, a, 0, 0, null);
+    }
+
+    public void logEvent(EventType type, UUID jobId, long a, long b) {
+        publish(type, jobId, a, b, 0, null);
+    }
+
+    public void logEvent(EventType type, UUID jobId, long a, long b, long c) {
+        publish(type, jobId, a, b, c, null);
+    }
+
+    public void logEvent(EventType type, UUID jobId, long a, Object detail) {
+        publish(type, jobId, a, 0, 0, detail);
+    }
+
+    public long droppedCount() {
+        return dropped.get();
+    }
+
+    public int capacity() {
+        return ring.length;
+    }
+
+    private void publish(EventType type, UUID jobId, long a, long b, long c, Object detail) {
+        long pos = tail.get();
+        while (true) {
+            Slot slot = ring[(int) (pos & mask)];
+            long diff = slot.sequence.get() - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slot.timestamp = System.currentTimeMillis();
+                    slot.thread = Thread.currentThread();
+                    slot.type = type;
+                    slot.jobId = jobId;
+                    slot.a = a;
+                    slot.b = b;
+                    slot.c = c;
+                    slot.detail = detail;
+                    slot.sequence.set(pos + 1);
+                    return;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                // потребитель ещё не освободил слот с прошлого круга - кольцо заполнено
+                dropped.incrementAndGet();
+                return;
+            } else {
+                pos = tail.get();
+            }
         }
+    }
+
+    /**
+     * Забирает до max событий. Вызывается только из потока-потребителя.
+     */
+    int drain(int max) {
+        int n = 0;
+        StringBuilder sb = new StringBuilder(160);
+        while (n < max) {
+            Slot slot = ring[(int) (head & mask)];
+            if (slot.sequence.get() != head + 1) {
+                break;
+            }
+            sb.setLength(0);
+            format(slot, sb);
+            slot.thread = null;
+            slot.jobId = null;
+            slot.detail = null;
+            slot.sequence.set(head + ring.length);
+            head++;
+            n++;
 
-        if (!accepted) {
-            log.warn("Очередь логгера переполнена: {}", msg);
+            log.info("event: {}", sb);
+        }
+        return n;
+    }
+
+    static void format(Slot s, StringBuilder sb) {
+        sb.append(Instant.ofEpochMilli(s.timestamp))
+                .append(" [").append(s.thread == null ? "?" : s.thread.getName()).append("] ");
+
+        String p = s.type.pattern();
+        int i = 0;
+        while (i < p.length()) {
+            char ch = p.charAt(i);
+            if (ch == '{') {
+                int end = p.indexOf('}', i);
+                switch (p.substring(i + 1, end)) {
+                    case "job" -> sb.append(s.jobId);
+                    case "a" -> sb.append(s.a);
+                    case "b" -> sb.append(s.b);
+                    case "c" -> sb.append(s.c);
+                    case "detail" -> sb.append(s.detail);
+                    default -> sb.append(p, i, end + 1);
+                }
+                i = end + 1;
+            } else {
+                sb.append(ch);
+                i++;
+            }
         }
     }
 
     private void runLoop() {
         try {
-            while (running.get() || !queue.isEmpty()) {
-                String msg = queue.poll(300, TimeUnit.MILLISECONDS);
-                if (msg != null) {
-                    log.info("event: {}", msg);
+            while (running.get() || tail.get() != head) {
+                int n = drain(DRAIN_BATCH);
+                reportDrops();
+                if (n == 0) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
                 }
             }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
         } catch (Exception e) {
             log.error("Логгер крашнулся", e);
         } finally {
@@ -62,11 +189,42 @@ public class AsyncEventLogger {
         }
     }
 
+    private void reportDrops() {
+        long d = dropped.get();
+        if (d != reportedDropped) {
+            log.warn("Очередь логгера переполнена: отброшено событий={} (всего={})", d - reportedDropped, d);
+            reportedDropped = d;
+        }
+    }
+
     @PreDestroy
     public void stop() {
         running.set(false);
         if (worker != null) {
-            worker.interrupt();
+            LockSupport.unpark(worker);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("parser.event-logger.dropped", this, AsyncEventLogger::droppedCount)
+                .description("События, отброшенные из-за переполнения кольца логгера")
+                .register(registry);
+    }
+
+    static final class Slot {
+        final AtomicLong sequence;
+        long timestamp;
+        Thread thread;
+        EventType type;
+        UUID jobId;
+        long a;
+        long b;
+        long c;
+        Object detail;
+
+        Slot(long initialSequence) {
+            this.sequence = new AtomicLong(initialSequence);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,84 @@
+package ru.kopylov.multithreads.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Ограничители параллельности для режима виртуальных потоков.
+ * <p>
+ * В режиме platform параллельность уже ограничена размерами пулов, поэтому здесь всё пропускается без ожидания.
+ * В режиме virtual поток создаётся на каждую задачу, и единственным ограничением становятся семафоры:
+ * на один источник (чтобы не заваливать его запросами) и на БД (не больше, чем соединений в пуле).
+ */
+@Component
+public class ConcurrencyLimiter implements MeterBinder {
+
+    private final boolean enabled;
+    private final int perSourceLimit;
+    private final int dbLimit;
+    private final Semaphore dbPermits;
+    private final ConcurrentHashMap<String, Semaphore> sourcePermits = new ConcurrentHashMap<>();
+
+    public ConcurrencyLimiter(@Value("${executor.mode:platform}") String mode,
+                              @Value("${executor.virtual.per-source-limit:4}") int perSourceLimit,
+                              @Value("${executor.virtual.db-limit:8}") int dbLimit) {
+        this.enabled = "virtual".equalsIgnoreCase(mode);
+        this.perSourceLimit = Math.max(perSourceLimit, 1);
+        this.dbLimit = Math.max(dbLimit, 1);
+        this.dbPermits = new Semaphore(this.dbLimit, true);
+    }
+
+    public <T> T withSourcePermit(String sourceKey, Supplier<T> action) {
+        if (!enabled) {
+            return action.get();
+        }
+        Semaphore s = sourcePermits.computeIfAbsent(sourceKey, k -> new Semaphore(perSourceLimit, true));
+        return withPermit(s, action);
+    }
+
+    public <T> T withDbPermit(Supplier<T> action) {
+        if (!enabled) {
+            return action.get();
+        }
+        return withPermit(dbPermits, action);
+    }
+
+    public int dbPermitsInUse() {
+        return dbLimit - dbPermits.availablePermits();
+    }
+
+    public int dbPermitsWaiting() {
+        return dbPermits.getQueueLength();
+    }
+
+    private static <T> T withPermit(Semaphore s, Supplier<T> action) {
+        try {
+            s.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Прервано ожидание разрешения семафора", e);
+        }
+        try {
+            return action.get();
+        } finally {
+            s.release();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("parser.db.permits.active", this, ConcurrencyLimiter::dbPermitsInUse)
+                .description("Записей в БД, выполняемых под разрешением ConcurrencyLimiter (режим virtual)")
+                .register(registry);
+        Gauge.builder("parser.db.permits.waiting", this, ConcurrencyLimiter::dbPermitsWaiting)
+                .description("Потоков, ожидающих разрешения на запись в БД (режим virtual)")
+                .register(registry);
+    }
+}
@@ -0,0 +1,144 @@
+package ru.kopylov.multithreads.service;
+
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.kopylov.multithreads.repository.ReviewRepository;
+import ru.kopylov.multithreads.util.BloomFilter;
+import ru.kopylov.multithreads.util.DedupKey;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Фильтр Блума dedup-ключей по каждому источнику.
+ * <p>
+ * Отрицательный ответ точный: ключа в БД нет (при условии, что все вставки идут через ReviewIngestor),
+ * и проверять его запросом не нужно. Положительный ответ означает «возможно есть» и проверяется в БД.
+ * Фильтр прогревается из БД при старте; до окончания прогрева любой ключ считается «возможно есть».
+ */
+@Component
+@RequiredArgsConstructor
+public class DedupKeyFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(DedupKeyFilter.class);
+
+    private final ReviewRepository reviewRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    private final ConcurrentHashMap<String, SourceFilter> filters = new ConcurrentHashMap<>();
+    private volatile boolean ready;
+
+    @Value("${dedup.filter.enabled:true}")
+    private boolean enabled;
+
+    @Value("${dedup.filter.expected-per-source:100000}")
+    private long expectedPerSource;
+
+    @Value("${dedup.filter.fpp:0.01}")
+    private double fpp;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (!enabled) {
+            return;
+        }
+        long loaded = transactionTemplate.execute(tx -> {
+            long n = 0;
+            try (var rows = reviewRepository.streamAllDedupKeys()) {
+                for (var it = rows.iterator(); it.hasNext(); n++) {
+                    Object[] row = it.next();
+                    filterFor((String) row[0]).put((DedupKey) row[1]);
+                }
+            }
+            return n;
+        });
+        ready = true;
+        log.info("Фильтр dedup-ключей прогрет: ключей={}, источников={}", loaded, filters.size());
+    }
+
+    public boolean isActive() {
+        return enabled && ready;
+    }
+
+    /**
+     * @return false, если ключа у источника точно нет; true, если он возможно есть или фильтр неактивен
+     */
+    public boolean mightContain(String sourceUrl, DedupKey dedupKey) {
+        if (!isActive()) {
+            return true;
+        }
+        SourceFilter f = filters.get(sourceUrl);
+        return f != null && f.mightContain(dedupKey);
+    }
+
+    public void addAll(String sourceUrl, Collection<DedupKey> dedupKeys) {
+        if (!enabled) {
+            return;
+        }
+        SourceFilter f = filterFor(sourceUrl);
+        for (DedupKey k : dedupKeys) {
+            f.put(k);
+        }
+    }
+
+    /**
+     * Учёт проверок «возможно есть» в БД: сколько из них действительно оказались дублями.
+     */
+    public void recordPositives(String sourceUrl, int positives, int confirmed) {
+        if (!isActive() || positives == 0) {
+            return;
+        }
+        SourceFilter f = filterFor(sourceUrl);
+        f.positives.addAndGet(positives);
+        f.falsePositives.addAndGet(positives - confirmed);
+    }
+
+    public List<Stats> stats() {
+        return filters.entrySet().stream()
+                .map(e -> e.getValue().stats(e.getKey()))
+                .sorted(Comparator.comparing(Stats::sourceUrl))
+                .toList();
+    }
+
+    private SourceFilter filterFor(String sourceUrl) {
+        return filters.computeIfAbsent(sourceUrl, k -> new SourceFilter(new BloomFilter(expectedPerSource, fpp)));
+    }
+
+    private record SourceFilter(BloomFilter bloom, AtomicLong positives, AtomicLong falsePositives) {
+        SourceFilter(BloomFilter bloom) {
+            this(bloom, new AtomicLong(), new AtomicLong());
+        }
+
+        void put(DedupKey key) {
+            bloom.put(key.w0(), key.w1());
+        }
+
+        boolean mightContain(DedupKey key) {
+            return bloom.mightContain(key.w0(), key.w1());
+        }
+
+        Stats stats(String sourceUrl) {
+            long p = positives.get();
+            long fp = falsePositives.get();
+            return new Stats(sourceUrl, bloom.insertions(), bloom.memoryBytes(), bloom.hashCount(),
+                    bloom.expectedFpp(), p, p == 0 ? 0.0 : (double) fp / p);
+        }
+    }
+
+    public record Stats(String sourceUrl,
+                        long keys,
+                        long memoryBytes,
+                        int hashFunctions,
+                        double expectedFalsePositiveRate,
+                        long positiveLookups,
+                        double observedFalsePositiveRate) {}
+}
@@ -0,0 +1,63 @@
+package ru.kopylov.multithreads.service;
+
+/**
+ * Типы событий AsyncEventLogger. Шаблон раскрывается только в потоке логгера:
+ * {job} - id задачи, {a}/{b}/{c} - числовые поля, {detail} - произвольный объект (url, исключение), через toString().
+ */
+public enum EventType {
+    JOB_CREATED("Создана задача парсинга: id={job} url={detail}"),
+    JOB_QUEUED("Задача сохранена в БД: id={job} status=QUEUED"),
+    JOB_COALESCED("Запрос присоединён к активной задаче источника: source={detail}, jobId={job}"),
+    BATCH_CREATED("Пакет задач парсинга: id={job}, источников={a}, задач={b}"),
+    JOB_SUBMITTED("Задача отправлена в пул потоков: id={job}"),
+    JOB_UNHANDLED_ERROR("ошибка вне обработчика run(): jobId={job} причина={detail}"),
+    JOB_NOT_FOUND("Не нашёл задачу в БД для обновления статуса: id={job}"),
+
+    LEASES_EXPIRED("Истекла аренда задач: возвращено в очередь={a}, завершено с ошибкой={b}"),
+    JOB_DEFERRED("Задача отложена, хост недоступен: id={job}, причина={detail}"),
+    JOB_LEASE_LOST("Аренда задачи потеряна, результат этого запуска не записан: id={job}"),
+
+    HOST_CIRCUIT_OPENED("Хост {detail}: предохранитель разомкнут на {a} мс, запросы отклоняются"),
+    HOST_CIRCUIT_CLOSED("Хост {detail}: предохранитель замкнут, запросы снова идут"),
+
+    SCHEDULER_CYCLE("Планировщик: пора обойти источников={a}, активных задач={b}"),
+    SCHEDULER_JOB_STARTED("Планировщик: запущена задача парсинга: id={job} url={detail}, следующий обход через ~{a} сек"),
+
+    JOB_STARTED("Запуск выполнения задачи: id={job} url={detail}"),
+    JOB_RUNNING("Статус задачи: RUNNING id={job}"),
+    SOURCE_STEAM("Источник Steam, id={job}"),
+    SOURCE_STUB("Источник не Steam. Используем стабы, id={job}"),
+
+    STEAM_PAGE_REQUEST("Страница стим {a}: HTTP запрос id={job}"),
+    STEAM_PAGE_FETCHED("Страница стим {a}: получено={b}, id={job}"),
+    STEAM_PAGE_SAVED("Страница стим {a}: получено={b}, сохранено={c}, id={job}"),
+    STEAM_PAGE_EMPTY("Страница стим {a}: пусто, останавливаем пагинацию, id={job}"),
+    STEAM_MARK_REACHED("Страница стим {a}: дошли до уже собранных отзывов (новых={b}), обход остановлен, id={job}"),
+    STEAM_COLLECTED("Steam: сбор завершён, totalRaw={a}, id={job}"),
+    STEAM_PIPELINE_STARTED("Конвейерный обход Steam: pages={a}, perPage={b}, окно={c}, id={job}"),
+
+    PAGES_FANOUT_STARTED("Начинаем параллельный сбор страниц: pages={a}, perPage={b}, id={job}"),
+    PAGES_STREAMING_STARTED("Потоковый сбор страниц: pages={a}, perPage={b}, окно={c}, id={job}"),
+    PAGE_STARTED("Страница {a}: старт загрузки, id={job}"),
+    PAGE_FETCHED("Страница {a}: получено={b}, id={job}"),
+    PAGE_SAVED("Страница {a}: получено={b}, сохранено={c}, id={job}"),
+    PAGE_FAILED("Страница {a}: ошибка={detail}, id={job}"),
+    PAGES_COLLECTED("Страницы собраны: totalRaw={a}, успешных={b} из {c}, id={job}"),
+
+    REVIEWS_SAVED("Отзывы сохранены в БД: saved={a} (из {b}), id={job}"),
+    JOB_SUCCEEDED("Задача завершена успешно: id={job}, новых={a}, пропущено дублей={b}"),
+    JOB_FAILED("Ошибка выполнения задачи: id={job}, причина={detail}"),
+
+    EXPORT_FINISHED("Выгрузка отзывов завершена: строк={a} за {b} мс"),
+    AGGREGATES_REBUILT("Счётчики отзывов пересчитаны по таблице reviews: корзин={a}");
+
+    private final String pattern;
+
+    EventType(String pattern) {
+        this.pattern = pattern;
+    }
+
+    public String pattern() {
+        return pattern;
+    }
+}
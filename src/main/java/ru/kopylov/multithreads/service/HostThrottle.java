@@ -0,0 +1,401 @@
+package ru.kopylov.multithreads.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+import tools.jackson.core.JacksonException;
+
+import java.io.Serial;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Общий для всех задач лимит запросов и предохранитель (circuit breaker) на каждый внешний хост.
+ * <p>
+ * Лимит - token bucket: не больше rate запросов в секунду с допустимой пачкой burst. Если хост отвечает 429
+ * (или Steam отдаёт success != 1), лимит хоста делится пополам, а каждый успешный ответ понемногу
+ * возвращает его к настроенному - так скорость держится у максимума, который хост готов принять.
+ * <p>
+ * Предохранитель размыкается после failure-threshold ошибок подряд (5xx, таймауты, ограничение запросов)
+ * и на open-seconds отклоняет запросы к хосту сразу, не занимая потоки. Потом пропускается один пробный
+ * запрос: успех замыкает цепь, ошибка размыкает снова. Отклонённый запрос бросает HostUnavailableException,
+ * по которой задача возвращается в очередь до момента, когда хост снова можно пробовать.
+ */
+@Component
+public class HostThrottle {
+
+    private final boolean enabled;
+    private final double defaultRate;
+    private final Map<String, Double> rateOverrides;
+    private final int burst;
+    private final int failureThreshold;
+    private final long openNanos;
+    private final long maxWaitNanos;
+    private final ParserMetrics parserMetrics;
+    private final AsyncEventLogger asyncEventLogger;
+
+    private final ConcurrentHashMap<String, HostState> hosts = new ConcurrentHashMap<>();
+
+    public HostThrottle(ParserMetrics parserMetrics,
+                        AsyncEventLogger asyncEventLogger,
+                        @Value("${host-throttle.enabled:true}") boolean enabled,
+                        @Value("${host-throttle.permits-per-second:20}") double defaultRate,
+                        @Value("${host-throttle.hosts:}") String rateOverrides,
+                        @Value("${host-throttle.burst:5}") int burst,
+                        @Value("${host-throttle.failure-threshold:5}") int failureThreshold,
+                        @Value("${host-throttle.open-seconds:30}") int openSeconds,
+                        @Value("${host-throttle.max-wait-ms:10000}") long maxWaitMs) {
+        this.parserMetrics = parserMetrics;
+        this.asyncEventLogger = asyncEventLogger;
+        this.enabled = enabled;
+        this.defaultRate = positive(defaultRate, "host-throttle.permits-per-second");
+        this.rateOverrides = parseOverrides(rateOverrides);
+        this.burst = Math.max(burst, 1);
+        this.failureThreshold = Math.max(failureThreshold, 1);
+        this.openNanos = TimeUnit.SECONDS.toNanos(Math.max(openSeconds, 1));
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(maxWaitMs, 0));
+    }
+
+    /**
+     * Выполняет запрос к хосту: ждёт свою очередь в лимите хоста и учитывает результат в предохранителе.
+     *
+     * @throws HostUnavailableException цепь хоста разомкнута или ждать очереди дольше max-wait-ms
+     */
+    public <T> T call(String host, Supplier<T> request) {
+        if (!enabled) {
+            return request.get();
+        }
+        HostState state = hosts.computeIfAbsent(host, this::newState);
+
+        Admission admission;
+        try {
+            admission = state.admit(System.nanoTime());
+        } catch (HostUnavailableException e) {
+            parserMetrics.recordHostRejected(host, e.reason());
+            throw e;
+        }
+        long wait = admission.waitNanos();
+        if (wait > 0) {
+            parserMetrics.recordHostWait(host, wait);
+            sleep(wait, state, admission.trial());
+        }
+
+        T result;
+        try {
+            result = request.get();
+        } catch (RuntimeException e) {
+            Outcome outcome = classify(e);
+            if (outcome == Outcome.THROTTLED) {
+                parserMetrics.recordHostThrottled(host);
+            }
+            report(state, state.onResult(admission.trial(), outcome, retryAfterNanos(e), System.nanoTime()));
+            throw e;
+        }
+        report(state, state.onResult(admission.trial(), Outcome.SUCCESS, 0, System.nanoTime()));
+        return result;
+    }
+
+    private HostState newState(String host) {
+        double rate = rateOverrides.getOrDefault(host, defaultRate);
+        HostState state = new HostState(host, rate, burst, failureThreshold, openNanos, maxWaitNanos);
+        parserMetrics.registerHost(host, state);
+        return state;
+    }
+
+    private void report(HostState state, Transition transition) {
+        switch (transition) {
+            case OPENED -> asyncEventLogger.logEvent(EventType.HOST_CIRCUIT_OPENED, null,
+                    TimeUnit.NANOSECONDS.toMillis(state.openForNanos()), state.host());
+            case CLOSED -> asyncEventLogger.logEvent(EventType.HOST_CIRCUIT_CLOSED, null, state.host());
+            case NONE -> {
+            }
+        }
+    }
+
+    private static void sleep(long nanos, HostState state, long trial) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            state.cancelTrial(trial);
+            throw new IllegalStateException("Прервано ожидание очереди запросов к хосту " + state.host(), e);
+        }
+    }
+
+    static Outcome classify(Throwable e) {
+        if (e instanceof UpstreamThrottledException) {
+            return Outcome.THROTTLED;
+        }
+        if (e instanceof HttpStatusCodeException http) {
+            int status = http.getStatusCode().value();
+            if (status == 429) {
+                return Outcome.THROTTLED;
+            }
+            // 4xx - хост жив, ошибка в самом запросе (неверный appid и т.п.)
+            return status >= 500 ? Outcome.FAILED : Outcome.SUCCESS;
+        }
+        if (e instanceof ResourceAccessException || e instanceof JacksonException) {
+            return Outcome.FAILED;
+        }
+        return Outcome.SUCCESS;
+    }
+
+    private static long retryAfterNanos(Throwable e) {
+        if (!(e instanceof HttpStatusCodeException http) || http.getResponseHeaders() == null) {
+            return 0;
+        }
+        String value = http.getResponseHeaders().getFirst(HttpHeaders.RETRY_AFTER);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return TimeUnit.SECONDS.toNanos(Long.parseLong(value.trim()));
+        } catch (NumberFormatException ignored) {
+            // дата HTTP - редкость у API, обходимся open-seconds
+            return 0;
+        }
+    }
+
+    private static Map<String, Double> parseOverrides(String spec) {
+        Map<String, Double> result = new HashMap<>();
+        if (spec == null || spec.isBlank()) {
+            return result;
+        }
+        for (String entry : spec.split(",")) {
+            String trimmed = entry.trim();
+            int sep = trimmed.lastIndexOf(':');
+            if (sep <= 0) {
+                throw new IllegalArgumentException("host-throttle.hosts: ожидается host:rate, получено " + trimmed);
+            }
+            result.put(trimmed.substring(0, sep).trim(),
+                    positive(Double.parseDouble(trimmed.substring(sep + 1).trim()), "host-throttle.hosts"));
+        }
+        return result;
+    }
+
+    private static double positive(double value, String property) {
+        if (!(value > 0)) {
+            throw new IllegalArgumentException(property + " должно быть больше 0: " + value);
+        }
+        return value;
+    }
+
+    enum Outcome {SUCCESS, FAILED, THROTTLED}
+
+    enum Transition {NONE, OPENED, CLOSED}
+
+    enum Circuit {CLOSED, HALF_OPEN, OPEN}
+
+    /**
+     * Место в лимите хоста.
+     *
+     * @param waitNanos сколько подождать перед запросом
+     * @param trial     номер пробного запроса полуоткрытой цепи или {@link HostState#NO_TRIAL}
+     */
+    record Admission(long waitNanos, long trial) {
+    }
+
+    /**
+     * Состояние одного хоста. Время передаётся снаружи (System.nanoTime), чтобы логику можно было проверить
+     * без ожиданий. Запросов к хосту немного (одна страница - один запрос), поэтому хватает монитора.
+     */
+    static final class HostState {
+
+        private static final double MIN_RATE_FRACTION = 1.0 / 64;
+        private static final double RECOVERY_FRACTION = 1.0 / 20;
+
+        static final long NO_TRIAL = 0;
+
+        private final String host;
+        private final double maxRate;
+        private final int burst;
+        private final int failureThreshold;
+        private final long openNanos;
+        private final long maxWaitNanos;
+
+        private double rate;
+        // GCRA: теоретическое время прихода следующего запроса, если бы они шли ровно с интервалом 1/rate
+        private long tat = Long.MIN_VALUE;
+
+        private Circuit circuit = Circuit.CLOSED;
+        private int consecutiveFailures;
+        private long openUntil;
+        private long openFor;
+        // номер выпущенного пробного запроса (NO_TRIAL - пробного нет): решает только его ответ,
+        // запоздавшие ответы на запросы, начатые до размыкания, не замыкают цепь и не выпускают второй пробный
+        private long trialInFlight = NO_TRIAL;
+        private long lastTrial = NO_TRIAL;
+
+        HostState(String host, double rate, int burst, int failureThreshold, long openNanos, long maxWaitNanos) {
+            this.host = host;
+            this.maxRate = rate;
+            this.rate = rate;
+            this.burst = burst;
+            this.failureThreshold = failureThreshold;
+            this.openNanos = openNanos;
+            this.maxWaitNanos = maxWaitNanos;
+        }
+
+        /**
+         * Резервирует место в лимите хоста. В полуоткрытой цепи пропускает один пробный запрос
+         * и возвращает его номер: результат передаётся с ним в {@link #onResult}.
+         *
+         * @throws HostUnavailableException цепь разомкнута, или очередь длиннее maxWaitNanos (место не резервируется)
+         */
+        synchronized Admission admit(long now) {
+            if (circuit == Circuit.OPEN) {
+                if (now - openUntil < 0) {
+                    throw new HostUnavailableException(host, "open", openUntil - now);
+                }
+                circuit = Circuit.HALF_OPEN;
+            }
+            long trial = NO_TRIAL;
+            if (circuit == Circuit.HALF_OPEN) {
+                if (trialInFlight != NO_TRIAL) {
+                    throw new HostUnavailableException(host, "open", openNanos);
+                }
+                trial = ++lastTrial;
+            }
+
+            long interval = interval();
+            long base = tat == Long.MIN_VALUE || tat - now < 0 ? now : tat;
+            long wait = Math.max(base - (burst - 1) * interval - now, 0);
+            if (wait > maxWaitNanos) {
+                throw new HostUnavailableException(host, "wait", wait);
+            }
+            tat = base + interval;
+            if (trial != NO_TRIAL) {
+                trialInFlight = trial;
+            }
+            return new Admission(wait, trial);
+        }
+
+        /**
+         * @param trial номер из {@link Admission#trial()}: полуоткрытую цепь меняет только ответ пробного запроса
+         */
+        synchronized Transition onResult(long trial, Outcome outcome, long retryAfterNanos, long now) {
+            boolean isTrial = trial != NO_TRIAL && trial == trialInFlight;
+            if (isTrial) {
+                trialInFlight = NO_TRIAL;
+            }
+            if (outcome == Outcome.SUCCESS) {
+                consecutiveFailures = 0;
+                rate = Math.min(maxRate, rate + maxRate * RECOVERY_FRACTION);
+                if (isTrial && circuit == Circuit.HALF_OPEN) {
+                    circuit = Circuit.CLOSED;
+                    return Transition.CLOSED;
+                }
+                return Transition.NONE;
+            }
+
+            consecutiveFailures++;
+            if (outcome == Outcome.THROTTLED) {
+                rate = Math.max(maxRate * MIN_RATE_FRACTION, rate / 2);
+            }
+            if (circuit == Circuit.HALF_OPEN && !isTrial) {
+                // запоздалая ошибка запроса, начатого до размыкания: исход решит пробный запрос
+                return Transition.NONE;
+            }
+            if (isTrial || consecutiveFailures >= failureThreshold || retryAfterNanos > 0) {
+                boolean wasOpen = circuit == Circuit.OPEN;
+                circuit = Circuit.OPEN;
+                openFor = Math.max(openNanos, retryAfterNanos);
+                openUntil = now + openFor;
+                return wasOpen ? Transition.NONE : Transition.OPENED;
+            }
+            return Transition.NONE;
+        }
+
+        synchronized void cancelTrial(long trial) {
+            if (trial != NO_TRIAL && trial == trialInFlight) {
+                trialInFlight = NO_TRIAL;
+            }
+        }
+
+        String host() {
+            return host;
+        }
+
+        synchronized double rate() {
+            return rate;
+        }
+
+        /**
+         * 0 - замкнута, 1 - пробный запрос, 2 - разомкнута (для gauge).
+         */
+        synchronized int circuitState() {
+            return circuit.ordinal();
+        }
+
+        synchronized long openForNanos() {
+            return openFor;
+        }
+
+        private long interval() {
+            return (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        }
+    }
+
+    /**
+     * Хост сейчас не принимает запросы; задачу стоит повторить не раньше retryAt.
+     */
+    public static class HostUnavailableException extends RuntimeException {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final String host;
+        private final String reason;
+        private final Instant retryAt;
+
+        HostUnavailableException(String host, String reason, long retryAfterNanos) {
+            super("Хост " + host + " временно недоступен (" + reason + "), повтор через "
+                    + TimeUnit.NANOSECONDS.toMillis(retryAfterNanos) + " мс");
+            this.host = host;
+            this.reason = reason;
+            this.retryAt = Instant.now().plus(Duration.ofNanos(retryAfterNanos));
+        }
+
+        public String host() {
+            return host;
+        }
+
+        public String reason() {
+            return reason;
+        }
+
+        public Instant retryAt() {
+            return retryAt;
+        }
+
+        /**
+         * Ищет исключение в цепочке причин: пулы страниц оборачивают ошибки в ExecutionException и т.п.
+         */
+        public static HostUnavailableException in(Throwable t) {
+            for (Throwable c = t; c != null; c = c.getCause()) {
+                if (c instanceof HostUnavailableException e) {
+                    return e;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Хост ответил успешно по HTTP, но по телу видно, что запросы ограничены (Steam: success != 1).
+     */
+    public static class UpstreamThrottledException extends IllegalStateException {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        public UpstreamThrottledException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package ru.kopylov.multithreads.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.kopylov.multithreads.model.ParseJob;
+import ru.kopylov.multithreads.model.ParseStatus;
+import ru.kopylov.multithreads.repository.ParseJobRepository;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Очередь задач в БД вместо очереди пула.
+ * <p>
+ * Задача ставится в parse_jobs со статусом QUEUED. Узел забирает задачи пачкой условным UPDATE
+ * (QUEUED -> RUNNING с арендой на себя), не больше, чем у него свободных мест, и отдаёт их в parserExecutor.
+ * Пока задача выполняется, аренда продлевается; если узел упал, аренда истекает, и задачу возвращает
+ * в очередь любой живой узел. Поэтому задачи переживают перезапуск, а нагрузку можно делить между узлами.
+ * Задача источника, у которого уже есть выполняющаяся задача, не забирается, пока та не завершится.
+ */
+@Component
+public class JobDispatcher {
+
+    private static final String LEASE_EXPIRED_MESSAGE = "Аренда задачи истекла, попытки исчерпаны";
+
+    private final ParseJobRepository parseJobRepository;
+    private final ParseJobRunner parseJobRunner;
+    private final ExecutorService parserExecutor;
+    private final AsyncEventLogger asyncEventLogger;
+    private final ParserMetrics parserMetrics;
+
+    private final String nodeId;
+    private final int maxInFlight;
+    private final int batchSize;
+    private final Duration lease;
+    private final int maxAttempts;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public JobDispatcher(ParseJobRepository parseJobRepository,
+                         ParseJobRunner parseJobRunner,
+                         ExecutorService parserExecutor,
+                         AsyncEventLogger asyncEventLogger,
+                         ParserMetrics parserMetrics,
+                         @Value("${dispatcher.node-id:}") String nodeId,
+                         @Value("${dispatcher.max-in-flight:8}") int maxInFlight,
+                         @Value("${dispatcher.batch-size:4}") int batchSize,
+                         @Value("${dispatcher.lease-seconds:60}") int leaseSeconds,
+                         @Value("${dispatcher.max-attempts:3}") int maxAttempts) {
+        this.parseJobRepository = parseJobRepository;
+        this.parseJobRunner = parseJobRunner;
+        this.parserExecutor = parserExecutor;
+        this.asyncEventLogger = asyncEventLogger;
+        this.parserMetrics = parserMetrics;
+        this.nodeId = nodeId == null || nodeId.isBlank() ? defaultNodeId() : nodeId;
+        this.maxInFlight = Math.max(maxInFlight, 1);
+        this.batchSize = Math.max(batchSize, 1);
+        this.lease = Duration.ofSeconds(Math.max(leaseSeconds, 1));
+        this.maxAttempts = Math.max(maxAttempts, 1);
+    }
+
+    public String nodeId() {
+        return nodeId;
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Забирает из очереди столько задач, сколько есть свободных мест. Вызывается после постановки задачи,
+     * после завершения задачи и по расписанию (на случай задач, поставленных другими узлами).
+     */
+    public void dispatch() {
+        while (true) {
+            int free = maxInFlight - inFlight.get();
+            if (free <= 0) {
+                return;
+            }
+            List<UUID> candidates = parseJobRepository.findClaimableIds(Instant.now(),
+                    PageRequest.of(0, Math.min(free, batchSize)));
+            if (candidates.isEmpty()) {
+                return;
+            }
+
+            int claimed = 0;
+            for (UUID id : candidates) {
+                if (inFlight.incrementAndGet() > maxInFlight) {
+                    inFlight.decrementAndGet();
+                    return;
+                }
+                if (!tryClaim(id)) {
+                    inFlight.decrementAndGet();
+                    continue;
+                }
+                claimed++;
+                submit(id);
+            }
+            if (claimed == 0) {
+                return;
+            }
+        }
+    }
+
+    private boolean tryClaim(UUID id) {
+        try {
+            // 0 - задачу забрал другой узел или другой поток этого узла
+            return parseJobRepository.claim(id, nodeId, Instant.now().plus(lease)) == 1;
+        } catch (DataIntegrityViolationException e) {
+            // между выборкой и UPDATE другой узел запустил задачу того же источника
+            return false;
+        }
+    }
+
+    @Scheduled(initialDelayString = "${dispatcher.poll-ms:1000}", fixedDelayString = "${dispatcher.poll-ms:1000}")
+    public void poll() {
+        Instant now = Instant.now();
+        int requeued = parseJobRepository.requeueExpired(now, maxAttempts);
+        int failed = parseJobRepository.failExpired(now, LEASE_EXPIRED_MESSAGE);
+        if (requeued > 0 || failed > 0) {
+            asyncEventLogger.logEvent(EventType.LEASES_EXPIRED, null, requeued, failed);
+        }
+        dispatch();
+    }
+
+    @Scheduled(fixedDelayString = "#{${dispatcher.lease-seconds:60} * 1000 / 3}")
+    public void renewLeases() {
+        if (inFlight.get() > 0) {
+            parseJobRepository.renewLeases(nodeId, Instant.now().plus(lease));
+        }
+    }
+
+    private void submit(UUID jobId) {
+        try {
+            parserExecutor.execute(() -> execute(jobId));
+        } catch (RejectedExecutionException e) {
+            // пул остановлен или переполнен: возвращаем задачу в очередь для другого узла
+            inFlight.decrementAndGet();
+            ParseJob j = parseJobRepository.findById(jobId).orElse(null);
+            if (j == null) {
+                asyncEventLogger.logEvent(EventType.JOB_NOT_FOUND, jobId);
+                return;
+            }
+            try {
+                parseJobRepository.requeueLeased(jobId, nodeId, j.getAttempts(), null, Instant.now(), null);
+            } catch (DataIntegrityViolationException conflict) {
+                // у источника уже есть задача в очереди - эта лишняя
+                markFailed(jobId, j.getAttempts(), e);
+            }
+        }
+    }
+
+    private void execute(UUID jobId) {
+        Integer attempt = null;
+        try {
+            ParseJob claimed = parseJobRepository.findById(jobId).orElse(null);
+            if (claimed == null) {
+                asyncEventLogger.logEvent(EventType.JOB_NOT_FOUND, jobId);
+                return;
+            }
+            attempt = claimed.getAttempts();
+            parserMetrics.recordQueueWait(Duration.between(claimed.queuedSince(), Instant.now()).toNanos());
+            asyncEventLogger.logEvent(EventType.JOB_SUBMITTED, jobId);
+            parseJobRunner.run(jobId, claimed.getSourceUrl());
+        } catch (Throwable t) {
+            // задача не должна остаться RUNNING до истечения аренды
+            markFailed(jobId, attempt, t);
+        } finally {
+            parseJobRepository.releaseLease(jobId, nodeId);
+            inFlight.decrementAndGet();
+        }
+        dispatch();
+    }
+
+    /**
+     * @param attempt номер попытки, под которым задачу забрал этот узел; null - задачу не успели прочитать,
+     *                её вернёт в очередь истечение аренды
+     */
+    private void markFailed(UUID jobId, Integer attempt, Throwable t) {
+        asyncEventLogger.logEvent(EventType.JOB_UNHANDLED_ERROR, jobId, t);
+
+        if (attempt == null) {
+            return;
+        }
+        // 0 - задача уже завершена исполнителем или её аренду забрал другой запуск
+        parseJobRepository.finishLeased(jobId, nodeId, attempt, ParseStatus.FAILED, Instant.now(), null,
+                "Ошибка: " + t);
+    }
+
+    private static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "node";
+        }
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
@@ -0,0 +1,499 @@
+package ru.kopylov.multithreads.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.kopylov.multithreads.dto.JobProgressEvent;
+import ru.kopylov.multithreads.model.ParseJob;
+import ru.kopylov.multithreads.model.ParseStatus;
+import ru.kopylov.multithreads.repository.ParseJobRepository;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Ход выполнения задач в памяти узла и раздача его подписчикам по SSE (GET /jobs/{id}/events).
+ * <p>
+ * ParseJobRunner сообщает о фазах, загруженных и сохранённых страницах - это запись нескольких полей
+ * под монитором задачи, без ввода-вывода. Раз в flush-ms поток job-progress берёт изменившиеся задачи
+ * и отдаёт их снимки подписчикам, так что частые обновления склеиваются. Пишет в соединение каждый подписчик
+ * сам, в своём виртуальном потоке, и держит только последний неотправленный снимок: медленный клиент
+ * получает меньше промежуточных снимков, но не задерживает ни рассылку другим, ни парсинг.
+ * <p>
+ * parse_jobs читается один раз при подписке и дальше отдельным потоком job-progress-db раз в heartbeat-seconds,
+ * одним запросом на все такие задачи, сколько бы ни было подписчиков: задачи других узлов, отложенные задачи
+ * (их может забрать другой узел) и выполняющиеся, о которых этот узел давно ничего не слышал. Если такую задачу
+ * уже завершили или перезапустили под другой попыткой, локальный снимок выбрасывается и дальше ход читается из БД.
+ */
+@Component
+public class JobProgress implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(JobProgress.class);
+
+    public enum Phase {
+        // загрузка страниц
+        FETCH,
+        // запись отзывов в БД
+        SAVE,
+        // потоковый режим: страницы загружаются и сохраняются вперемешку
+        STREAM
+    }
+
+    private final ParseJobRepository parseJobRepository;
+    private final long flushMs;
+    private final long heartbeatMs;
+    private final long heartbeatNanos;
+    private final long retentionNanos;
+    private final long sseTimeoutMs;
+
+    private final ConcurrentHashMap<UUID, State> jobs = new ConcurrentHashMap<>();
+    private final Set<UUID> dirty = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<UUID, CopyOnWriteArrayList<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private ScheduledExecutorService sender;
+    private ScheduledExecutorService reader;
+    // до start() (в тестах) снимки пишутся в соединение в вызывающем потоке
+    private volatile ExecutorService delivery;
+
+    public JobProgress(ParseJobRepository parseJobRepository,
+                       @Value("${progress.flush-ms:250}") long flushMs,
+                       @Value("${progress.heartbeat-seconds:15}") int heartbeatSeconds,
+                       @Value("${progress.retention-seconds:300}") int retentionSeconds,
+                       @Value("${progress.sse-timeout-minutes:30}") int sseTimeoutMinutes) {
+        this.parseJobRepository = parseJobRepository;
+        this.flushMs = Math.max(flushMs, 10);
+        this.heartbeatMs = TimeUnit.SECONDS.toMillis(Math.max(heartbeatSeconds, 1));
+        this.heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatMs);
+        this.retentionNanos = TimeUnit.SECONDS.toNanos(Math.max(retentionSeconds, 0));
+        this.sseTimeoutMs = TimeUnit.MINUTES.toMillis(Math.max(sseTimeoutMinutes, 1));
+    }
+
+    @PostConstruct
+    public void start() {
+        delivery = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("job-progress-send-", 0).factory());
+        sender = daemonScheduler("job-progress");
+        sender.scheduleWithFixedDelay(() -> guarded(this::flush), flushMs, flushMs, TimeUnit.MILLISECONDS);
+        sender.scheduleWithFixedDelay(() -> guarded(this::ping), heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+        // запрос к БД не задерживает рассылку, даже если БД отвечает медленно
+        reader = daemonScheduler("job-progress-db");
+        reader.scheduleWithFixedDelay(() -> guarded(this::refresh), heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (sender != null) {
+            sender.shutdownNow();
+        }
+        if (reader != null) {
+            reader.shutdownNow();
+        }
+        if (delivery != null) {
+            delivery.shutdownNow();
+        }
+        subscribers.values().forEach(list -> list.forEach(sub -> sub.emitter.complete()));
+        subscribers.clear();
+    }
+
+    /**
+     * @param attempt номер попытки (ParseJob.attempts), под которой этот узел выполняет задачу
+     */
+    public void started(UUID jobId, String sourceUrl, Integer attempt, int pagesTotal, Phase phase) {
+        jobs.put(jobId, new State(jobId, sourceUrl, attempt, pagesTotal, phase));
+        dirty.add(jobId);
+    }
+
+    public void phase(UUID jobId, Phase phase) {
+        update(jobId, s -> s.enter(phase));
+    }
+
+    public void pageFetched(UUID jobId, int raw) {
+        update(jobId, s -> {
+            s.pagesDone++;
+            s.raw += raw;
+        });
+    }
+
+    /**
+     * Порция сохранена (в потоковом режиме - страница, иначе - весь обход).
+     */
+    public void saved(UUID jobId, int saved, int skipped) {
+        update(jobId, s -> {
+            s.saved += saved;
+            s.skipped += skipped;
+        });
+    }
+
+    public void succeeded(UUID jobId, int raw, int saved, int skipped) {
+        update(jobId, s -> {
+            s.raw = raw;
+            s.saved = saved;
+            s.skipped = skipped;
+            s.finish(ParseStatus.SUCCESS, null);
+        });
+    }
+
+    public void failed(UUID jobId, String message) {
+        update(jobId, s -> s.finish(ParseStatus.FAILED, message));
+    }
+
+    /**
+     * Задача вернулась в очередь: подписка остаётся открытой до повторного запуска.
+     * Дальше ход задачи читается из БД, пока этот узел снова не начнёт её выполнять.
+     */
+    public void deferred(UUID jobId, String message) {
+        update(jobId, s -> s.finish(ParseStatus.QUEUED, message));
+    }
+
+    /**
+     * Этот узел потерял аренду задачи: локальный ход больше не актуален, дальше он читается из БД.
+     */
+    public void released(UUID jobId) {
+        jobs.remove(jobId);
+    }
+
+    /**
+     * @throws NoSuchElementException задачи нет ни в памяти, ни в БД
+     */
+    public SseEmitter subscribe(UUID jobId) {
+        return subscribe(jobId, new SseEmitter(sseTimeoutMs));
+    }
+
+    SseEmitter subscribe(UUID jobId, SseEmitter emitter) {
+        JobProgressEvent first = snapshot(jobId);
+        if (first == null) {
+            first = JobProgressEvent.from(parseJobRepository.findById(jobId)
+                    .orElseThrow(() -> new NoSuchElementException("Задача не найдена: " + jobId)));
+        }
+        Subscriber sub = new Subscriber(jobId, emitter);
+        subscribers.computeIfAbsent(jobId, k -> new CopyOnWriteArrayList<>()).add(sub);
+        emitter.onCompletion(() -> unsubscribe(sub));
+        emitter.onTimeout(() -> unsubscribe(sub));
+        emitter.onError(e -> unsubscribe(sub));
+
+        // снимок мог устареть, пока регистрировались: финальное событие рассылки тогда пришло бы мимо
+        JobProgressEvent latest = snapshot(jobId);
+        sub.offer(latest != null ? latest : first);
+        return emitter;
+    }
+
+    /**
+     * @return текущий снимок задачи или null, если на этом узле её ход не отслеживается
+     */
+    public JobProgressEvent snapshot(UUID jobId) {
+        State s = jobs.get(jobId);
+        return s == null ? null : s.snapshot();
+    }
+
+    public int subscriberCount() {
+        return subscribers.values().stream().mapToInt(List::size).sum();
+    }
+
+    void flush() {
+        for (UUID jobId : dirty) {
+            dirty.remove(jobId);
+            JobProgressEvent event = snapshot(jobId);
+            if (event != null) {
+                broadcast(jobId, event);
+            }
+        }
+    }
+
+    /**
+     * Пинг открытых соединений (обрыв обнаруживается только при записи).
+     */
+    void ping() {
+        subscribers.values().forEach(list -> list.forEach(Subscriber::ping));
+    }
+
+    /**
+     * Перечитывание из БД задач, ход которых этот узел не знает или мог упустить, и удаление давно
+     * завершённых задач из памяти.
+     */
+    void refresh() {
+        refresh(System.nanoTime());
+    }
+
+    void refresh(long now) {
+        jobs.values().removeIf(s -> s.expired(now, retentionNanos) && !subscribers.containsKey(s.jobId));
+
+        Set<UUID> ids = new LinkedHashSet<>();
+        for (UUID jobId : subscribers.keySet()) {
+            State local = jobs.get(jobId);
+            if (local == null || local.queued()) {
+                ids.add(jobId);
+            }
+        }
+        Set<UUID> silent = new HashSet<>();
+        for (State s : jobs.values()) {
+            if (s.silent(now, heartbeatNanos)) {
+                silent.add(s.jobId);
+            }
+        }
+        ids.addAll(silent);
+        if (ids.isEmpty()) {
+            return;
+        }
+        for (ParseJob job : parseJobRepository.findAllById(ids)) {
+            silent.remove(job.getId());
+            State local = jobs.get(job.getId());
+            boolean remote = local == null || local.queued();
+            boolean superseded = local != null && local.supersededBy(job);
+            if (superseded) {
+                // задачу завершили или перезапустили под другой попыткой: локальный снимок устарел
+                jobs.remove(job.getId(), local);
+            }
+            if (remote || superseded) {
+                broadcast(job.getId(), JobProgressEvent.from(job));
+            }
+        }
+        // задачу удалили из БД
+        silent.forEach(jobs::remove);
+    }
+
+    private void broadcast(UUID jobId, JobProgressEvent event) {
+        var list = subscribers.get(jobId);
+        if (list == null) {
+            return;
+        }
+        list.forEach(sub -> sub.offer(event));
+        if (event.finished()) {
+            subscribers.remove(jobId, list);
+        }
+    }
+
+    private void unsubscribe(Subscriber sub) {
+        subscribers.computeIfPresent(sub.jobId, (k, list) -> {
+            list.remove(sub);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    private void update(UUID jobId, Consumer<State> change) {
+        State s = jobs.get(jobId);
+        if (s == null) {
+            return;
+        }
+        synchronized (s) {
+            change.accept(s);
+            s.updatedAt = Instant.now();
+            s.touchedAt = System.nanoTime();
+        }
+        dirty.add(jobId);
+    }
+
+    private static ScheduledExecutorService daemonScheduler(String name) {
+        return Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private static void guarded(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            // исключение остановило бы периодическую задачу навсегда
+            log.warn("Ошибка рассылки хода задач", e);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("parser.progress.subscribers", this, JobProgress::subscriberCount)
+                .description("Открытых SSE-подписок на ход задач")
+                .register(registry);
+    }
+
+    /**
+     * Одно SSE-соединение. Снимки пишет не больше одного потока за раз; пока он пишет, новые снимки
+     * заменяют друг друга, и клиент получает последний.
+     */
+    private final class Subscriber {
+        final UUID jobId;
+        final SseEmitter emitter;
+        final AtomicReference<JobProgressEvent> pending = new AtomicReference<>();
+        final AtomicBoolean pingDue = new AtomicBoolean();
+        final AtomicBoolean draining = new AtomicBoolean();
+        volatile boolean closed;
+
+        Subscriber(UUID jobId, SseEmitter emitter) {
+            this.jobId = jobId;
+            this.emitter = emitter;
+        }
+
+        void offer(JobProgressEvent event) {
+            pending.set(event);
+            schedule();
+        }
+
+        void ping() {
+            pingDue.set(true);
+            schedule();
+        }
+
+        private void schedule() {
+            if (closed || !draining.compareAndSet(false, true)) {
+                return;
+            }
+            ExecutorService executor = delivery;
+            if (executor == null) {
+                drain();
+                return;
+            }
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // узел останавливается, stop() закроет соединение
+                draining.set(false);
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                JobProgressEvent event = pending.getAndSet(null);
+                boolean ping = pingDue.getAndSet(false);
+                if (event == null && !ping) {
+                    draining.set(false);
+                    // снимок мог прийти между проверкой и сбросом флага
+                    if ((pending.get() == null && !pingDue.get()) || !draining.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                if (closed) {
+                    continue;
+                }
+                try {
+                    if (event == null) {
+                        emitter.send(SseEmitter.event().comment("ping"));
+                    } else {
+                        emitter.send(SseEmitter.event().name("progress").data(event, MediaType.APPLICATION_JSON));
+                        if (event.finished()) {
+                            close();
+                            emitter.complete();
+                        }
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    // клиент ушёл или эмиттер уже завершён
+                    close();
+                }
+            }
+        }
+
+        private void close() {
+            closed = true;
+            unsubscribe(this);
+        }
+    }
+
+    /**
+     * Ход одной задачи. Поля меняются и читаются под монитором объекта.
+     */
+    private static final class State {
+        final UUID jobId;
+        final String sourceUrl;
+        final Integer attempt;
+        final int pagesTotal;
+        final EnumMap<Phase, Long> phaseNanos = new EnumMap<>(Phase.class);
+
+        ParseStatus status = ParseStatus.RUNNING;
+        Phase phase;
+        long phaseStartedAt;
+        int pagesDone;
+        long raw;
+        long saved;
+        long skipped;
+        String message;
+        Instant updatedAt = Instant.now();
+        long touchedAt = System.nanoTime();
+        long finishedAt;
+
+        State(UUID jobId, String sourceUrl, Integer attempt, int pagesTotal, Phase phase) {
+            this.jobId = jobId;
+            this.sourceUrl = sourceUrl;
+            this.attempt = attempt;
+            this.pagesTotal = pagesTotal;
+            this.phase = phase;
+            this.phaseStartedAt = System.nanoTime();
+        }
+
+        void enter(Phase next) {
+            closePhase();
+            phase = next;
+            phaseStartedAt = System.nanoTime();
+        }
+
+        void finish(ParseStatus status, String message) {
+            closePhase();
+            phase = null;
+            this.status = status;
+            this.message = message;
+            finishedAt = System.nanoTime();
+        }
+
+        private void closePhase() {
+            if (phase != null) {
+                phaseNanos.merge(phase, System.nanoTime() - phaseStartedAt, Long::sum);
+            }
+        }
+
+        synchronized boolean queued() {
+            return status == ParseStatus.QUEUED;
+        }
+
+        // выполняется, но давно ничего не сообщала: узел мог зависнуть, а задачу - перезапустить другой
+        synchronized boolean silent(long now, long silenceNanos) {
+            return status == ParseStatus.RUNNING && now - touchedAt > silenceNanos;
+        }
+
+        synchronized boolean supersededBy(ParseJob job) {
+            return switch (status) {
+                case QUEUED -> job.getStatus() != ParseStatus.QUEUED;
+                case RUNNING -> job.getStatus() != ParseStatus.RUNNING || !Objects.equals(job.getAttempts(), attempt);
+                default -> false;
+            };
+        }
+
+        synchronized boolean expired(long now, long retentionNanos) {
+            return status != ParseStatus.RUNNING && now - finishedAt > retentionNanos;
+        }
+
+        synchronized JobProgressEvent snapshot() {
+            Map<String, Long> millis = new LinkedHashMap<>();
+            phaseNanos.forEach((p, n) -> millis.put(p.name(), TimeUnit.NANOSECONDS.toMillis(n)));
+            if (phase != null) {
+                millis.merge(phase.name(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - phaseStartedAt), Long::sum);
+            }
+            return new JobProgressEvent(jobId, sourceUrl, status, phase == null ? null : phase.name(),
+                    pagesTotal, pagesDone, raw, saved, skipped, millis, message, updatedAt);
+        }
+    }
+}
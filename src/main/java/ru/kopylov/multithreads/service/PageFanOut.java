@@ -0,0 +1,123 @@
+package ru.kopylov.multithreads.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntFunction;
+
+/**
+ * Параллельная загрузка страниц через CompletableFuture.
+ * <p>
+ * У каждой страницы свой дедлайн: по его истечении задача в pageExecutor отменяется с прерыванием,
+ * чтобы медленная страница не держала поток пула. Отсчёт идёт не с постановки в очередь, а с момента,
+ * когда страница начала грузиться: ожидание свободного потока пула (а для {@link PageTask} - и ожидание
+ * семафора или лимита хоста до самого запроса) в него не входит, иначе при маленьком пуле страницы
+ * из хвоста очереди просрочивались бы, не сделав ни одного запроса. Очередь ограничена дедлайном
+ * всей задачи: по нему отменяются все ещё незавершённые страницы.
+ * В режиме failFast первая ошибка сразу отменяет остальные страницы.
+ */
+@Component
+@RequiredArgsConstructor
+public class PageFanOut {
+
+    private final ExecutorService pageExecutor;
+
+    /**
+     * Загрузка страницы, которая сама сообщает, когда дождалась своей очереди.
+     */
+    @FunctionalInterface
+    public interface PageTask<T> {
+        /**
+         * @param startDeadline вызвать непосредственно перед запросом: с этого момента идёт дедлайн страницы;
+         *                      если не вызван, страницу ограничивает только дедлайн задачи
+         */
+        T load(int page, Runnable startDeadline);
+    }
+
+    /**
+     * Дедлайн страницы отсчитывается с момента, когда задача получила поток пула.
+     */
+    public <T> Result<T> run(int pages,
+                             IntFunction<T> pageTask,
+                             long pageTimeoutMs,
+                             long jobTimeoutMs,
+                             boolean failFast) throws InterruptedException {
+        return run(pages, (page, startDeadline) -> {
+            startDeadline.run();
+            return pageTask.apply(page);
+        }, pageTimeoutMs, jobTimeoutMs, failFast);
+    }
+
+    public <T> Result<T> run(int pages,
+                             PageTask<T> pageTask,
+                             long pageTimeoutMs,
+                             long jobTimeoutMs,
+                             boolean failFast) throws InterruptedException {
+        List<CompletableFuture<T>> futures = new ArrayList<>(pages);
+        CompletableFuture<Void> firstFailure = new CompletableFuture<>();
+
+        for (int p = 0; p < pages; p++) {
+            final int page = p;
+            CompletableFuture<T> cf = new CompletableFuture<>();
+            AtomicBoolean deadlineStarted = new AtomicBoolean();
+            Runnable startDeadline = () -> {
+                // повторный вызов (например, из ретрая внутри задачи) не продлевает дедлайн
+                if (deadlineStarted.compareAndSet(false, true)) {
+                    cf.orTimeout(pageTimeoutMs, TimeUnit.MILLISECONDS);
+                }
+            };
+
+            Future<?> task = pageExecutor.submit(() -> {
+                try {
+                    cf.complete(pageTask.load(page, startDeadline));
+                } catch (Throwable t) {
+                    cf.completeExceptionally(t);
+                }
+            });
+
+            cf.whenComplete((r, e) -> {
+                if (e != null) {
+                    task.cancel(true);
+                    if (failFast) {
+                        firstFailure.complete(null);
+                    }
+                }
+            });
+            futures.add(cf);
+        }
+
+        CompletableFuture<Void> all = CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new));
+        try {
+            CompletableFuture.anyOf(all, firstFailure).get(jobTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException ignored) {
+            // ошибки и просрочки разбираются ниже по каждой странице отдельно
+        }
+
+        for (CompletableFuture<T> cf : futures) {
+            if (!cf.isDone()) {
+                cf.completeExceptionally(new TimeoutException("Страница отменена: истёк дедлайн задачи"));
+            }
+        }
+
+        List<T> completed = new ArrayList<>();
+        Map<Integer, Throwable> failed = new TreeMap<>();
+        for (int p = 0; p < futures.size(); p++) {
+            CompletableFuture<T> cf = futures.get(p);
+            if (cf.state() == Future.State.SUCCESS) {
+                completed.add(cf.resultNow());
+            } else {
+                failed.put(p, cf.state() == Future.State.FAILED ? cf.exceptionNow() : new CancellationException());
+            }
+        }
+        return new Result<>(completed, failed);
+    }
+
+    public record Result<T>(List<T> completed, Map<Integer, Throwable> failed) {
+        public Throwable firstFailure() {
+            return failed.isEmpty() ? null : failed.values().iterator().next();
+        }
+    }
+}
@@ -2,33 +2,46 @@ package ru.kopylov.multithreads.service;
 
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Propagation;
-import org.springframework.transaction.annotation.Transactional;
 import ru.kopylov.multithreads.controller.SourceStubController;
 import ru.kopylov.multithreads.model.ParseJob;
 import ru.kopylov.multithreads.model.ParseStatus;
-import ru.kopylov.multithreads.model.Review;
 import ru.kopylov.multithreads.repository.ParseJobRepository;
-import ru.kopylov.multithreads.repository.ReviewRepository;
-import ru.kopylov.multithreads.util.DedupUtils;
+import ru.kopylov.multithreads.util.DedupKey;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.*;
-
-
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Выполняет одну задачу парсинга. Общей транзакции на задачу нет: в потоковом режиме каждая страница
+ * сохраняется в своей транзакции, поэтому задача, завершившаяся ошибкой или по дедлайну, может оставить
+ * в базе отзывы уже сохранённых страниц. Повтор задачи их не продублирует - их отсеет дедупликация.
+ * <p>
+ * Статус задачи пишется условным UPDATE по владельцу аренды и номеру попытки: если аренда истекла и задачу
+ * уже выполняет другой запуск, результат этого запуска отбрасывается (JOB_LEASE_LOST, outcome=lease_lost).
+ */
 @Service
 @RequiredArgsConstructor
 public class ParseJobRunner {
-    private static final int LATCH_TIMEOUT_SECONDS = 10;
-
     private final ParseJobRepository parseJobRepository;
-    private final ReviewRepository reviewRepository;
+    private final ReviewIngestor reviewIngestor;
+    private final ConcurrencyLimiter concurrencyLimiter;
     private final SourceClient sourceClient;
     private final SteamReviewsClient steamReviewsClient;
+    private final SteamCrawlPipeline steamCrawlPipeline;
+    private final SteamWatermarks steamWatermarks;
     private final ExecutorService pageExecutor;
+    private final PageFanOut pageFanOut;
     private final AsyncEventLogger asyncEventLogger;
+    private final ParserMetrics parserMetrics;
+    private final JobProgress jobProgress;
 
     @Value("${parser.per-page:5}")
     private int perPage;
@@ -36,171 +49,325 @@ public class ParseJobRunner {
     @Value("${parser.pages:3}")
     private int pages;
 
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    // дедлайн одной страницы стаб-источника: по истечении страница отменяется и освобождает поток
+    @Value("${parser.page-timeout-ms:5000}")
+    private long pageTimeoutMs;
+
+    // дедлайн сбора страниц всей задачи
+    @Value("${parser.job-timeout-seconds:10}")
+    private int jobTimeoutSeconds;
+
+    // true - сохранить успешные страницы, даже если часть страниц упала или не уложилась в дедлайн
+    @Value("${parser.accept-partial:false}")
+    private boolean acceptPartial;
+
+    // потоковый режим: каждая страница сохраняется сразу, не дожидаясь конца обхода
+    @Value("${parser.streaming.enabled:false}")
+    private boolean streaming;
+
+    // сколько страниц одновременно может быть загружено, но ещё не сохранено
+    @Value("${parser.streaming.window:2}")
+    private int streamingWindow;
+
+    // без общей транзакции: статус RUNNING и отзывы потокового режима видны сразу, а не после конца задачи
     public void run(UUID jobId, String url) {
-        asyncEventLogger.logEvent("Запуск выполнения задачи: id=" + jobId + " url=" + url);
+        asyncEventLogger.logEvent(EventType.JOB_STARTED, jobId, url);
 
         ParseJob job = parseJobRepository.findById(jobId).orElseThrow();
 
-        job.setStatus(ParseStatus.RUNNING);
         job.setStartedAt(Instant.now());
-        parseJobRepository.save(job);
+        if (parseJobRepository.markStarted(jobId, job.getLeaseOwner(), job.getAttempts(), job.getStartedAt()) == 0) {
+            leaseLost(job, jobId);
+            return;
+        }
 
-        asyncEventLogger.logEvent("Статус задачи: RUNNING id=" + jobId);
+        asyncEventLogger.logEvent(EventType.JOB_RUNNING, jobId);
+        jobProgress.started(jobId, url, job.getAttempts(), pages, streaming ? JobProgress.Phase.STREAM : JobProgress.Phase.FETCH);
 
+        long started = System.nanoTime();
         // стим отзывы
         try {
             if (steamReviewsClient.supports(url)) {
-                asyncEventLogger.logEvent("Источник Steam");
+                asyncEventLogger.logEvent(EventType.SOURCE_STEAM, jobId);
+
+                if (streaming) {
+                    runSteamStreaming(job, jobId, url);
+                    return;
+                }
 
                 var collected = new java.util.ArrayList<SourceStubController.RawReviewDto>(pages * perPage);
+                var watermark = steamWatermarks.start(steamReviewsClient.sourceKey(url));
 
-                String cursor = "*";
+                String cursor = watermark.startCursor();
 
                 for (int p = 0; p < pages; p++) {
-                    asyncEventLogger.logEvent("Страница стим " + p + ": HTTP запрос id=" + jobId);
+                    asyncEventLogger.logEvent(EventType.STEAM_PAGE_REQUEST, jobId, p);
 
-                    SteamReviewsClient.SteamPage page = steamReviewsClient.fetchPage(url, cursor, perPage);
+                    var page = steamReviewsClient.fetchPage(url, cursor, perPage, watermark);
+                    watermark.pageLoaded(page);
                     cursor = page.nextCursor();
 
                     var rawPage = page.reviews();
-                    asyncEventLogger.logEvent("Страница стим " + p + ": получено=" + rawPage.size() + ", id=" + jobId);
+                    asyncEventLogger.logEvent(EventType.STEAM_PAGE_FETCHED, jobId, p, rawPage.size());
+                    jobProgress.pageFetched(jobId, rawPage.size());
 
                     collected.addAll(rawPage);
 
-                    if (rawPage.isEmpty()) {
-                        asyncEventLogger.logEvent("Страница стим " + p + ": пусто, останавливаем пагинацию, id=" + jobId);
+                    if (page.total() == 0) {
+                        asyncEventLogger.logEvent(EventType.STEAM_PAGE_EMPTY, jobId, p);
+                        break;
+                    }
+                    if (watermark.reachedMark()) {
+                        asyncEventLogger.logEvent(EventType.STEAM_MARK_REACHED, jobId, p, rawPage.size());
                         break;
                     }
                 }
 
-                if (collected.isEmpty()) {
+                if (watermark.fetched() == 0) {
                     throw new IllegalStateException("не удалось получить ни одного отзыва (проверьте appid/URL)");
                 }
 
-                asyncEventLogger.logEvent("Steam: сбор завершён, totalRaw=" + collected.size() + ", id=" + jobId);
+                asyncEventLogger.logEvent(EventType.STEAM_COLLECTED, jobId, collected.size());
+                jobProgress.phase(jobId, JobProgress.Phase.SAVE);
 
-                var q = new java.util.concurrent.ConcurrentLinkedQueue<SourceStubController.RawReviewDto>(collected);
-                saveReviewsAndCompleteJob(job, jobId, url, q);
+                var res = collected.isEmpty()
+                        ? ReviewIngestor.IngestResult.EMPTY
+                        : concurrencyLimiter.withDbPermit(() -> reviewIngestor.ingest(url, collected));
+                steamWatermarks.commit(watermark);
+                completeJob(job, jobId, res.raw(), res.unique(), res.saved());
                 return;
             }
             // стаб отзывы
-            asyncEventLogger.logEvent("Источник не Steam. Используем стабы");
+            asyncEventLogger.logEvent(EventType.SOURCE_STUB, jobId);
+
+            if (streaming) {
+                runStubStreaming(job, jobId, url);
+                return;
+            }
+
+            asyncEventLogger.logEvent(EventType.PAGES_FANOUT_STARTED, jobId, pages, perPage);
+
+            var fanOut = pageFanOut.run(pages, (int page, Runnable startDeadline) -> {
+                asyncEventLogger.logEvent(EventType.PAGE_STARTED, jobId, page);
+                var rawPage = sourceClient.fetchRawReviews(url, perPage, page, startDeadline);
+
+                asyncEventLogger.logEvent(EventType.PAGE_FETCHED, jobId, page, rawPage.size());
+                jobProgress.pageFetched(jobId, rawPage.size());
+                return rawPage;
+            }, pageTimeoutMs, jobTimeoutSeconds * 1000L, !acceptPartial);
 
-            asyncEventLogger.logEvent("Начинаем параллельный сбор страниц: pages=" + pages +
-                    ", perPage=" + perPage + ", id=" + jobId);
+            fanOut.failed().forEach((page, e) ->
+                    asyncEventLogger.logEvent(EventType.PAGE_FAILED, jobId, page, e));
 
-            CountDownLatch latch = new CountDownLatch(pages);
+            if (!fanOut.failed().isEmpty() && (!acceptPartial || fanOut.completed().isEmpty())) {
+                Throwable first = fanOut.firstFailure();
+                throw new RuntimeException("Ошибки при загрузке страниц: " + first, first);
+            }
 
             ConcurrentLinkedQueue<SourceStubController.RawReviewDto> collected = new ConcurrentLinkedQueue<>();
-            ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+            fanOut.completed().forEach(collected::addAll);
+
+            if (collected.isEmpty()) {
+                throw new IllegalStateException("Не удалось получить ни одного отзыва (проверь appid/URL)");
+            }
+
+            asyncEventLogger.logEvent(EventType.PAGES_COLLECTED, jobId,
+                    collected.size(), fanOut.completed().size(), pages);
+            jobProgress.phase(jobId, JobProgress.Phase.SAVE);
+
+            if (fanOut.failed().isEmpty()) {
+                saveReviewsAndCompleteJob(job, jobId, url, collected);
+            } else {
+                var res = concurrencyLimiter.withDbPermit(() -> reviewIngestor.ingest(url, collected));
+                completeJob(job, jobId, res.raw(), res.unique(), res.saved(),
+                        "Частичный результат: загружено страниц " + fanOut.completed().size() + " из " + pages +
+                                ", первая ошибка: " + fanOut.firstFailure());
+            }
 
+        } catch (Exception e) {
+            var unavailable = HostThrottle.HostUnavailableException.in(e);
+            if (unavailable != null && defer(job, jobId, unavailable)) {
+                return;
+            }
+            if (!finish(job, jobId, ParseStatus.FAILED, null, e.toString())) {
+                return;
+            }
+
+            asyncEventLogger.logEvent(EventType.JOB_FAILED, jobId, e);
+            jobProgress.failed(jobId, e.toString());
+        } finally {
+            // leaseOwner обнуляет только leaseLost
+            String outcome = job.getLeaseOwner() == null ? "lease_lost" : switch (job.getStatus()) {
+                case RUNNING -> "error";
+                case QUEUED -> "deferred";
+                default -> job.getStatus().name().toLowerCase();
+            };
+            parserMetrics.recordJob(steamReviewsClient.sourceKey(url), outcome, System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * Возвращает задачу в очередь до момента, когда хост снова можно пробовать. Уже сохранённые страницы
+     * при повторе отсеет дедупликация, а граница инкрементального обхода Steam не сдвигалась.
+     *
+     * @return false - у источника уже есть задача в очереди, эту остаётся завершить с ошибкой
+     */
+    private boolean defer(ParseJob job, UUID jobId, HostThrottle.HostUnavailableException e) {
+        int updated;
+        try {
+            updated = parseJobRepository.requeueLeased(jobId, job.getLeaseOwner(), job.getAttempts(),
+                    e.retryAt(), Instant.now(), e.getMessage());
+        } catch (DataIntegrityViolationException conflict) {
+            return false;
+        }
+        if (updated == 0) {
+            leaseLost(job, jobId);
+            return true;
+        }
+        job.setStatus(ParseStatus.QUEUED);
+        asyncEventLogger.logEvent(EventType.JOB_DEFERRED, jobId, e.getMessage());
+        jobProgress.deferred(jobId, e.getMessage());
+        return true;
+    }
+
+    private void runSteamStreaming(ParseJob job, UUID jobId, String url) throws Exception {
+        asyncEventLogger.logEvent(EventType.STEAM_PIPELINE_STARTED, jobId, pages, perPage, streamingWindow);
+
+        var watermark = steamWatermarks.start(steamReviewsClient.sourceKey(url));
+        var res = steamCrawlPipeline.crawl(jobId, url, pages, perPage, streamingWindow, watermark,
+                jobTimeoutSeconds);
+
+        if (watermark.fetched() == 0) {
+            throw new IllegalStateException("не удалось получить ни одного отзыва (проверьте appid/URL)");
+        }
+        steamWatermarks.commit(watermark);
+
+        completeJob(job, jobId, res.raw(), res.unique(), res.saved());
+    }
+
+    private void runStubStreaming(ParseJob job, UUID jobId, String url) throws Exception {
+        asyncEventLogger.logEvent(EventType.PAGES_STREAMING_STARTED, jobId, pages, perPage, streamingWindow);
+
+        Semaphore window = new Semaphore(Math.max(streamingWindow, 1));
+        CountDownLatch latch = new CountDownLatch(pages);
+
+        Set<DedupKey> claimed = ConcurrentHashMap.newKeySet();
+        AtomicInteger totalRaw = new AtomicInteger();
+        AtomicInteger totalUnique = new AtomicInteger();
+        AtomicInteger totalSaved = new AtomicInteger();
+        ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+
+        // задача брошена по дедлайну: ещё не сохранённые страницы не пишем, запущенные загрузки прерываем
+        AtomicBoolean abandoned = new AtomicBoolean();
+        List<Future<?>> tasks = new ArrayList<>(pages);
+        boolean done = false;
+        try {
             for (int p = 0; p < pages; p++) {
                 final int page = p;
 
-                pageExecutor.submit(() -> {
-                    asyncEventLogger.logEvent("Страница " + page + ": старт загрузки, id=" + jobId);
+                if (!window.tryAcquire(jobTimeoutSeconds, TimeUnit.SECONDS)) {
+                    throw new TimeoutException("Окно потоковой загрузки не освободилось за " +
+                            jobTimeoutSeconds + " сек (id=" + jobId + ")");
+                }
+
+                tasks.add(pageExecutor.submit(() -> {
                     try {
                         var rawPage = sourceClient.fetchRawReviews(url, perPage, page);
-                        collected.addAll(rawPage);
-
-                        asyncEventLogger.logEvent("Страница " + page + ": получено=" + rawPage.size() +
-                                ", id=" + jobId + ", поток=" + Thread.currentThread().getName());
+                        if (abandoned.get()) {
+                            return;
+                        }
+                        var res = concurrencyLimiter.withDbPermit(() -> reviewIngestor.ingest(url, rawPage, claimed));
+
+                        totalRaw.addAndGet(res.raw());
+                        totalUnique.addAndGet(res.unique());
+                        totalSaved.addAndGet(res.saved());
+
+                        asyncEventLogger.logEvent(EventType.PAGE_SAVED, jobId, page, res.raw(), res.saved());
+                        jobProgress.pageFetched(jobId, res.raw());
+                        jobProgress.saved(jobId, res.saved(), res.skipped());
                     } catch (Exception e) {
                         errors.add(e);
-                        asyncEventLogger.logEvent("Страница " + page + ": ошибка=" + e +
-                                ", id=" + jobId + ", поток=" + Thread.currentThread().getName());
+                        asyncEventLogger.logEvent(EventType.PAGE_FAILED, jobId, page, e);
                     } finally {
+                        window.release();
                         latch.countDown();
                     }
-                });
+                }));
             }
 
-            boolean done = latch.await(LATCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            done = latch.await(jobTimeoutSeconds, TimeUnit.SECONDS);
             if (!done) {
                 throw new TimeoutException("Не дождались завершения загрузки страниц за " +
-                        LATCH_TIMEOUT_SECONDS + " сек (id=" + jobId + ")");
-            }
-
-            if (!errors.isEmpty()) {
-                Throwable first = errors.peek();
-                throw new RuntimeException("Ошибки при загрузке страниц: " + first, first);
+                        jobTimeoutSeconds + " сек (id=" + jobId + ")");
             }
-            if (collected.isEmpty()) {
-                throw new IllegalStateException("Не удалось получить ни одного отзыва (проверь appid/URL)");
+        } finally {
+            if (!done) {
+                abandoned.set(true);
+                tasks.forEach(task -> task.cancel(true));
             }
+        }
 
-            asyncEventLogger.logEvent("Все страницы собраны: totalRaw=" + collected.size() + ", id=" + jobId);
+        if (!errors.isEmpty()) {
+            Throwable first = errors.peek();
+            throw new RuntimeException("Ошибки при загрузке страниц: " + first, first);
+        }
+        if (totalRaw.get() == 0) {
+            throw new IllegalStateException("Не удалось получить ни одного отзыва (проверь appid/URL)");
+        }
 
-            saveReviewsAndCompleteJob(job, jobId, url, collected);
+        completeJob(job, jobId, totalRaw.get(), totalUnique.get(), totalSaved.get());
+    }
 
-        } catch (Exception e) {
-            job.setStatus(ParseStatus.FAILED);
-            job.setFinishedAt(Instant.now());
-            job.setErrorMessage(e.toString());
-            parseJobRepository.save(job);
+    void saveReviewsAndCompleteJob(ParseJob job,
+                                   UUID jobId,
+                                   String url,
+                                   ConcurrentLinkedQueue<SourceStubController.RawReviewDto> collected) {
 
-            asyncEventLogger.logEvent("Ошибка выполнения задачи: id=" + jobId + ", причина=" + e);
-        }
+        var res = concurrencyLimiter.withDbPermit(() -> reviewIngestor.ingest(url, collected));
+
+        completeJob(job, jobId, res.raw(), res.unique(), res.saved());
     }
 
-    private void saveReviewsAndCompleteJob(ParseJob job,
-                                           UUID jobId,
-                                           String url,
-                                           ConcurrentLinkedQueue<SourceStubController.RawReviewDto> collected) {
-
-        Instant now = Instant.now();
-
-        var batch = collected.stream()
-                .map(r -> {
-                    String normAuthor = (r.getAuthorName() == null ? "" : r.getAuthorName().trim());
-                    String normText = (r.getText() == null ? "" : r.getText().trim());
-                    String normDate = (r.getCreatedAt() == null ? "" : r.getCreatedAt().toString());
-
-                    String keyMaterial = normAuthor + "|" + normDate + "|" + r.getRating() + "|" + normText;
-                    String dedupKey = DedupUtils.sha256Hex(keyMaterial);
-
-                    return Review.builder()
-                            .sourceUrl(url)
-                            .authorName(normAuthor.isEmpty() ? "unknown" : normAuthor)
-                            .rating(r.getRating())
-                            .text(normText)
-                            .createdAt(r.getCreatedAt())
-                            .fetchedAt(now)
-                            .dedupKey(dedupKey)
-                            .build();
-                })
-                .toList();
-
-        var uniqueByKey = new java.util.LinkedHashMap<String, Review>();
-        for (Review rev : batch) {
-            uniqueByKey.putIfAbsent(rev.getDedupKey(), rev);
-        }
-        var uniqueBatch = uniqueByKey.values().stream().toList();
+    private void completeJob(ParseJob job, UUID jobId, int totalRaw, int totalUnique, int newSaved) {
+        completeJob(job, jobId, totalRaw, totalUnique, newSaved, null);
+    }
 
-        var keys = uniqueBatch.stream().map(Review::getDedupKey).toList();
-        var existing = new java.util.HashSet<>(reviewRepository.findExistingDedupKeys(url, keys));
+    private void completeJob(ParseJob job, UUID jobId, int totalRaw, int totalUnique, int newSaved, String note) {
+        int skipped = totalUnique - newSaved;
 
-        var toSave = uniqueBatch.stream()
-                .filter(r -> !existing.contains(r.getDedupKey()))
-                .toList();
+        parserMetrics.recordReviews(steamReviewsClient.sourceKey(job.getSourceUrl()), totalRaw, totalUnique, newSaved);
 
-        reviewRepository.saveAll(toSave);
+        asyncEventLogger.logEvent(EventType.REVIEWS_SAVED, jobId, newSaved, totalUnique);
 
-        int newSaved = toSave.size();
-        int totalUnique = uniqueBatch.size();
-        int skipped = totalUnique - newSaved;
+        if (!finish(job, jobId, ParseStatus.SUCCESS, newSaved, note)) {
+            return;
+        }
 
-        asyncEventLogger.logEvent("Отзывы сохранены в БД: saved=" + newSaved +
-                " (из " + totalUnique + "), id=" + jobId);
+        asyncEventLogger.logEvent(EventType.JOB_SUCCEEDED, jobId, newSaved, skipped);
+        jobProgress.succeeded(jobId, totalRaw, newSaved, skipped);
+    }
 
-        job.setStatus(ParseStatus.SUCCESS);
-        job.setFinishedAt(Instant.now());
-        job.setCreatedReviews(newSaved);
-        job.setErrorMessage(null);
-        parseJobRepository.save(job);
+    /**
+     * @return false - аренду забрали, статус не записан
+     */
+    private boolean finish(ParseJob job, UUID jobId, ParseStatus status, Integer createdReviews, String message) {
+        int updated = parseJobRepository.finishLeased(jobId, job.getLeaseOwner(), job.getAttempts(),
+                status, Instant.now(), createdReviews, message);
+        if (updated == 0) {
+            leaseLost(job, jobId);
+            return false;
+        }
+        job.setStatus(status);
+        return true;
+    }
 
-        asyncEventLogger.logEvent("Задача завершена успешно: id=" + jobId +
-                ", новых=" + newSaved + ", пропущено дублей=" + skipped);
+    /**
+     * Аренда истекла, и задачу вернули в очередь или уже выполняет другой запуск: его результат не затираем,
+     * а ход задачи на этом узле дальше читается из БД.
+     */
+    private void leaseLost(ParseJob job, UUID jobId) {
+        job.setLeaseOwner(null);
+        asyncEventLogger.logEvent(EventType.JOB_LEASE_LOST, jobId);
+        jobProgress.released(jobId);
     }
-}
\ No newline at end of file
+}
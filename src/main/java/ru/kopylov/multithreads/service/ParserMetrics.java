@@ -0,0 +1,161 @@
+package ru.kopylov.multithreads.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Метрики парсера (Micrometer, доступны через /actuator/metrics).
+ * <p>
+ * Тег source - ключ источника: steam:&lt;appid&gt; или URL стаб-источника, как ParseJob.sourceKey.
+ * POST /parse и /parse/batch принимают любой URL, поэтому свой ряд получают только источники из таблицы sources
+ * (список обновляет ScheduledParser), остальные сводятся в source=other. Гистограмма латентности страниц
+ * самая дорогая по числу рядов, и тега source у неё нет вовсе.
+ * <p>
+ * Gauge'и состояния компонентов (логгер, кэш Steam, поисковый индекс, SSE) каждый компонент регистрирует сам
+ * через MeterBinder.
+ */
+@Component
+public class ParserMetrics {
+
+    static final String OTHER_SOURCE = "other";
+
+    private final MeterRegistry registry;
+
+    private volatile Set<String> knownSources = Set.of();
+
+    // builder().register() на каждой записи ищет meter в реестре и создаёт мусор, поэтому meter'ы
+    // кэшируются по набору тегов; число наборов ограничено источниками из таблицы sources и хостами
+    private final Timer queueWait;
+    private final Map<List<String>, Timer> jobTimers = new ConcurrentHashMap<>();
+    private final Map<List<String>, Timer> pageFetchTimers = new ConcurrentHashMap<>();
+    private final Map<String, Timer> hostWaitTimers = new ConcurrentHashMap<>();
+    private final Map<List<String>, Counter> hostRejected = new ConcurrentHashMap<>();
+    private final Map<String, Counter> hostThrottled = new ConcurrentHashMap<>();
+    private final Map<List<String>, Counter> reviewCounters = new ConcurrentHashMap<>();
+
+    public ParserMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.queueWait = Timer.builder("parser.job.queue.wait")
+                .description("Ожидание задачи в очереди parse_jobs")
+                .register(registry);
+    }
+
+    /**
+     * Источники, которые получают собственное значение тега source.
+     */
+    public void knownSources(Collection<String> sourceKeys) {
+        knownSources = Set.copyOf(sourceKeys);
+    }
+
+    String sourceTag(String sourceKey) {
+        return sourceKey != null && knownSources.contains(sourceKey) ? sourceKey : OTHER_SOURCE;
+    }
+
+    /**
+     * Время от последней постановки задачи в очередь (parse_jobs) до начала её выполнения на узле.
+     */
+    public void recordQueueWait(long nanos) {
+        queueWait.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordJob(String source, String outcome, long nanos) {
+        jobTimers.computeIfAbsent(List.of(sourceTag(source), outcome), tags -> Timer.builder("parser.job.duration")
+                        .description("Длительность выполнения задачи парсинга")
+                        .tag("source", tags.get(0))
+                        .tag("outcome", tags.get(1))
+                        .register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Замеряет загрузку одной страницы, включая ожидание разрешения на источник.
+     */
+    public <T> T timePageFetch(String client, Supplier<T> fetch) {
+        long started = System.nanoTime();
+        String outcome = "error";
+        try {
+            T result = fetch.get();
+            outcome = "success";
+            return result;
+        } finally {
+            pageFetchTimers.computeIfAbsent(List.of(client, outcome), tags -> Timer.builder("parser.page.fetch")
+                            .description("Латентность загрузки страницы отзывов")
+                            .tag("client", tags.get(0))
+                            .tag("outcome", tags.get(1))
+                            .publishPercentileHistogram()
+                            .register(registry))
+                    .record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Лимит и состояние предохранителя хоста. Тег host - внешний хост (store.steampowered.com, localhost),
+     * их единицы, в отличие от источников.
+     */
+    void registerHost(String host, HostThrottle.HostState state) {
+        Gauge.builder("parser.host.rate", state, HostThrottle.HostState::rate)
+                .description("Текущий лимит запросов к хосту в секунду (снижается при 429)")
+                .tag("host", host)
+                .register(registry);
+        Gauge.builder("parser.host.circuit", state, HostThrottle.HostState::circuitState)
+                .description("Предохранитель хоста: 0 - замкнут, 1 - пробный запрос, 2 - разомкнут")
+                .tag("host", host)
+                .register(registry);
+    }
+
+    public void recordHostWait(String host, long nanos) {
+        hostWaitTimers.computeIfAbsent(host, h -> Timer.builder("parser.host.wait")
+                        .description("Ожидание очереди в лимите запросов к хосту")
+                        .tag("host", h)
+                        .register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param reason open - цепь разомкнута, wait - ждать очереди дольше допустимого
+     */
+    public void recordHostRejected(String host, String reason) {
+        hostRejected.computeIfAbsent(List.of(host, reason), tags -> Counter.builder("parser.host.rejected")
+                        .description("Запросы к хосту, отклонённые без отправки")
+                        .tag("host", tags.get(0))
+                        .tag("reason", tags.get(1))
+                        .register(registry))
+                .increment();
+    }
+
+    public void recordHostThrottled(String host) {
+        hostThrottled.computeIfAbsent(host, h -> Counter.builder("parser.host.throttled")
+                        .description("Ответы хоста об ограничении запросов (429, success != 1)")
+                        .tag("host", h)
+                        .register(registry))
+                .increment();
+    }
+
+    /**
+     * @param raw    получено отзывов от источника
+     * @param unique уникальных внутри задачи
+     * @param saved  новых, записанных в БД; остальные считаются пропущенными дублями
+     */
+    public void recordReviews(String source, int raw, int unique, int saved) {
+        reviews("parser.reviews.fetched", source).increment(raw);
+        reviews("parser.reviews.saved", source).increment(saved);
+        reviews("parser.reviews.skipped", source).increment(Math.max(raw - saved, 0));
+    }
+
+    private Counter reviews(String name, String source) {
+        return reviewCounters.computeIfAbsent(List.of(name, sourceTag(source)), tags -> Counter.builder(tags.get(0))
+                .tag("source", tags.get(1))
+                .register(registry));
+    }
+}
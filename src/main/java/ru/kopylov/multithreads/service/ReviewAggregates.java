@@ -0,0 +1,95 @@
+package ru.kopylov.multithreads.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import ru.kopylov.multithreads.dto.ReviewAggregatesResponse;
+import ru.kopylov.multithreads.repository.ReviewAggregateRepository;
+import ru.kopylov.multithreads.repository.ReviewAggregateRepositoryCustom.Bucket;
+import ru.kopylov.multithreads.repository.ReviewRepository;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Сводки по отзывам (гистограмма рейтингов, число отзывов по дням) из счётчиков review_aggregates.
+ * Счётчики пополняет ReviewIngestor при вставке, поэтому запрос читает столько строк, сколько корзин
+ * (дней x рейтингов), а не отзывов.
+ */
+@Service
+@RequiredArgsConstructor
+public class ReviewAggregates {
+
+    private final ReviewAggregateRepository reviewAggregateRepository;
+    private final ReviewRepository reviewRepository;
+    private final AsyncEventLogger asyncEventLogger;
+
+    /**
+     * Счётчики появились позже отзывов: если БД уже с отзывами, а счётчиков нет, пересчитать их один раз.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void backfill() {
+        if (reviewAggregateRepository.count() == 0 && reviewRepository.count() > 0) {
+            int buckets = reviewAggregateRepository.rebuildFromReviews();
+            asyncEventLogger.logEvent(EventType.AGGREGATES_REBUILT, null, buckets);
+        }
+    }
+
+    /**
+     * @param source null - все источники
+     * @param from   дата отзыва не раньше, null - без границы
+     * @param to     дата отзыва строго раньше, null - без границы
+     */
+    @Transactional(readOnly = true)
+    public ReviewAggregatesResponse summary(String source, LocalDate from, LocalDate to) {
+        List<Bucket> buckets = reviewAggregateRepository.findBuckets(source, from, to);
+
+        Map<Integer, Long> histogram = new TreeMap<>();
+        for (int rating = 1; rating <= 5; rating++) {
+            histogram.put(rating, 0L);
+        }
+        List<ReviewAggregatesResponse.DayStats> days = new ArrayList<>();
+        long total = 0;
+        long ratingSum = 0;
+        long undated = 0;
+
+        // корзины отсортированы по дате: день закрывается, когда дата сменилась
+        LocalDate day = null;
+        long dayCount = 0;
+        long dayRatingSum = 0;
+        for (Bucket b : buckets) {
+            histogram.merge(b.rating(), b.count(), Long::sum);
+            total += b.count();
+            ratingSum += (long) b.rating() * b.count();
+            if (b.day() == null) {
+                undated += b.count();
+                continue;
+            }
+            if (!b.day().equals(day)) {
+                if (day != null) {
+                    days.add(new ReviewAggregatesResponse.DayStats(day, dayCount, average(dayRatingSum, dayCount)));
+                }
+                day = b.day();
+                dayCount = 0;
+                dayRatingSum = 0;
+            }
+            dayCount += b.count();
+            dayRatingSum += (long) b.rating() * b.count();
+        }
+        if (day != null) {
+            days.add(new ReviewAggregatesResponse.DayStats(day, dayCount, average(dayRatingSum, dayCount)));
+        }
+
+        return new ReviewAggregatesResponse(source, total, average(ratingSum, total), histogram, undated, days);
+    }
+
+    private static double average(long sum, long count) {
+        return count == 0 ? 0 : Math.round(sum * 100.0 / count) / 100.0;
+    }
+}
@@ -0,0 +1,183 @@
+package ru.kopylov.multithreads.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import ru.kopylov.multithreads.dto.ReviewExportRow;
+import ru.kopylov.multithreads.repository.ReviewRepository;
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.core.ObjectWriteContext;
+import tools.jackson.core.StreamWriteFeature;
+import tools.jackson.core.json.JsonFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Потоковая выгрузка отзывов в NDJSON или CSV.
+ * <p>
+ * Строки читаются курсором БД (ReviewRepository.streamForExport) и сразу пишутся в выходной поток,
+ * поэтому память не зависит от размера выгрузки: в куче только порция fetch-size и буфер вывода.
+ */
+@Service
+@RequiredArgsConstructor
+public class ReviewExporter {
+
+    // без пробела между корневыми значениями (перевод строки после объекта пишется явно)
+    // и без закрытия потока ответа вместе с генератором
+    private static final JsonFactory JSON = JsonFactory.builder()
+            .rootValueSeparator("")
+            .disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+            .build();
+    private static final int BUFFER = 64 * 1024;
+
+    private final ReviewRepository reviewRepository;
+    private final AsyncEventLogger asyncEventLogger;
+
+    @Value("${export.fetch-size:1000}")
+    private int fetchSize;
+
+    public enum Format {
+        NDJSON("application/x-ndjson", "ndjson"),
+        CSV("text/csv", "csv");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String contentType() {
+            return contentType;
+        }
+
+        public String extension() {
+            return extension;
+        }
+
+        public static Format of(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Формат выгрузки не поддерживается: " + name + " (ndjson, csv)");
+            }
+        }
+    }
+
+    /**
+     * @param sourceUrl null - все источники
+     * @param from      fetchedAt не раньше, null - без границы
+     * @param to        fetchedAt строго раньше, null - без границы
+     * @return сколько строк выгружено
+     */
+    @Transactional(readOnly = true)
+    public long export(Format format, String sourceUrl, Instant from, Instant to, OutputStream out) throws IOException {
+        long started = System.nanoTime();
+        long rows;
+        try (Stream<ReviewExportRow> stream = reviewRepository.streamForExport(sourceUrl, from, to, fetchSize)) {
+            rows = switch (format) {
+                case NDJSON -> writeNdjson(stream, out);
+                case CSV -> writeCsv(stream, out);
+            };
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        asyncEventLogger.logEvent(EventType.EXPORT_FINISHED, null, rows, (System.nanoTime() - started) / 1_000_000);
+        return rows;
+    }
+
+    private static long writeNdjson(Stream<ReviewExportRow> rows, OutputStream out) {
+        long count = 0;
+        try (JsonGenerator g = JSON.createGenerator(ObjectWriteContext.empty(), out)) {
+            var it = rows.iterator();
+            while (it.hasNext()) {
+                ReviewExportRow r = it.next();
+                g.writeStartObject();
+                g.writeNumberProperty("id", r.id());
+                g.writeStringProperty("sourceUrl", r.sourceUrl());
+                g.writeStringProperty("authorName", r.authorName());
+                g.writeNumberProperty("rating", r.rating());
+                g.writeStringProperty("text", r.text());
+                g.writeStringProperty("createdAt", r.createdAt() == null ? null : r.createdAt().toString());
+                g.writeStringProperty("fetchedAt", r.fetchedAt() == null ? null : r.fetchedAt().toString());
+                g.writeEndObject();
+                g.writeRaw('\n');
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static long writeCsv(Stream<ReviewExportRow> rows, OutputStream out) {
+        long count = 0;
+        try {
+            Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER);
+            w.write("id,sourceUrl,authorName,rating,text,createdAt,fetchedAt\r\n");
+            var it = rows.iterator();
+            while (it.hasNext()) {
+                ReviewExportRow r = it.next();
+                w.write(Long.toString(r.id()));
+                w.write(',');
+                csv(w, r.sourceUrl());
+                w.write(',');
+                csv(w, r.authorName());
+                w.write(',');
+                w.write(Integer.toString(r.rating()));
+                w.write(',');
+                csv(w, r.text());
+                w.write(',');
+                if (r.createdAt() != null) {
+                    w.write(r.createdAt().toString());
+                }
+                w.write(',');
+                if (r.fetchedAt() != null) {
+                    w.write(r.fetchedAt().toString());
+                }
+                w.write("\r\n");
+                count++;
+            }
+            w.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return count;
+    }
+
+    /**
+     * Поле по RFC 4180: в кавычках, если в нём есть запятая, кавычка или перевод строки; кавычки удваиваются.
+     */
+    static void csv(Writer w, String value) throws IOException {
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            w.write(value);
+            return;
+        }
+        w.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                w.write('"');
+            }
+            w.write(c);
+        }
+        w.write('"');
+    }
+}
@@ -0,0 +1,185 @@
+package ru.kopylov.multithreads.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.kopylov.multithreads.controller.SourceStubController;
+import ru.kopylov.multithreads.model.Review;
+import ru.kopylov.multithreads.repository.ReviewAggregateRepository;
+import ru.kopylov.multithreads.repository.ReviewRepository;
+import ru.kopylov.multithreads.util.DedupKey;
+import ru.kopylov.multithreads.util.DedupUtils;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Нормализация, дедупликация и сохранение одной порции сырых отзывов.
+ * Порцией может быть как весь собранный обход, так и одна страница в потоковом режиме.
+ */
+@Service
+@RequiredArgsConstructor
+public class ReviewIngestor {
+    private static final int MAX_INSERT_ATTEMPTS = 3;
+
+    private final ReviewRepository reviewRepository;
+    private final ReviewAggregateRepository reviewAggregateRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final DedupKeyFilter dedupKeyFilter;
+    private final ReviewSearchIndex reviewSearchIndex;
+
+    // true - пакетная вставка через JDBC с пропуском дублей в том же операторе,
+    // false - findExistingDedupKeys + saveAll через Hibernate (IDENTITY, по INSERT на отзыв)
+    @Value("${parser.bulk-insert.enabled:true}")
+    private boolean bulkInsert;
+
+    public IngestResult ingest(String url, Collection<SourceStubController.RawReviewDto> raw) {
+        return ingest(url, raw, null);
+    }
+
+    /**
+     * @param claimedKeys ключи, уже занятые другими страницами этой же задачи; может быть null.
+     *                    Ключ, который не удалось добавить в набор, считается дублем и в БД не идёт.
+     */
+    public IngestResult ingest(String url,
+                               Collection<SourceStubController.RawReviewDto> raw,
+                               Set<DedupKey> claimedKeys) {
+        return persist(url, prepare(url, raw), claimedKeys);
+    }
+
+    /**
+     * CPU-часть: нормализация, вычисление ключей и дедупликация внутри порции. В БД не ходит.
+     */
+    public PreparedBatch prepare(String url, Collection<SourceStubController.RawReviewDto> raw) {
+        Instant now = Instant.now();
+
+        var uniqueByKey = new LinkedHashMap<DedupKey, Review>();
+        for (var r : raw) {
+            Review rev = normalize(url, r, now);
+            uniqueByKey.putIfAbsent(rev.getDedupKey(), rev);
+        }
+        return new PreparedBatch(raw.size(), uniqueByKey);
+    }
+
+    public IngestResult persist(String url, PreparedBatch batch, Set<DedupKey> claimedKeys) {
+        var uniqueByKey = new LinkedHashMap<>(batch.uniqueByKey());
+        int totalUnique = uniqueByKey.size();
+
+        if (claimedKeys != null) {
+            uniqueByKey.keySet().removeIf(k -> !claimedKeys.add(k));
+        }
+        if (uniqueByKey.isEmpty()) {
+            return new IngestResult(batch.raw(), totalUnique, 0);
+        }
+
+        List<Review> saved = persistWithRetry(url, uniqueByKey);
+        dedupKeyFilter.addAll(url, uniqueByKey.keySet());
+        reviewSearchIndex.addAll(saved);
+
+        return new IngestResult(batch.raw(), totalUnique, saved.size());
+    }
+
+    /**
+     * Первая попытка доверяет фильтру ключей: ключи, которых в фильтре точно нет, не проверяются в БД.
+     * Если фильтр ошибся (строку вставил кто-то в обход ReviewIngestor) или параллельная задача
+     * по тому же источнику успела вставить тот же ключ, оператор упадёт на uk_reviews_source_dedup
+     * (или на uk_review_aggregates_bucket, если она первой создала ту же корзину счётчиков).
+     * Повтор идёт в новой транзакции без фильтра и уже видит закоммиченную строку.
+     */
+    private List<Review> persistWithRetry(String url, LinkedHashMap<DedupKey, Review> uniqueByKey) {
+        for (int attempt = 1; ; attempt++) {
+            boolean useFilter = attempt == 1 && dedupKeyFilter.isActive();
+            try {
+                return transactionTemplate.execute(tx -> {
+                    List<Review> saved = bulkInsert
+                            ? insertMissing(url, new ArrayList<>(uniqueByKey.values()), useFilter)
+                            : saveMissing(url, uniqueByKey, useFilter);
+                    // счётчики корзин в той же транзакции: откат вставки откатит и их
+                    reviewAggregateRepository.addReviews(saved);
+                    return saved;
+                });
+            } catch (DataIntegrityViolationException e) {
+                if (attempt >= MAX_INSERT_ATTEMPTS) {
+                    throw e;
+                }
+                // saveAll успел проставить IDENTITY-id откатившимся вставкам
+                uniqueByKey.values().forEach(r -> r.setId(null));
+            }
+        }
+    }
+
+    private List<Review> insertMissing(String url, List<Review> candidates, boolean useFilter) {
+        if (!useFilter) {
+            return reviewRepository.insertIgnoringDuplicates(candidates);
+        }
+        var maybeSeen = new ArrayList<Review>();
+        var definitelyNew = new ArrayList<Review>();
+        for (Review r : candidates) {
+            (dedupKeyFilter.mightContain(url, r.getDedupKey()) ? maybeSeen : definitelyNew).add(r);
+        }
+
+        reviewRepository.insertAll(definitelyNew);
+        var insertedMaybe = reviewRepository.insertIgnoringDuplicates(maybeSeen);
+        dedupKeyFilter.recordPositives(url, maybeSeen.size(), maybeSeen.size() - insertedMaybe.size());
+
+        var saved = new ArrayList<Review>(definitelyNew);
+        saved.addAll(insertedMaybe);
+        return saved;
+    }
+
+    private List<Review> saveMissing(String url, LinkedHashMap<DedupKey, Review> uniqueByKey, boolean useFilter) {
+        List<DedupKey> toCheck = uniqueByKey.keySet().stream()
+                .filter(k -> !useFilter || dedupKeyFilter.mightContain(url, k))
+                .toList();
+
+        var existing = toCheck.isEmpty()
+                ? new HashSet<DedupKey>()
+                : new HashSet<>(reviewRepository.findExistingDedupKeys(url, toCheck));
+        if (useFilter) {
+            dedupKeyFilter.recordPositives(url, toCheck.size(), existing.size());
+        }
+
+        List<Review> toSave = uniqueByKey.values().stream()
+                .filter(r -> !existing.contains(r.getDedupKey()))
+                .toList();
+
+        return reviewRepository.saveAll(toSave);
+    }
+
+    private static Review normalize(String url, SourceStubController.RawReviewDto r, Instant fetchedAt) {
+        String normAuthor = (r.getAuthorName() == null ? "" : r.getAuthorName().trim());
+        String normText = (r.getText() == null ? "" : r.getText().trim());
+        DedupKey dedupKey = DedupUtils.dedupKey(normAuthor, r.getCreatedAt(), r.getRating(), normText);
+
+        return Review.builder()
+                .sourceUrl(url)
+                .authorName(normAuthor.isEmpty() ? "unknown" : normAuthor)
+                .rating(r.getRating())
+                .text(normText)
+                .createdAt(r.getCreatedAt())
+                .fetchedAt(fetchedAt)
+                .dedupKey(dedupKey)
+                .build();
+    }
+
+    public record PreparedBatch(int raw, LinkedHashMap<DedupKey, Review> uniqueByKey) {}
+
+    public record IngestResult(int raw, int unique, int saved) {
+        public static final IngestResult EMPTY = new IngestResult(0, 0, 0);
+
+        public int skipped() {
+            return unique - saved;
+        }
+
+        public IngestResult plus(IngestResult other) {
+            return new IngestResult(raw + other.raw, unique + other.unique, saved + other.saved);
+        }
+    }
+}
@@ -0,0 +1,493 @@
+package ru.kopylov.multithreads.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.kopylov.multithreads.dto.ReviewExportRow;
+import ru.kopylov.multithreads.model.Review;
+import ru.kopylov.multithreads.repository.ReviewRepository;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Полнотекстовый индекс по тексту отзывов: слово -> отсортированный список документов (инвертированный индекс).
+ * <p>
+ * Пополняется ReviewIngestor после коммита вставки, поэтому в нём только отзывы, реально попавшие в БД.
+ * Отзывы, записанные другими узлами, дочитываются из БД по id раз в catch-up-ms: догон читает id больше
+ * прочитанных прошлым догоном и запоминает пропуски между прочитанными id: вставка с меньшим id могла закоммититься
+ * позже вставки с большим. Пропуски (не больше 10000) перечитываются каждым догоном, пока не заполнятся или
+ * не пройдёт 5 минут (откатившаяся вставка не заполнится никогда). Какие id уже в индексе, помнит битовая карта, так что
+ * повторы отсеиваются при любом порядке поступления. При старте индекс прогревается тем же догоном с начала; до его успеха
+ * поиск недоступен, а неудачный прогрев повторяет следующий догон. Запрос - все слова должны встретиться (AND), ранжирование
+ * по BM25 или по свежести; стоимость запроса - длина самого короткого списка слова, а не число отзывов.
+ * Индекс в памяти узла и удаления не отслеживает: найденные id дочитываются из БД, пропавшие отбрасываются.
+ */
+@Component
+public class ReviewSearchIndex implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(ReviewSearchIndex.class);
+
+    // параметры BM25: насыщение частоты слова и поправка на длину отзыва
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int MIN_TOKEN = 2;
+    private static final int MAX_TOKEN = 64;
+    private static final int CATCH_UP_FETCH_SIZE = 1000;
+    // сколько пропусков в id отслеживать и сколько ждать, пока пропуск заполнится
+    private static final int MAX_GAPS = 10_000;
+    private static final long GAP_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private final ReviewRepository reviewRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final long catchUpMs;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final HashMap<String, Postings> terms = new HashMap<>();
+    private final HashMap<String, Integer> sourceIds = new HashMap<>();
+
+    // документы по порядковому номеру в индексе
+    private long[] ids = new long[1024];
+    private int[] sources = new int[1024];
+    private byte[] ratings = new byte[1024];
+    private long[] fetchedAt = new long[1024];
+    private int[] lengths = new int[1024];
+    private int docs;
+    private long totalLength;
+
+    // id документов, уже попавших в индекс; id за пределами int (2^31 отзывов и больше) - в отдельном наборе
+    private final BitSet indexed = new BitSet();
+    private final HashSet<Long> indexedLarge = new HashSet<>();
+
+    // догон: наибольший прочитанный id и пропуски ниже него - id, которых при чтении не было в БД
+    // (транзакция с меньшим id закоммитилась позже или откатилась), со временем, когда пропуск замечен
+    private long scannedUpTo;
+    private final LinkedHashMap<Long, Long> gaps = new LinkedHashMap<>();
+    private volatile boolean ready;
+
+    public ReviewSearchIndex(ReviewRepository reviewRepository,
+                             TransactionTemplate transactionTemplate,
+                             @Value("${search.index.enabled:true}") boolean enabled,
+                             @Value("${search.index.catch-up-ms:10000}") long catchUpMs) {
+        this.reviewRepository = reviewRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.catchUpMs = catchUpMs;
+    }
+
+    public enum Order {
+        RELEVANCE,
+        RECENCY;
+
+        public static Order of(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Порядок не поддерживается: " + name + " (relevance, recency)");
+            }
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (!enabled) {
+            return;
+        }
+        long started = System.nanoTime();
+        try {
+            catchUp();
+        } catch (RuntimeException e) {
+            // поиск остаётся недоступным, прогрев повторит плановый догон
+            log.warn("Не удалось построить поисковый индекс, повтор через {} мс", catchUpMs, e);
+            return;
+        }
+        log.info("Поисковый индекс построен: отзывов={}, слов={}, за {} мс",
+                documents(), termCount(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    /**
+     * Дочитывает из БД отзывы, которых нет в индексе: записанные другими узлами или пропущенные прогревом.
+     */
+    @Scheduled(initialDelayString = "${search.index.catch-up-ms:10000}", fixedDelayString = "${search.index.catch-up-ms:10000}")
+    public void scheduledCatchUp() {
+        if (!enabled) {
+            return;
+        }
+        boolean wasReady = ready;
+        try {
+            int added = catchUp();
+            if (!wasReady) {
+                log.info("Поисковый индекс построен повторным прогревом: отзывов={}", documents());
+            } else if (added > 0) {
+                log.debug("Поисковый индекс догнал БД: добавлено отзывов={}", added);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Ошибка догона поискового индекса", e);
+        }
+    }
+
+    /**
+     * @return сколько отзывов добавлено
+     */
+    synchronized int catchUp() {
+        long now = System.nanoTime();
+        // откатившиеся вставки не заполнятся никогда
+        gaps.values().removeIf(seen -> now - seen > GAP_TIMEOUT_NANOS);
+        List<Long> pending = List.copyOf(gaps.keySet());
+        long from = scannedUpTo;
+        long[] last = {from};
+        int[] added = {0};
+        transactionTemplate.execute(tx -> {
+            for (int i = 0; i < pending.size(); i += CATCH_UP_FETCH_SIZE) {
+                var chunk = pending.subList(i, Math.min(i + CATCH_UP_FETCH_SIZE, pending.size()));
+                for (ReviewExportRow r : reviewRepository.findRowsByIdIn(chunk)) {
+                    gaps.remove(r.id());
+                    if (add(Doc.of(r))) {
+                        added[0]++;
+                    }
+                }
+            }
+            try (var rows = reviewRepository.streamAfterId(from, CATCH_UP_FETCH_SIZE)) {
+                rows.forEach(r -> {
+                    // до первого отзыва первого догона - удалённые отзывы, а не пропуски
+                    if (last[0] > 0) {
+                        noteGaps(last[0], r.id(), now);
+                    }
+                    last[0] = r.id();
+                    if (add(Doc.of(r))) {
+                        added[0]++;
+                    }
+                });
+            }
+            return null;
+        });
+        scannedUpTo = last[0];
+        ready = true;
+        return added[0];
+    }
+
+    // id между соседними прочитанными, которых ещё нет в индексе, перечитываются следующими догонами
+    private void noteGaps(long after, long next, long now) {
+        lock.readLock().lock();
+        try {
+            for (long id = after + 1; id < next && gaps.size() < MAX_GAPS; id++) {
+                if (!isIndexed(id)) {
+                    gaps.putIfAbsent(id, now);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isActive() {
+        return enabled && ready;
+    }
+
+    /**
+     * Добавить сохранённые отзывы; id должны быть проставлены.
+     */
+    public void addAll(Collection<Review> reviews) {
+        if (!enabled || reviews.isEmpty()) {
+            return;
+        }
+        // вызывается после коммита вставки: исключение отсюда уже ничего не откатит, а вызывающему помешает
+        try {
+            List<Doc> batch = reviews.stream().map(Doc::of).toList();
+            lock.writeLock().lock();
+            try {
+                batch.forEach(this::appendOnce);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (RuntimeException e) {
+            log.warn("Не удалось добавить в поисковый индекс отзывов={}", reviews.size(), e);
+        }
+    }
+
+    /**
+     * @param source    только этот источник, null - все
+     * @param minRating рейтинг не ниже
+     * @param maxRating рейтинг не выше
+     * @throws IllegalArgumentException в запросе нет ни одного слова
+     * @throws IllegalStateException    индекс выключен или ещё строится
+     */
+    public Result search(String query, String source, int minRating, int maxRating, Order order, int limit) {
+        List<String> words = List.copyOf(new LinkedHashSet<>(tokenize(query)));
+        if (words.isEmpty()) {
+            throw new IllegalArgumentException("В запросе нет слов для поиска: " + query);
+        }
+        if (!isActive()) {
+            throw new IllegalStateException(enabled ? "Поисковый индекс ещё строится" : "Поисковый индекс выключен");
+        }
+
+        lock.readLock().lock();
+        try {
+            Postings[] lists = new Postings[words.size()];
+            for (int i = 0; i < lists.length; i++) {
+                lists[i] = terms.get(words.get(i));
+                if (lists[i] == null) {
+                    return Result.EMPTY;
+                }
+            }
+            Integer sourceId = source == null ? null : sourceIds.get(source);
+            if (source != null && sourceId == null) {
+                return Result.EMPTY;
+            }
+            // идём по самому короткому списку, в остальных ищем тот же документ
+            Arrays.sort(lists, Comparator.comparingInt(p -> p.size));
+
+            double[] idf = new double[lists.length];
+            for (int i = 0; i < lists.length; i++) {
+                idf[i] = Math.log(1 + (docs - lists[i].size + 0.5) / (lists[i].size + 0.5));
+            }
+            double avgLength = docs == 0 ? 1 : (double) totalLength / docs;
+
+            PriorityQueue<Hit> top = new PriorityQueue<>(Math.max(limit, 1), Hit.ORDER);
+            int[] cursors = new int[lists.length];
+            long total = 0;
+            Postings first = lists[0];
+            candidates:
+            for (int p = 0; p < first.size; p++) {
+                int doc = first.docs[p];
+                for (int i = 1; i < lists.length; i++) {
+                    int at = lists[i].seek(doc, cursors[i]);
+                    cursors[i] = at;
+                    if (at == lists[i].size) {
+                        break candidates;
+                    }
+                    if (lists[i].docs[at] != doc) {
+                        continue candidates;
+                    }
+                }
+                if ((sourceId != null && sources[doc] != sourceId)
+                        || ratings[doc] < minRating || ratings[doc] > maxRating) {
+                    continue;
+                }
+                total++;
+
+                double score;
+                if (order == Order.RECENCY) {
+                    score = fetchedAt[doc];
+                } else {
+                    double norm = K1 * (1 - B + B * lengths[doc] / avgLength);
+                    score = 0;
+                    for (int i = 0; i < lists.length; i++) {
+                        int tf = i == 0 ? first.tfs[p] : lists[i].tfs[cursors[i]];
+                        score += idf[i] * tf * (K1 + 1) / (tf + norm);
+                    }
+                }
+                Hit hit = new Hit(ids[doc], score);
+                if (top.size() < limit) {
+                    top.add(hit);
+                } else if (limit > 0 && Hit.ORDER.compare(hit, top.peek()) > 0) {
+                    top.poll();
+                    top.add(hit);
+                }
+            }
+
+            List<Hit> hits = new ArrayList<>(top);
+            hits.sort(Hit.ORDER.reversed());
+            return new Result(hits, total);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int documents() {
+        lock.readLock().lock();
+        try {
+            return docs;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int termCount() {
+        lock.readLock().lock();
+        try {
+            return terms.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Слова текста: буквы и цифры в нижнем регистре, ё как е; слова короче двух символов отбрасываются.
+     * Морфологии нет: «отзыв» и «отзывы» - разные слова.
+     */
+    static List<String> tokenize(String text) {
+        List<String> out = new ArrayList<>();
+        if (text == null) {
+            return out;
+        }
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                c = Character.toLowerCase(c);
+                word.append(c == 'ё' ? 'е' : c);
+            } else if (!word.isEmpty()) {
+                if (word.length() >= MIN_TOKEN && word.length() <= MAX_TOKEN) {
+                    out.add(word.toString());
+                }
+                word.setLength(0);
+            }
+        }
+        return out;
+    }
+
+    private boolean add(Doc d) {
+        lock.writeLock().lock();
+        try {
+            return appendOnce(d);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // под write lock
+    private boolean appendOnce(Doc d) {
+        if (isIndexed(d.id())) {
+            return false;
+        }
+        if (d.id() <= Integer.MAX_VALUE) {
+            indexed.set((int) d.id());
+        } else {
+            indexedLarge.add(d.id());
+        }
+        append(d);
+        return true;
+    }
+
+    // под read или write lock
+    private boolean isIndexed(long id) {
+        return id <= Integer.MAX_VALUE ? id >= 0 && indexed.get((int) id) : indexedLarge.contains(id);
+    }
+
+    // под write lock; номера документов растут, поэтому списки слов остаются отсортированными
+    private void append(Doc d) {
+        if (docs == ids.length) {
+            int n = docs * 2;
+            ids = Arrays.copyOf(ids, n);
+            sources = Arrays.copyOf(sources, n);
+            ratings = Arrays.copyOf(ratings, n);
+            fetchedAt = Arrays.copyOf(fetchedAt, n);
+            lengths = Arrays.copyOf(lengths, n);
+        }
+        int doc = docs++;
+        ids[doc] = d.id();
+        sources[doc] = sourceIds.computeIfAbsent(d.sourceUrl(), k -> sourceIds.size());
+        ratings[doc] = (byte) d.rating();
+        fetchedAt[doc] = d.fetchedAt();
+        lengths[doc] = d.length();
+        totalLength += d.length();
+        d.tf().forEach((term, tf) -> terms.computeIfAbsent(term, k -> new Postings()).add(doc, tf));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("parser.search.documents", this, ReviewSearchIndex::documents)
+                .description("Отзывов в поисковом индексе")
+                .register(registry);
+        Gauge.builder("parser.search.terms", this, ReviewSearchIndex::termCount)
+                .description("Различных слов в поисковом индексе")
+                .register(registry);
+    }
+
+    /**
+     * Документы одного слова по возрастанию номера и частота слова в каждом.
+     */
+    private static final class Postings {
+        int[] docs = new int[2];
+        byte[] tfs = new byte[2];
+        int size;
+
+        void add(int doc, int tf) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                tfs = Arrays.copyOf(tfs, size * 2);
+            }
+            docs[size] = doc;
+            tfs[size] = (byte) Math.min(tf, Byte.MAX_VALUE);
+            size++;
+        }
+
+        // первая позиция не раньше from с номером >= doc; size - такого нет. Галоп, затем бинарный поиск
+        int seek(int doc, int from) {
+            if (from >= size || docs[from] >= doc) {
+                return from;
+            }
+            int step = 1;
+            int lo = from;
+            int hi = from + 1;
+            while (hi < size && docs[hi] < doc) {
+                lo = hi;
+                step <<= 1;
+                hi = from + step;
+            }
+            int at = Arrays.binarySearch(docs, lo + 1, Math.min(hi, size - 1) + 1, doc);
+            return at >= 0 ? at : -at - 1;
+        }
+    }
+
+    // частоты слов считаются до захвата блокировки
+    private record Doc(long id, String sourceUrl, int rating, long fetchedAt, int length, Map<String, Integer> tf) {
+
+        static Doc of(Review r) {
+            return of(r.getId(), r.getSourceUrl(), r.getRating(), r.getFetchedAt(), r.getText());
+        }
+
+        static Doc of(ReviewExportRow r) {
+            return of(r.id(), r.sourceUrl(), r.rating(), r.fetchedAt(), r.text());
+        }
+
+        static Doc of(long id, String sourceUrl, int rating, Instant fetchedAt, String text) {
+            List<String> words = tokenize(text);
+            Map<String, Integer> tf = new HashMap<>();
+            for (String w : words) {
+                tf.merge(w, 1, Integer::sum);
+            }
+            return new Doc(id, sourceUrl, rating, fetchedAt == null ? 0 : fetchedAt.toEpochMilli(), words.size(), tf);
+        }
+    }
+
+    /**
+     * @param score BM25 или время сохранения в мс, в зависимости от порядка
+     */
+    public record Hit(long id, double score) {
+        // при равном счёте выше более новый (больший id)
+        static final Comparator<Hit> ORDER = Comparator.comparingDouble(Hit::score).thenComparingLong(Hit::id);
+    }
+
+    /**
+     * @param hits      лучшие совпадения, по убыванию
+     * @param totalHits всего отзывов под запрос и фильтры
+     */
+    public record Result(List<Hit> hits, long totalHits) {
+        static final Result EMPTY = new Result(List.of(), 0);
+    }
+}
@@ -1,6 +1,8 @@
 package ru.kopylov.multithreads.service;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
@@ -10,11 +12,21 @@ import ru.kopylov.multithreads.model.ParseStatus;
 import ru.kopylov.multithreads.model.Review;
 import ru.kopylov.multithreads.repository.ParseJobRepository;
 import ru.kopylov.multithreads.repository.ReviewRepository;
+import ru.kopylov.multithreads.util.ReviewCursor;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
 
 @Service
 @RequiredArgsConstructor
@@ -22,79 +34,284 @@ public class ReviewService {
 
     private final ReviewRepository reviewRepository;
     private final ParseJobRepository parseJobRepository;
-    private final ExecutorService parserExecutor;
-    private final ParseJobRunner parseJobRunner;
+    private final JobDispatcher jobDispatcher;
     private final AsyncEventLogger asyncEventLogger;
-    private final ConcurrentHashMap<String, Boolean> runningGuards = new ConcurrentHashMap<>();
     private final SteamReviewsClient steamReviewsClient;
+    private final ReviewSearchIndex reviewSearchIndex;
 
+    private static final int MAX_SLICE_SIZE = 1000;
+    private static final int MAX_SEARCH_SIZE = 100;
+    public static final int MAX_BATCH_SIZE = 1000;
 
+    // true - запрос к источнику с выполняющейся задачей ставит одну повторную задачу, false - присоединяется к ней
+    @Value("${parser.single-flight.follow-up:false}")
+    private boolean followUp;
+
+
+    /**
+     * Ставит задачу парсинга в очередь. Если у источника уже есть задача в очереди (или выполняющаяся,
+     * когда повторный запуск выключен), новая не создаётся - возвращается id существующей.
+     */
     public UUID startParseAsync(String url) {
+        String sourceKey = steamReviewsClient.sourceKey(url);
+
+        UUID attached = findActiveJob(sourceKey);
+        if (attached != null) {
+            return attached;
+        }
+
         UUID jobId = UUID.randomUUID();
 
-        asyncEventLogger.logEvent("Создана задача парсинга: id=" + jobId + " url=" + url);
+        asyncEventLogger.logEvent(EventType.JOB_CREATED, jobId, url);
 
         ParseJob job = ParseJob.builder()
                 .id(jobId)
                 .sourceUrl(url)
+                .sourceKey(sourceKey)
                 .status(ParseStatus.QUEUED)
                 .createdAt(Instant.now())
                 .build();
 
-        parseJobRepository.saveAndFlush(job);
-        asyncEventLogger.logEvent("Задача сохранена в БД: id=" + jobId + " status=QUEUED");
-
-        String guardKey = url == null ? "" : url.trim();
-
-        if (steamReviewsClient.supports(guardKey)) guardKey = "steam:" + steamReviewsClient.extractAppId(guardKey);
-        String finalGuardKey = guardKey;
-        parserExecutor.execute(() -> {
-            if (runningGuards.putIfAbsent(finalGuardKey, true) != null) {
-                asyncEventLogger.logEvent("Повторный запуск источника предотвращён: url="
-                        + finalGuardKey + ", jobId=" + jobId);
-
-                ParseJob j = parseJobRepository.findById(jobId).orElseThrow();
-                j.setStatus(ParseStatus.SUCCESS);
-                j.setFinishedAt(Instant.now());
-                j.setCreatedReviews(0);
-                j.setErrorMessage("Источник уже в обработке (guard)");
-                parseJobRepository.save(j);
-                return;
+        try {
+            parseJobRepository.saveAndFlush(job);
+        } catch (DataIntegrityViolationException e) {
+            // другой запрос (возможно, на другом узле) успел поставить задачу этого источника
+            UUID raced = findActiveJob(sourceKey);
+            if (raced == null) {
+                throw e;
             }
+            return raced;
+        }
+        asyncEventLogger.logEvent(EventType.JOB_QUEUED, jobId);
 
-            try {
-                asyncEventLogger.logEvent("Задача отправлена в пул потоков: id=" + jobId);
-
-
-                try {
-                    parseJobRunner.run(jobId, url);
-                } catch (Throwable t) {
-                    asyncEventLogger.logEvent("ошибка вне обработчика run(): jobId=" + jobId + " причина=" + t);
-
-                    ParseJob j = parseJobRepository.findById(jobId).orElse(null);
-                    if (j != null) {
-                        j.setStatus(ParseStatus.FAILED);
-                        j.setFinishedAt(Instant.now());
-                        j.setErrorMessage("Ошибка: " + t);
-                        parseJobRepository.save(j);
-                    } else {
-                        asyncEventLogger.logEvent("Не нашёл задачу в БД для обновления статуса: id=" + jobId);
-                    }
-                }
-            } finally {
-                runningGuards.remove(finalGuardKey);
-                asyncEventLogger.logEvent("guard освобождён: url=" + finalGuardKey + ", jobId=" + jobId);
-            }
-        });
+        jobDispatcher.dispatch();
 
         return jobId;
     }
 
+    /**
+     * Ставит задачи для списка источников пакетом: активные задачи всех источников ищутся одним запросом,
+     * новые вставляются одной транзакцией вместе с составом пакета, очередь будится один раз.
+     * Источники с задачей в очереди (или выполняющейся, когда повторный запуск выключен) присоединяются к ней,
+     * повторы источника внутри пакета получают одну задачу.
+     *
+     * @return id пакета и id задачи для каждого url, в порядке urls
+     * @throws IllegalArgumentException пустой список или больше MAX_BATCH_SIZE источников
+     */
+    public ParseBatch startParseBatch(List<String> urls) {
+        if (urls == null || urls.isEmpty() || urls.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("В пакете должно быть от 1 до " + MAX_BATCH_SIZE + " источников");
+        }
+        UUID batchId = UUID.randomUUID();
+        List<UUID> jobIds = enqueue(urls, batchId);
+        asyncEventLogger.logEvent(EventType.BATCH_CREATED, batchId, urls.size(), new HashSet<>(jobIds).size());
+        return new ParseBatch(batchId, jobIds);
+    }
+
+    /**
+     * То же, что startParseAsync для каждого url, но пакетом и без записи состава пакета (для планировщика).
+     *
+     * @return id задачи для каждого url, в порядке urls
+     */
+    public List<UUID> startParseAll(List<String> urls) {
+        return urls.isEmpty() ? List.of() : enqueue(urls, null);
+    }
+
+    private List<UUID> enqueue(List<String> urls, UUID batchId) {
+        List<String> sourceKeys = urls.stream().map(steamReviewsClient::sourceKey).toList();
+        Map<String, UUID> jobBySource = findActiveJobs(sourceKeys);
+        Set<UUID> attached = new HashSet<>(jobBySource.values());
+
+        Instant now = Instant.now();
+        List<ParseJob> created = new ArrayList<>();
+        List<UUID> jobIds = new ArrayList<>(urls.size());
+        for (int i = 0; i < urls.size(); i++) {
+            String sourceKey = sourceKeys.get(i);
+            UUID jobId = jobBySource.get(sourceKey);
+            if (jobId == null) {
+                jobId = UUID.randomUUID();
+                jobBySource.put(sourceKey, jobId);
+                created.add(ParseJob.builder()
+                        .id(jobId)
+                        .sourceUrl(urls.get(i))
+                        .sourceKey(sourceKey)
+                        .flightKey(ParseJob.flightKey(sourceKey, ParseStatus.QUEUED))
+                        .status(ParseStatus.QUEUED)
+                        .createdAt(now)
+                        .build());
+            } else if (attached.remove(jobId)) {
+                asyncEventLogger.logEvent(EventType.JOB_COALESCED, jobId, sourceKey);
+            }
+            jobIds.add(jobId);
+        }
+
+        try {
+            parseJobRepository.insertQueued(created, batchId, List.copyOf(new LinkedHashSet<>(jobIds)));
+        } catch (DataIntegrityViolationException e) {
+            // между поиском и вставкой другой запрос поставил задачу одного из источников - пакет откатился
+            // целиком; ставим по одному, startParseAsync разрешает такую гонку сам
+            List<UUID> single = urls.stream().map(this::startParseAsync).toList();
+            parseJobRepository.insertQueued(List.of(), batchId, List.copyOf(new LinkedHashSet<>(single)));
+            return single;
+        }
+
+        for (ParseJob job : created) {
+            asyncEventLogger.logEvent(EventType.JOB_CREATED, job.getId(), job.getSourceUrl());
+            asyncEventLogger.logEvent(EventType.JOB_QUEUED, job.getId());
+        }
+        if (!created.isEmpty()) {
+            jobDispatcher.dispatch();
+        }
+        return jobIds;
+    }
+
+    /**
+     * @return sourceKey -> активная задача, к которой присоединяется запрос (как findActiveJob, но одним запросом)
+     */
+    private Map<String, UUID> findActiveJobs(Collection<String> sourceKeys) {
+        Set<String> flightKeys = new HashSet<>();
+        for (String sourceKey : sourceKeys) {
+            flightKeys.add(ParseJob.flightKey(sourceKey, ParseStatus.QUEUED));
+            if (!followUp) {
+                flightKeys.add(ParseJob.flightKey(sourceKey, ParseStatus.RUNNING));
+            }
+        }
+        Map<String, UUID> active = new HashMap<>();
+        for (ParseJob job : parseJobRepository.findByFlightKeyIn(flightKeys)) {
+            // задача в очереди важнее выполняющейся
+            if (job.getStatus() == ParseStatus.QUEUED || !active.containsKey(job.getSourceKey())) {
+                active.put(job.getSourceKey(), job.getId());
+            }
+        }
+        return active;
+    }
+
+    private UUID findActiveJob(String sourceKey) {
+        var queued = parseJobRepository.findByFlightKey(ParseJob.flightKey(sourceKey, ParseStatus.QUEUED));
+        if (queued.isPresent()) {
+            asyncEventLogger.logEvent(EventType.JOB_COALESCED, queued.get().getId(), sourceKey);
+            return queued.get().getId();
+        }
+        if (followUp) {
+            // выполняющаяся задача могла не увидеть свежих данных - ставим одну повторную
+            return null;
+        }
+        var running = parseJobRepository.findByFlightKey(ParseJob.flightKey(sourceKey, ParseStatus.RUNNING));
+        if (running.isPresent()) {
+            asyncEventLogger.logEvent(EventType.JOB_COALESCED, running.get().getId(), sourceKey);
+            return running.get().getId();
+        }
+        return null;
+    }
+
     @Transactional(readOnly = true)
     public Page<Review> getReviews(Pageable pageable) {
         return reviewRepository.findAll(pageable);
     }
 
+    /**
+     * Страница отзывов после курсора (keyset-пагинация). Если курсор передан, сортировка берётся из него.
+     *
+     * @param withTotal посчитать общее число отзывов - это отдельный COUNT(*) по всей таблице
+     * @throws IllegalArgumentException неизвестная сортировка или повреждённый курсор
+     */
+    @Transactional(readOnly = true)
+    public ReviewSlice getReviewsAfter(String sort, String direction, String cursor, int size, boolean withTotal) {
+        ReviewCursor after = cursor == null || cursor.isBlank() ? null : ReviewCursor.decode(cursor);
+        ReviewCursor.SortKey key = after != null ? after.sort() : ReviewCursor.SortKey.of(sort);
+        boolean descending = after != null ? after.descending() : !"asc".equalsIgnoreCase(direction);
+        int limit = Math.clamp(size, 1, MAX_SLICE_SIZE);
+
+        // на один больше: так видно, есть ли следующая страница, без COUNT
+        List<Review> found = reviewRepository.findPage(key, descending, after, limit + 1);
+        boolean hasNext = found.size() > limit;
+        List<Review> reviews = hasNext ? found.subList(0, limit) : found;
+
+        String next = hasNext ? ReviewCursor.after(key, descending, reviews.getLast()).encode() : null;
+        Long total = withTotal ? reviewRepository.count() : null;
+        return new ReviewSlice(reviews, next, total);
+    }
+
+    /**
+     * @param nextCursor курсор следующей страницы, null - страница последняя
+     * @param total      общее число отзывов, если его запрашивали
+     */
+    public record ReviewSlice(List<Review> reviews, String nextCursor, Long total) {}
+
+    /**
+     * Поиск по тексту отзывов: id находит ReviewSearchIndex, сами отзывы дочитываются из БД по первичному ключу.
+     *
+     * @param order relevance - по BM25, recency - сначала недавно сохранённые
+     * @throws IllegalArgumentException пустой запрос, неизвестный порядок или рейтинг вне 1..5
+     * @throws IllegalStateException    поисковый индекс выключен или ещё строится
+     */
+    @Transactional(readOnly = true)
+    public ReviewSearchResult searchReviews(String query, String source, int minRating, int maxRating,
+                                            String order, int size) {
+        if (minRating < 1 || maxRating > 5 || minRating > maxRating) {
+            throw new IllegalArgumentException("Рейтинг должен быть в пределах 1..5, minRating <= maxRating");
+        }
+        var result = reviewSearchIndex.search(query, source, minRating, maxRating,
+                ReviewSearchIndex.Order.of(order), Math.clamp(size, 1, MAX_SEARCH_SIZE));
+
+        List<Long> ids = result.hits().stream().map(ReviewSearchIndex.Hit::id).toList();
+        Map<Long, Review> byId = new HashMap<>();
+        for (Review r : reviewRepository.findAllById(ids)) {
+            byId.put(r.getId(), r);
+        }
+        // порядок индекса; отзывы, удалённые из БД в обход индекса, пропускаются
+        List<Review> reviews = ids.stream().map(byId::get).filter(Objects::nonNull).toList();
+        return new ReviewSearchResult(reviews, result.totalHits());
+    }
+
+    /**
+     * @param totalHits всего отзывов под запрос и фильтры
+     */
+    public record ReviewSearchResult(List<Review> reviews, long totalHits) {}
+
+    /**
+     * Сводка по задачам пакета: сколько в каждом статусе и сколько новых отзывов они сохранили.
+     *
+     * @param withJobs добавить сами задачи
+     * @throws NoSuchElementException пакета нет
+     */
+    @Transactional(readOnly = true)
+    public ParseBatchStatus getBatch(UUID batchId, boolean withJobs) {
+        Map<ParseStatus, Long> counts = new EnumMap<>(ParseStatus.class);
+        for (ParseStatus s : ParseStatus.values()) {
+            counts.put(s, 0L);
+        }
+        long total = 0;
+        long createdReviews = 0;
+        for (Object[] row : parseJobRepository.summarizeBatch(batchId)) {
+            long n = ((Number) row[1]).longValue();
+            counts.put((ParseStatus) row[0], n);
+            total += n;
+            createdReviews += ((Number) row[2]).longValue();
+        }
+        if (total == 0) {
+            throw new NoSuchElementException("Пакет не найден: " + batchId);
+        }
+        List<ParseJob> jobs = withJobs ? parseJobRepository.findByBatchId(batchId) : null;
+        return new ParseBatchStatus(batchId, total, counts, createdReviews, jobs);
+    }
+
+    /**
+     * @param jobIds id задачи для каждого url запроса, в его порядке; повторы источника дают один id
+     */
+    public record ParseBatch(UUID batchId, List<UUID> jobIds) {}
+
+    /**
+     * @param jobs задачи пакета, если их запрашивали
+     */
+    public record ParseBatchStatus(UUID batchId, long total, Map<ParseStatus, Long> counts, long createdReviews,
+                                   List<ParseJob> jobs) {
+
+        public boolean finished() {
+            return counts.get(ParseStatus.QUEUED) == 0 && counts.get(ParseStatus.RUNNING) == 0;
+        }
+    }
+
     @Transactional(readOnly = true)
     public ParseJob getJob(UUID id) {
         return parseJobRepository.findById(id).orElseThrow();
@@ -1,31 +1,178 @@
 package ru.kopylov.multithreads.service;
 
-import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import ru.kopylov.multithreads.model.ParseJob;
+import ru.kopylov.multithreads.model.ParseStatus;
+import ru.kopylov.multithreads.model.SourceUrl;
+import ru.kopylov.multithreads.repository.ParseJobRepository;
 import ru.kopylov.multithreads.repository.SourceUrlRepository;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 
+/**
+ * Планировщик обхода источников.
+ * <p>
+ * У каждого источника свой срок следующего обхода и свой интервал. Перед очередным запуском интервал
+ * подстраивается по результату прошлой задачи: нашлись новые отзывы - интервал сокращается вдвое,
+ * не нашлись - удваивается, задача упала - растёт экспоненциально по числу ошибок подряд.
+ * Срок размывается случайным джиттером, чтобы источники не запускались пачкой, а число активных задач
+ * в кластере (QUEUED + RUNNING) ограничено сверху.
+ */
 @Component
-@RequiredArgsConstructor
 public class ScheduledParser {
 
+    private static final EnumSet<ParseStatus> ACTIVE = EnumSet.of(ParseStatus.QUEUED, ParseStatus.RUNNING);
+
     private final SourceUrlRepository sourceUrlRepository;
+    private final ParseJobRepository parseJobRepository;
     private final ReviewService reviewService;
     private final AsyncEventLogger asyncEventLogger;
+    private final SteamReviewsClient steamReviewsClient;
+    private final ParserMetrics parserMetrics;
+
+    private final int baseInterval;
+    private final int minInterval;
+    private final int maxInterval;
+    private final double jitter;
+    private final int maxInFlight;
+
+    public ScheduledParser(SourceUrlRepository sourceUrlRepository,
+                           ParseJobRepository parseJobRepository,
+                           ReviewService reviewService,
+                           AsyncEventLogger asyncEventLogger,
+                           SteamReviewsClient steamReviewsClient,
+                           ParserMetrics parserMetrics,
+                           @Value("${scheduler.base-interval-seconds:30}") int baseInterval,
+                           @Value("${scheduler.min-interval-seconds:15}") int minInterval,
+                           @Value("${scheduler.max-interval-seconds:3600}") int maxInterval,
+                           @Value("${scheduler.jitter:0.2}") double jitter,
+                           @Value("${scheduler.max-in-flight:16}") int maxInFlight) {
+        this.sourceUrlRepository = sourceUrlRepository;
+        this.parseJobRepository = parseJobRepository;
+        this.reviewService = reviewService;
+        this.asyncEventLogger = asyncEventLogger;
+        this.steamReviewsClient = steamReviewsClient;
+        this.parserMetrics = parserMetrics;
+        this.minInterval = Math.max(minInterval, 1);
+        this.maxInterval = Math.max(maxInterval, this.minInterval);
+        this.baseInterval = Math.clamp(baseInterval, this.minInterval, this.maxInterval);
+        this.jitter = Math.clamp(jitter, 0.0, 1.0);
+        this.maxInFlight = Math.max(maxInFlight, 1);
+    }
 
-    @Scheduled(fixedRate = 30_000)
+    @Scheduled(fixedDelayString = "${scheduler.tick-ms:5000}")
     public void runScheduled() {
-        var sources = sourceUrlRepository.findAllByEnabledTrue();
-        asyncEventLogger.logEvent("Планировщик: запуск цикла, активных источников=" + sources.size());
+        long active = parseJobRepository.countByStatusIn(ACTIVE);
+        int free = (int) Math.max(maxInFlight - active, 0);
+        if (free == 0) {
+            return;
+        }
+
+        Instant now = Instant.now();
+        var due = sourceUrlRepository.findDue(now, PageRequest.of(0, free));
+        if (due.isEmpty()) {
+            return;
+        }
+        asyncEventLogger.logEvent(EventType.SCHEDULER_CYCLE, null, due.size(), active);
+
+        // прошлые задачи всех источников одним запросом
+        var lastIds = due.stream().map(SourceUrl::getLastJobId).filter(Objects::nonNull).toList();
+        Map<UUID, ParseJob> lastJobs = new HashMap<>();
+        for (ParseJob j : parseJobRepository.findAllById(lastIds)) {
+            lastJobs.put(j.getId(), j);
+        }
+
+        List<SourceUrl> toStart = new ArrayList<>();
+        List<ParseJob> lasts = new ArrayList<>();
+        for (var s : due) {
+            ParseJob last = s.getLastJobId() == null ? null : lastJobs.get(s.getLastJobId());
+
+            if (last != null && ACTIVE.contains(last.getStatus())) {
+                // прошлый обход ещё идёт - проверим позже, не дожидаясь полного интервала
+                s.setNextDueAt(now.plusSeconds(minInterval));
+                continue;
+            }
+            toStart.add(s);
+            lasts.add(last);
+        }
+
+        // задачи ставятся пакетом: одна вставка и одна побудка очереди на цикл
+        List<UUID> jobIds = reviewService.startParseAll(toStart.stream().map(SourceUrl::getUrl).toList());
+
+        for (int i = 0; i < toStart.size(); i++) {
+            SourceUrl s = toStart.get(i);
+            ParseJob last = lasts.get(i);
+            UUID jobId = jobIds.get(i);
 
-        for (var s : sources) {
-            var jobId = reviewService.startParseAsync(s.getUrl());
-            asyncEventLogger.logEvent("Планировщик: запущена задача парсинга: id=" + jobId + " url=" + s.getUrl());
+            int failures = nextFailures(s.getConsecutiveFailures(), last);
+            int interval = nextInterval(currentInterval(s), failures, last);
+            asyncEventLogger.logEvent(EventType.SCHEDULER_JOB_STARTED, jobId, interval, s.getUrl());
+
+            s.setLastJobId(jobId);
+            s.setConsecutiveFailures(failures);
+            s.setIntervalSeconds(interval);
+            s.setLastTriggeredAt(now);
+            s.setNextDueAt(now.plusMillis(withJitter(interval * 1000L)));
+        }
+        sourceUrlRepository.saveAll(due);
+    }
+
+    /**
+     * Передаёт в метрики ключи зарегистрированных источников: только они получают свой тег source.
+     */
+    @Scheduled(fixedDelayString = "${scheduler.metrics-sources-refresh-ms:60000}")
+    public void refreshMetricSources() {
+        parserMetrics.knownSources(sourceUrlRepository.findAll().stream()
+                .map(s -> steamReviewsClient.sourceKey(s.getUrl()))
+                .filter(Objects::nonNull)
+                .toList());
+    }
+
+    private int currentInterval(SourceUrl s) {
+        return s.getIntervalSeconds() == null ? baseInterval : s.getIntervalSeconds();
+    }
+
+    static int nextFailures(Integer failures, ParseJob last) {
+        if (last == null) {
+            return failures == null ? 0 : failures;
+        }
+        return last.getStatus() == ParseStatus.FAILED ? (failures == null ? 0 : failures) + 1 : 0;
+    }
+
+    /**
+     * Интервал до следующего обхода по результату прошлой задачи.
+     */
+    int nextInterval(int current, int failures, ParseJob last) {
+        if (last == null) {
+            return current;
+        }
+        long next;
+        if (failures > 0) {
+            next = (long) baseInterval << Math.min(failures, 20);
+        } else if (last.getCreatedReviews() != null && last.getCreatedReviews() > 0) {
+            next = current / 2;
+        } else {
+            next = current * 2L;
+        }
+        return Math.clamp(next, minInterval, maxInterval);
+    }
 
-            s.setLastTriggeredAt(Instant.now());
+    private long withJitter(long millis) {
+        if (jitter == 0) {
+            return millis;
         }
-        sourceUrlRepository.saveAll(sources);
+        double factor = 1 + ThreadLocalRandom.current().nextDouble(-jitter, jitter);
+        return (long) (millis * factor);
     }
-}
\ No newline at end of file
+}
@@ -15,12 +15,22 @@ import java.util.List;
 public class SourceClient {
 
     private final RestTemplate restTemplate;
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final ParserMetrics parserMetrics;
+    private final HostThrottle hostThrottle;
 
     @Value("${server.port:8080}")
     private int port;
 
     public List<RawReviewDto> fetchRawReviews(String url, int count, int page) {
-        String endpoint = UriComponentsBuilder.newInstance()
+        return fetchRawReviews(url, count, page, () -> { });
+    }
+
+    /**
+     * @param beforeRequest вызывается, когда пройдены лимит хоста и семафор источника, прямо перед запросом
+     */
+    public List<RawReviewDto> fetchRawReviews(String url, int count, int page, Runnable beforeRequest) {
+        var endpoint = UriComponentsBuilder.newInstance()
                 .scheme("http")
                 .host("localhost")
                 .port(port)
@@ -28,9 +38,14 @@ public class SourceClient {
                 .queryParam("url", url)
                 .queryParam("count", count)
                 .queryParam("page", page)
-                .toUriString();
+                .build()
+                .encode();
 
-        RawReviewDto[] arr = restTemplate.getForObject(endpoint, RawReviewDto[].class);
+        RawReviewDto[] arr = hostThrottle.call(endpoint.getHost(), () -> parserMetrics.timePageFetch("stub",
+                () -> concurrencyLimiter.withSourcePermit(url, () -> {
+                    beforeRequest.run();
+                    return restTemplate.getForObject(endpoint.toUriString(), RawReviewDto[].class);
+                })));
         return arr == null ? List.of() : Arrays.asList(arr);
     }
 }
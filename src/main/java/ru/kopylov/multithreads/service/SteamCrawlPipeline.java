@@ -0,0 +1,138 @@
+package ru.kopylov.multithreads.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import ru.kopylov.multithreads.service.ReviewIngestor.IngestResult;
+import ru.kopylov.multithreads.service.ReviewIngestor.PreparedBatch;
+import ru.kopylov.multithreads.util.DedupKey;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+/**
+ * Конвейерный обход Steam по курсору.
+ * <p>
+ * Загрузка страниц идёт строго последовательно (курсор следующей страницы есть только в ответе текущей),
+ * JSON разбирается потоково прямо во время чтения ответа, а нормализация/хеширование (prepare) и запись
+ * в БД (persist) страницы N выполняются в pageExecutor, пока поток задачи уже ждёт ответ по странице N+1. Persist-стадии выстроены в цепочку, поэтому
+ * страницы пишутся в БД по порядку. Число загруженных, но ещё не сохранённых страниц ограничено окном.
+ * <p>
+ * Если загрузка страницы упала или не дождались окна/записи, ещё не начатые стадии prepare/persist отменяются:
+ * сохранёнными остаются только страницы, записанные до ошибки.
+ */
+@Component
+@RequiredArgsConstructor
+public class SteamCrawlPipeline {
+    private final SteamReviewsClient steamReviewsClient;
+    private final ReviewIngestor reviewIngestor;
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final ExecutorService pageExecutor;
+    private final AsyncEventLogger asyncEventLogger;
+    private final JobProgress jobProgress;
+
+    /**
+     * @param watermark граница уже собранных отзывов: известные отзывы отбрасываются, а страница,
+     *                  на которой они встретились, становится последней
+     * @param timeoutSeconds сколько ждать освобождения окна и записи оставшихся страниц (parser.job-timeout-seconds)
+     */
+    public IngestResult crawl(UUID jobId,
+                              String url,
+                              int pages,
+                              int perPage,
+                              int window,
+                              SteamWatermarks.Tracker watermark,
+                              int timeoutSeconds) throws Exception {
+        Semaphore inFlight = new Semaphore(Math.max(window, 1));
+        Set<DedupKey> claimed = ConcurrentHashMap.newKeySet();
+
+        CompletableFuture<IngestResult> persisted = CompletableFuture.completedFuture(IngestResult.EMPTY);
+        String cursor = watermark.startCursor();
+        List<CompletableFuture<?>> stages = new ArrayList<>();
+        boolean done = false;
+        try {
+            for (int p = 0; p < pages; p++) {
+                final int page = p;
+
+                if (persisted.isCompletedExceptionally()) {
+                    break;
+                }
+                if (!inFlight.tryAcquire(timeoutSeconds, TimeUnit.SECONDS)) {
+                    throw new TimeoutException("Окно конвейера Steam не освободилось за " +
+                            timeoutSeconds + " сек (id=" + jobId + ")");
+                }
+
+                SteamReviewsClient.SteamPage resp;
+                try {
+                    asyncEventLogger.logEvent(EventType.STEAM_PAGE_REQUEST, jobId, page);
+                    resp = steamReviewsClient.fetchPage(url, cursor, perPage, watermark);
+                } catch (RuntimeException e) {
+                    inFlight.release();
+                    throw e;
+                }
+                watermark.pageLoaded(resp);
+                cursor = resp.nextCursor();
+
+                if (resp.total() == 0) {
+                    inFlight.release();
+                    asyncEventLogger.logEvent(EventType.STEAM_PAGE_EMPTY, jobId, page);
+                    break;
+                }
+
+                var fresh = resp.reviews();
+                jobProgress.pageFetched(jobId, fresh.size());
+                boolean last = watermark.reachedMark();
+                if (last) {
+                    asyncEventLogger.logEvent(EventType.STEAM_MARK_REACHED, jobId, page, fresh.size());
+                }
+                if (fresh.isEmpty()) {
+                    inFlight.release();
+                    break;
+                }
+
+                CompletableFuture<PreparedBatch> prepared = CompletableFuture.supplyAsync(
+                        () -> reviewIngestor.prepare(url, fresh),
+                        pageExecutor);
+
+                CompletableFuture<IngestResult> stored = persisted
+                        .thenCombineAsync(prepared, (acc, batch) -> {
+                            IngestResult res = concurrencyLimiter.withDbPermit(
+                                    () -> reviewIngestor.persist(url, batch, claimed));
+                            asyncEventLogger.logEvent(EventType.STEAM_PAGE_SAVED, jobId, page, res.raw(), res.saved());
+                            jobProgress.saved(jobId, res.saved(), res.skipped());
+                            return acc.plus(res);
+                        }, pageExecutor);
+                stages.add(prepared);
+                stages.add(stored);
+                persisted = stored.whenComplete((r, e) -> inFlight.release());
+
+                if (last) {
+                    break;
+                }
+            }
+
+            IngestResult result;
+            try {
+                result = persisted.get(timeoutSeconds, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() instanceof CompletionException ce && ce.getCause() != null
+                        ? ce.getCause()
+                        : e.getCause();
+                if (cause instanceof Exception ex) {
+                    throw ex;
+                }
+                throw e;
+            }
+            done = true;
+            return result;
+        } finally {
+            if (!done) {
+                // отменённая стадия уже не запустится, а зависящие от неё persist завершатся с отменой
+                stages.forEach(stage -> stage.cancel(true));
+                persisted.cancel(true);
+            }
+        }
+    }
+}
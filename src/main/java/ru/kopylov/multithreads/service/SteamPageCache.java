@@ -0,0 +1,205 @@
+package ru.kopylov.multithreads.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Кэш ответов appreviews: ключ - appid + курсор + num_per_page, значение - тело ответа как есть.
+ * <p>
+ * Хранится тело, а не разобранная страница: фильтр инкрементального обхода у каждой задачи свой,
+ * поэтому при попадании ответ заново разбирается SteamReviewsDecoder (это дешевле запроса к Steam,
+ * который ещё и расходует лимит хоста). Записи живут ttl-seconds; сверх max-bytes вытесняются
+ * давно не читанные (LRU). В кэш попадают только ответы, которые разобрались без ошибки.
+ */
+@Component
+public class SteamPageCache implements MeterBinder {
+
+    // грубая оценка накладных расходов записи: узел LinkedHashMap, Entry, заголовки массивов и строки
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final boolean enabled;
+    private final long ttlNanos;
+    private final long maxBytes;
+    private final LongSupplier clock;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @Autowired
+    public SteamPageCache(@Value("${parser.steam.cache.enabled:true}") boolean enabled,
+                          @Value("${parser.steam.cache.ttl-seconds:60}") int ttlSeconds,
+                          @Value("${parser.steam.cache.max-bytes:33554432}") long maxBytes) {
+        this(enabled, ttlSeconds, maxBytes, System::nanoTime);
+    }
+
+    SteamPageCache(boolean enabled, int ttlSeconds, long maxBytes, LongSupplier clock) {
+        this.enabled = enabled && ttlSeconds > 0 && maxBytes > 0;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(Math.max(ttlSeconds, 0));
+        this.maxBytes = Math.max(maxBytes, 0);
+        this.clock = clock;
+    }
+
+    public static String key(String appId, String cursor, int numPerPage) {
+        return appId + '|' + numPerPage + '|' + cursor;
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * @return тело ответа или null, если записи нет или она устарела
+     */
+    public byte[] get(String key) {
+        if (!enabled) {
+            return null;
+        }
+        long now = clock.getAsLong();
+        lock.lock();
+        try {
+            Entry e = entries.get(key);
+            if (e != null && now - e.storedAt() < ttlNanos) {
+                hits.increment();
+                return e.body();
+            }
+            if (e != null) {
+                remove(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+        misses.increment();
+        return null;
+    }
+
+    public void put(String key, byte[] body) {
+        if (!enabled) {
+            return;
+        }
+        long size = weight(key, body);
+        if (size > maxBytes) {
+            return;
+        }
+        long now = clock.getAsLong();
+        lock.lock();
+        try {
+            remove(key);
+            entries.put(key, new Entry(body, now));
+            bytes += size;
+            evict(now);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public double hitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Оценка занятой памяти: тела ответов, ключи и накладные расходы записей.
+     */
+    public long sizeBytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // под lock: сначала устаревшие, потом самые давно читанные, пока не влезем в maxBytes
+    private void evict(long now) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            var e = it.next();
+            boolean expired = now - e.getValue().storedAt() >= ttlNanos;
+            if (!expired && bytes <= maxBytes) {
+                // порядок доступа, а не записи: дальше могут быть устаревшие, но их уберёт get
+                return;
+            }
+            it.remove();
+            bytes -= weight(e.getKey(), e.getValue().body());
+            evictions.increment();
+        }
+    }
+
+    private void remove(String key) {
+        Entry old = entries.remove(key);
+        if (old != null) {
+            bytes -= weight(key, old.body());
+        }
+    }
+
+    private static long weight(String key, byte[] body) {
+        return body.length + 2L * key.length() + ENTRY_OVERHEAD;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("parser.steam.cache.requests", this, SteamPageCache::hits)
+                .description("Обращения к кэшу страниц Steam")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("parser.steam.cache.requests", this, SteamPageCache::misses)
+                .description("Обращения к кэшу страниц Steam")
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("parser.steam.cache.evictions", this, SteamPageCache::evictions)
+                .description("Записи, вытесненные из кэша страниц Steam по TTL или размеру")
+                .register(registry);
+        Gauge.builder("parser.steam.cache.hit-ratio", this, SteamPageCache::hitRatio)
+                .description("Доля запросов страниц Steam, отданных из кэша")
+                .register(registry);
+        Gauge.builder("parser.steam.cache.size", this, SteamPageCache::size)
+                .description("Страниц Steam в кэше")
+                .register(registry);
+        Gauge.builder("parser.steam.cache.bytes", this, SteamPageCache::sizeBytes)
+                .description("Оценка памяти, занятой кэшем страниц Steam")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    private record Entry(byte[] body, long storedAt) {}
+}
@@ -1,18 +1,20 @@
 package ru.kopylov.multithreads.service;
 
-import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
-import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriUtils;
 import ru.kopylov.multithreads.controller.SourceStubController;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.time.Instant;
-import java.time.LocalDate;
-import java.time.ZoneOffset;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -22,7 +24,12 @@ import java.util.regex.Pattern;
 public class SteamReviewsClient {
 
     private static final Pattern APPID_IN_URL = Pattern.compile("/app/(\\d+)");
+    private static final String HOST = "store.steampowered.com";
     private final RestTemplate restTemplate;
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final ParserMetrics parserMetrics;
+    private final HostThrottle hostThrottle;
+    private final SteamPageCache steamPageCache;
 
     public boolean supports(String input) {
         if (input == null) return false;
@@ -47,8 +54,21 @@ public class SteamReviewsClient {
         throw new IllegalArgumentException("Не Steam URL и не steam:<appid>: " + input);
     }
 
+    /**
+     * Ключ источника: steam:&lt;appid&gt; для Steam (разные URL одной игры дают один ключ), иначе сам URL.
+     */
+    public String sourceKey(String url) {
+        String s = url == null ? "" : url.trim();
+        return supports(s) ? "steam:" + extractAppId(s) : s;
+    }
 
-    public SteamPage fetchPage(String urlOrAppId, String cursor, int numPerPage) {
+    /**
+     * Загружает страницу и сразу, по мере чтения ответа, разбирает её в RawReviewDto.
+     * Повторный запрос той же страницы в пределах TTL отдаётся из SteamPageCache без обращения к Steam.
+     *
+     * @param filter вызывается для каждого отзыва страницы; отзывы, которые он отклонил, в результат не попадают
+     */
+    public SteamPage fetchPage(String urlOrAppId, String cursor, int numPerPage, ReviewFilter filter) {
         String appId = extractAppId(urlOrAppId);
 
         String rawCursor = (cursor == null || cursor.isBlank()) ? "*" : cursor;
@@ -62,79 +82,124 @@ public class SteamReviewsClient {
                 : URLEncoder.encode(normalizedCursor, StandardCharsets.UTF_8);
 
 
-        String uri = "https://store.steampowered.com/appreviews/" + appId
+        int perPage = Math.min(Math.max(numPerPage, 1), 100);
+        String cacheKey = SteamPageCache.key(appId, normalizedCursor, perPage);
+        byte[] cached = steamPageCache.get(cacheKey);
+        if (cached != null) {
+            return SteamReviewsDecoder.decode(new ByteArrayInputStream(cached), filter);
+        }
+
+        String uri = "https://" + HOST + "/appreviews/" + appId
                 + "?json=1"
-                + "&filter=funny"
+                // от новых к старым: на этом держится инкрементальный обход (SteamWatermarks)
+                + "&filter=recent"
                 + "&language=russian"
                 + "&review_type=all"
                 + "&purchase_type=all"
-                + "&num_per_page=" + Math.min(Math.max(numPerPage, 1), 100)
+                + "&num_per_page=" + perPage
                 + "&cursor=" + encodedCursor;
 
 
-        SteamReviewsResponse resp = restTemplate.getForObject(uri, SteamReviewsResponse.class);
-        if (resp == null) {
+        String sourceKey = "steam:" + appId;
+        // лимит хоста общий для всех игр: ждём очередь до замера, чтобы в латентность попадал только сам запрос
+        SteamPage page = hostThrottle.call(HOST, () -> parserMetrics.timePageFetch("steam",
+                () -> concurrencyLimiter.withSourcePermit(sourceKey,
+                        () -> restTemplate.execute(uri, HttpMethod.GET,
+                                req -> req.getHeaders().setAccept(List.of(MediaType.APPLICATION_JSON)),
+                                res -> decode(res.getBody(), filter, cacheKey)))));
+        if (page == null) {
             throw new IllegalStateException("Стим вернул пустой ответ (null)");
         }
-        if (resp.success != 1) {
-            throw new IllegalStateException("Стим вернул некорректный ответ (success=" + resp.success + ")");
-        }
-
-        List<SourceStubController.RawReviewDto> mapped =
-                (resp.reviews == null ? List.<SteamReview>of() : resp.reviews)
-                        .stream()
-                        .map(r -> {
-                            int rating = Boolean.TRUE.equals(r.votedUp) ? 5 : 1;
+        return page;
+    }
 
-                            LocalDate createdAt = Instant.ofEpochSecond(r.timestampCreated)
-                                    .atZone(ZoneOffset.UTC)
-                                    .toLocalDate();
+    private SteamPage decode(InputStream body, ReviewFilter filter, String cacheKey) throws IOException {
+        if (!steamPageCache.enabled()) {
+            return SteamReviewsDecoder.decode(body, filter);
+        }
+        // разбор идёт по мере чтения ответа, а копия тела для кэша набирается попутно
+        CachingBody tee = new CachingBody(body);
+        SteamPage page;
+        try {
+            page = SteamReviewsDecoder.decode(tee, filter);
+        } finally {
+            tee.close();
+        }
+        steamPageCache.put(cacheKey, tee.bytes());
+        return page;
+    }
 
-                            String author = (r.author != null && r.author.steamId != null)
-                                    ? r.author.steamId
-                                    : "unknown";
+    /**
+     * Копирует всё, что прочитал декодер, в буфер для кэша. Хвост, который декодер не дочитал
+     * (пробелы после корневого объекта), дочитывается при закрытии, чтобы в кэш попало тело целиком.
+     */
+    static final class CachingBody extends FilterInputStream {
+        private final ByteArrayOutputStream copy = new ByteArrayOutputStream(16 * 1024);
+        private boolean closed;
 
-                            String text = r.reviewText != null ? r.reviewText : "";
+        CachingBody(InputStream in) {
+            super(in);
+        }
 
-                            return new SourceStubController.RawReviewDto(author, rating, text, createdAt);
-                        })
-                        .toList();
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                copy.write(b);
+            }
+            return b;
+        }
 
-        return new SteamPage(resp.cursor, mapped);
-    }
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                copy.write(b, off, n);
+            }
+            return n;
+        }
 
-    public record SteamPage(String nextCursor, List<SourceStubController.RawReviewDto> reviews) {}
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0) {
+                return 0;
+            }
+            int read = read(new byte[(int) Math.min(n, 8192)]);
+            return Math.max(read, 0);
+        }
 
-    @JsonIgnoreProperties(ignoreUnknown = true)
-    public static class SteamReviewsResponse {
-        @JsonProperty("success")
-        public int success;
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
 
-        @JsonProperty("cursor")
-        public String cursor;
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                in.transferTo(copy);
+            } finally {
+                in.close();
+            }
+        }
 
-        @JsonProperty("reviews")
-        public List<SteamReview> reviews;
+        byte[] bytes() {
+            return copy.toByteArray();
+        }
     }
 
-    @JsonIgnoreProperties(ignoreUnknown = true)
-    public static class SteamReview {
-        @JsonProperty("review")
-        public String reviewText;
+    /**
+     * @param total сколько отзывов было в ответе, включая отклонённые фильтром; 0 - отзывы кончились
+     */
+    public record SteamPage(String nextCursor, List<SourceStubController.RawReviewDto> reviews, int total) {}
 
-        @JsonProperty("timestamp_created")
-        public long timestampCreated;
-
-        @JsonProperty("voted_up")
-        public Boolean votedUp;
-
-        @JsonProperty("author")
-        public SteamAuthor author;
-    }
+    @FunctionalInterface
+    public interface ReviewFilter {
+        ReviewFilter ALL = (recommendationId, timestampCreated) -> true;
 
-    @JsonIgnoreProperties(ignoreUnknown = true)
-    public static class SteamAuthor {
-        @JsonProperty("steamid")
-        public String steamId;
+        boolean accept(String recommendationId, long timestampCreated);
     }
-}
\ No newline at end of file
+}
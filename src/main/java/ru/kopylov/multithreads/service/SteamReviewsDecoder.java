@@ -0,0 +1,126 @@
+package ru.kopylov.multithreads.service;
+
+import ru.kopylov.multithreads.controller.SourceStubController.RawReviewDto;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+import tools.jackson.core.ObjectReadContext;
+import tools.jackson.core.json.JsonFactory;
+
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Потоковый разбор ответа appreviews за один проход по токенам.
+ * <p>
+ * Отзыв сразу превращается в RawReviewDto, без промежуточных объектов ответа. Поля, которые не нужны
+ * (query_summary, author.*, кроме steamid, счётчики, вложенные объекты), пропускаются без материализации.
+ * LocalDate создаётся один раз на день, а не на каждый отзыв: отзывы страницы обычно лежат в нескольких днях.
+ */
+final class SteamReviewsDecoder {
+
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final int SECONDS_PER_DAY = 86_400;
+
+    private SteamReviewsDecoder() {
+    }
+
+    static SteamReviewsClient.SteamPage decode(InputStream in, SteamReviewsClient.ReviewFilter filter) {
+        int success = 0;
+        String cursor = null;
+        int total = 0;
+        List<RawReviewDto> reviews = List.of();
+
+        try (JsonParser p = JSON.createParser(ObjectReadContext.empty(), in)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new HostThrottle.UpstreamThrottledException("Стим вернул не JSON-объект");
+            }
+            while (p.nextToken() == JsonToken.PROPERTY_NAME) {
+                String name = p.currentName();
+                JsonToken value = p.nextToken();
+                switch (name) {
+                    case "success" -> success = p.getValueAsInt();
+                    case "cursor" -> cursor = p.getValueAsString();
+                    case "reviews" -> {
+                        if (value == JsonToken.START_ARRAY) {
+                            reviews = new ArrayList<>();
+                            total = readReviews(p, filter, reviews);
+                        } else {
+                            p.skipChildren();
+                        }
+                    }
+                    default -> p.skipChildren();
+                }
+            }
+        }
+
+        if (success != 1) {
+            // так Steam отвечает и на слишком частые запросы: HostThrottle снизит лимит хоста
+            throw new HostThrottle.UpstreamThrottledException("Стим вернул некорректный ответ (success=" + success + ")");
+        }
+        return new SteamReviewsClient.SteamPage(cursor, reviews, total);
+    }
+
+    private static int readReviews(JsonParser p, SteamReviewsClient.ReviewFilter filter, List<RawReviewDto> out) {
+        int total = 0;
+        long cachedDay = Long.MIN_VALUE;
+        LocalDate cachedDate = null;
+
+        while (p.nextToken() == JsonToken.START_OBJECT) {
+            String recommendationId = null;
+            String author = null;
+            String text = null;
+            long createdAt = 0;
+            boolean votedUp = false;
+
+            while (p.nextToken() == JsonToken.PROPERTY_NAME) {
+                String name = p.currentName();
+                p.nextToken();
+                switch (name) {
+                    case "recommendationid" -> recommendationId = p.getValueAsString();
+                    case "review" -> text = p.getValueAsString();
+                    case "timestamp_created" -> createdAt = p.getValueAsLong();
+                    case "voted_up" -> votedUp = p.getValueAsBoolean();
+                    case "author" -> author = readSteamId(p);
+                    default -> p.skipChildren();
+                }
+            }
+            total++;
+
+            if (!filter.accept(recommendationId, createdAt)) {
+                continue;
+            }
+
+            long day = Math.floorDiv(createdAt, SECONDS_PER_DAY);
+            if (day != cachedDay) {
+                cachedDay = day;
+                cachedDate = LocalDate.ofEpochDay(day);
+            }
+            out.add(new RawReviewDto(
+                    author != null ? author : "unknown",
+                    votedUp ? 5 : 1,
+                    text != null ? text : "",
+                    cachedDate));
+        }
+        return total;
+    }
+
+    private static String readSteamId(JsonParser p) {
+        if (p.currentToken() != JsonToken.START_OBJECT) {
+            p.skipChildren();
+            return null;
+        }
+        String steamId = null;
+        while (p.nextToken() == JsonToken.PROPERTY_NAME) {
+            String name = p.currentName();
+            p.nextToken();
+            if (name.equals("steamid")) {
+                steamId = p.getValueAsString();
+            } else {
+                p.skipChildren();
+            }
+        }
+        return steamId;
+    }
+}
@@ -0,0 +1,209 @@
+package ru.kopylov.multithreads.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.kopylov.multithreads.model.SteamWatermark;
+import ru.kopylov.multithreads.repository.SteamWatermarkRepository;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Инкрементальный обход Steam.
+ * <p>
+ * Steam отдаёт отзывы от новых к старым (filter=recent), поэтому достаточно помнить самый свежий
+ * уже собранный отзыв: всё, что не новее его, уже в БД. Страница, на которой встретился известный отзыв,
+ * становится последней - дальше идут только более старые. В установившемся режиме повторный обход
+ * стоит одного запроса.
+ * <p>
+ * Если новых отзывов больше, чем помещается в parser.pages страниц, обход останавливается раньше границы,
+ * и между собранными и старыми отзывами остаётся разрыв. Тогда граница не сдвигается, а сохраняется курсор
+ * продолжения: следующий обход начинается с него, а не с первой страницы, и сдвигает границу,
+ * только когда дойдёт до старой.
+ */
+@Component
+@RequiredArgsConstructor
+public class SteamWatermarks {
+
+    private static final int MAX_BOUNDARY_IDS = 100;
+
+    private final SteamWatermarkRepository steamWatermarkRepository;
+
+    @Value("${parser.steam.incremental:true}")
+    private boolean enabled;
+
+    public Tracker start(String sourceKey) {
+        if (!enabled) {
+            return new Tracker(sourceKey, Long.MIN_VALUE, Set.of(), false, null);
+        }
+        return steamWatermarkRepository.findById(sourceKey)
+                .map(w -> {
+                    var tracker = new Tracker(sourceKey, w.getNewestCreatedAt(), parseIds(w.getBoundaryIds()), true,
+                            w.getResumeCursor());
+                    if (w.getResumeCursor() != null && w.getResumeNewestCreatedAt() != null) {
+                        tracker.observeAll(w.getResumeNewestCreatedAt(), parseIds(w.getResumeBoundaryIds()));
+                    }
+                    return tracker;
+                })
+                .orElseGet(() -> new Tracker(sourceKey, Long.MIN_VALUE, Set.of(), true, null));
+    }
+
+    /**
+     * Сохраняет новую границу или, если обход не дошёл до старой, курсор продолжения.
+     * Вызывать только после того, как все страницы обхода записаны в БД.
+     */
+    public void commit(Tracker tracker) {
+        if (!tracker.enabled) {
+            return;
+        }
+        if (tracker.covered()) {
+            if (!tracker.advanced() && tracker.resumeCursor == null) {
+                return;
+            }
+            steamWatermarkRepository.save(SteamWatermark.builder()
+                    .sourceKey(tracker.sourceKey)
+                    .newestCreatedAt(tracker.newest)
+                    .boundaryIds(String.join(",", tracker.newestIds))
+                    .updatedAt(Instant.now())
+                    .build());
+            return;
+        }
+        // до старой границы не дошли: она остаётся, новые отзывы выше неё запоминаются до закрытия разрыва
+        steamWatermarkRepository.save(SteamWatermark.builder()
+                .sourceKey(tracker.sourceKey)
+                .newestCreatedAt(tracker.markCreatedAt)
+                .boundaryIds(String.join(",", tracker.markIds))
+                .resumeCursor(tracker.lastCursor)
+                .resumeNewestCreatedAt(tracker.newest)
+                .resumeBoundaryIds(String.join(",", tracker.newestIds))
+                .updatedAt(Instant.now())
+                .build());
+    }
+
+    private static Set<String> parseIds(String ids) {
+        if (ids == null || ids.isBlank()) {
+            return Set.of();
+        }
+        return new HashSet<>(Arrays.asList(ids.split(",")));
+    }
+
+    /**
+     * Состояние одного обхода. Используется только потоком задачи: фильтр вызывается при разборе ответа.
+     */
+    public static final class Tracker implements SteamReviewsClient.ReviewFilter {
+        private final String sourceKey;
+        private final long markCreatedAt;
+        private final Set<String> markIds;
+        private final boolean enabled;
+        private final String resumeCursor;
+
+        private long newest;
+        private final Set<String> newestIds = new HashSet<>();
+        private boolean reachedMark;
+        private boolean exhausted;
+        private String lastCursor;
+        private int fetched;
+
+        private Tracker(String sourceKey, long markCreatedAt, Set<String> markIds, boolean enabled,
+                        String resumeCursor) {
+            this.sourceKey = sourceKey;
+            this.markCreatedAt = markCreatedAt;
+            this.markIds = markIds;
+            this.enabled = enabled;
+            this.resumeCursor = resumeCursor;
+            this.newest = markCreatedAt;
+            if (markCreatedAt != Long.MIN_VALUE) {
+                newestIds.addAll(markIds);
+            }
+        }
+
+        /**
+         * Курсор первой страницы обхода: продолжение незакрытого разрыва или "*" - самые свежие отзывы.
+         */
+        public String startCursor() {
+            return resumeCursor != null ? resumeCursor : "*";
+        }
+
+        /**
+         * Запоминает курсор следующей страницы. Пустая страница означает, что более старых отзывов нет.
+         */
+        public void pageLoaded(SteamReviewsClient.SteamPage page) {
+            lastCursor = page.nextCursor();
+            if (page.total() == 0) {
+                exhausted = true;
+            }
+        }
+
+        /**
+         * Отклоняет уже собранный отзыв и запоминает самый свежий из новых.
+         * Если встретился известный отзыв, {@link #reachedMark()} становится true.
+         */
+        @Override
+        public boolean accept(String recommendationId, long timestampCreated) {
+            fetched++;
+            if (!enabled) {
+                return true;
+            }
+            if (isKnown(recommendationId, timestampCreated)) {
+                reachedMark = true;
+                return false;
+            }
+            observe(recommendationId, timestampCreated);
+            return true;
+        }
+
+        /**
+         * Сколько отзывов вернул Steam за обход, включая уже известные.
+         */
+        public int fetched() {
+            return fetched;
+        }
+
+        public boolean reachedMark() {
+            return reachedMark;
+        }
+
+        boolean advanced() {
+            return newest != markCreatedAt || !newestIds.equals(markIds);
+        }
+
+        /**
+         * Всё от самого свежего отзыва до старой границы собрано: границу можно сдвигать.
+         * Первый обход источника сдвигает её всегда - собирать более старые отзывы не требуется.
+         */
+        boolean covered() {
+            return reachedMark || exhausted || markCreatedAt == Long.MIN_VALUE || lastCursor == null;
+        }
+
+        private void observeAll(long createdAt, Set<String> ids) {
+            if (ids.isEmpty()) {
+                observe(null, createdAt);
+            }
+            for (String id : ids) {
+                observe(id, createdAt);
+            }
+        }
+
+        private boolean isKnown(String recommendationId, long timestampCreated) {
+            if (timestampCreated < markCreatedAt) {
+                return true;
+            }
+            return timestampCreated == markCreatedAt
+                    && recommendationId != null
+                    && markIds.contains(recommendationId);
+        }
+
+        private void observe(String recommendationId, long timestampCreated) {
+            if (timestampCreated > newest) {
+                newest = timestampCreated;
+                newestIds.clear();
+            }
+            if (timestampCreated == newest && recommendationId != null && newestIds.size() < MAX_BOUNDARY_IDS) {
+                newestIds.add(recommendationId);
+            }
+        }
+    }
+}
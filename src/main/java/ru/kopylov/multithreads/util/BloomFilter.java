@@ -0,0 +1,79 @@
+package ru.kopylov.multithreads.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Потокобезопасный фильтр Блума для dedup-ключей.
+ * <p>
+ * Ключи уже являются SHA-256, поэтому отдельная хеш-функция не нужна: два 64-битных слова ключа
+ * используются как h1 и h2 в схеме двойного хеширования (Kirsch–Mitzenmacher).
+ */
+public final class BloomFilter {
+
+    private final AtomicLongArray words;
+    private final long bitSize;
+    private final int hashCount;
+    private final AtomicLong insertions = new AtomicLong();
+
+    public BloomFilter(long expectedInsertions, double fpp) {
+        long n = Math.max(expectedInsertions, 1);
+        long m = (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        int wordCount = (int) Math.min((m + 63) / 64, Integer.MAX_VALUE / 2);
+        this.words = new AtomicLongArray(wordCount);
+        this.bitSize = (long) wordCount * 64;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitSize / n * Math.log(2)));
+    }
+
+    public void put(long h1, long h2) {
+        boolean changed = false;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = index(h1, h2, i);
+            int w = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long prev = words.getAndUpdate(w, v -> v | mask);
+            changed |= (prev & mask) == 0;
+        }
+        if (changed) {
+            insertions.incrementAndGet();
+        }
+    }
+
+    public boolean mightContain(long h1, long h2) {
+        for (int i = 0; i < hashCount; i++) {
+            long bit = index(h1, h2, i);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long index(long h1, long h2, int i) {
+        long combined = h1 + i * h2;
+        return (combined & Long.MAX_VALUE) % bitSize;
+    }
+
+    public long insertions() {
+        return insertions.get();
+    }
+
+    public long bitSize() {
+        return bitSize;
+    }
+
+    public int hashCount() {
+        return hashCount;
+    }
+
+    public long memoryBytes() {
+        return bitSize / 8;
+    }
+
+    /**
+     * Теоретическая вероятность ложного срабатывания при текущем числе вставок: (1 - e^(-k*n/m))^k.
+     */
+    public double expectedFpp() {
+        return Math.pow(1 - Math.exp(-(double) hashCount * insertions.get() / bitSize), hashCount);
+    }
+}
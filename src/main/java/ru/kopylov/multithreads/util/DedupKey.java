@@ -0,0 +1,33 @@
+package ru.kopylov.multithreads.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * SHA-256 ключ дедупликации как четыре 64-битных слова (big-endian).
+ * В отличие от byte[] имеет equals/hashCode по значению, поэтому годится для ключей Map/Set.
+ */
+public record DedupKey(long w0, long w1, long w2, long w3) {
+
+    public static final int BYTES = 32;
+
+    public static DedupKey fromBytes(byte[] bytes) {
+        if (bytes.length != BYTES) {
+            throw new IllegalArgumentException("Ключ дедупликации должен быть " + BYTES + " байт, получено " + bytes.length);
+        }
+        ByteBuffer b = ByteBuffer.wrap(bytes);
+        return new DedupKey(b.getLong(), b.getLong(), b.getLong(), b.getLong());
+    }
+
+    public byte[] toBytes() {
+        return ByteBuffer.allocate(BYTES).putLong(w0).putLong(w1).putLong(w2).putLong(w3).array();
+    }
+
+    public String toHex() {
+        return String.format("%016x%016x%016x%016x", w0, w1, w2, w3);
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+}
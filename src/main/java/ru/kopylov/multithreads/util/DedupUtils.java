@@ -1,29 +1,129 @@
 package ru.kopylov.multithreads.util;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
 
+/**
+ * Единственная реализация ключа дедупликации отзыва: SHA-256 от "author|date|rating|text".
+ * <p>
+ * Digest, кодировщик UTF-8 и буферы переиспользуются в пределах потока, а поля подаются в digest
+ * по очереди, без сборки промежуточной строки. Результат совпадает с SHA-256 от склеенной строки.
+ */
 public final class DedupUtils {
     private DedupUtils() {}
 
-    public static String sha256Hex(String input) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hash = md.digest(input.getBytes(StandardCharsets.UTF_8));
-            return toHex(hash);
-        } catch (Exception e) {
-            throw new IllegalStateException("Не удалось вычислить SHA-256", e);
-        }
+    private static final byte SEPARATOR = '|';
+    private static final int MAX_BUFFER = 1 << 20;
+
+    private static final ThreadLocal<Hasher> HASHER = ThreadLocal.withInitial(Hasher::new);
+
+    /**
+     * Поля должны быть уже нормализованы (обрезаны); null трактуется как пустая строка.
+     */
+    public static DedupKey dedupKey(String author, LocalDate createdAt, int rating, String text) {
+        return HASHER.get().hash(author, createdAt, rating, text);
     }
 
-    private static String toHex(byte[] bytes) {
-        char[] hexArray = "0123456789abcdef".toCharArray();
-        char[] hexChars = new char[bytes.length * 2];
-        for (int j = 0; j < bytes.length; j++) {
-            int v = bytes[j] & 0xFF;
-            hexChars[j * 2] = hexArray[v >>> 4];
-            hexChars[j * 2 + 1] = hexArray[v & 0x0F];
+    private static final class Hasher {
+        private final MessageDigest md;
+        // REPLACE, как у String.getBytes: одиночные суррогаты кодируются в '?'
+        private final CharsetEncoder utf8 = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final byte[] scratch = new byte[16];
+        private final byte[] out = new byte[DedupKey.BYTES];
+        private ByteBuffer buf = ByteBuffer.allocate(1024);
+
+        Hasher() {
+            try {
+                md = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("Не удалось вычислить SHA-256", e);
+            }
+        }
+
+        DedupKey hash(String author, LocalDate createdAt, int rating, String text) {
+            md.reset();
+            updateString(author);
+            md.update(SEPARATOR);
+            updateDate(createdAt);
+            md.update(SEPARATOR);
+            updateInt(rating);
+            md.update(SEPARATOR);
+            updateString(text);
+            try {
+                md.digest(out, 0, out.length);
+            } catch (Exception e) {
+                throw new IllegalStateException("Не удалось вычислить SHA-256", e);
+            }
+            return DedupKey.fromBytes(out);
+        }
+
+        private void updateString(String s) {
+            if (s == null || s.isEmpty()) {
+                return;
+            }
+            // UTF-8 даёт не больше 3 байт на char (суррогатная пара - 4 байта на 2 char)
+            int maxBytes = s.length() * 3;
+            if (maxBytes > MAX_BUFFER) {
+                md.update(s.getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            if (buf.capacity() < maxBytes) {
+                buf = ByteBuffer.allocate(maxBytes);
+            }
+            buf.clear();
+            utf8.reset();
+            utf8.encode(CharBuffer.wrap(s), buf, true);
+            utf8.flush(buf);
+            buf.flip();
+            md.update(buf);
+        }
+
+        // ISO-8601 yyyy-MM-dd, как LocalDate.toString() для годов 0..9999
+        private void updateDate(LocalDate d) {
+            if (d == null) {
+                return;
+            }
+            int year = d.getYear();
+            if (year < 0 || year > 9999) {
+                updateString(d.toString());
+                return;
+            }
+            scratch[0] = (byte) ('0' + year / 1000);
+            scratch[1] = (byte) ('0' + year / 100 % 10);
+            scratch[2] = (byte) ('0' + year / 10 % 10);
+            scratch[3] = (byte) ('0' + year % 10);
+            scratch[4] = '-';
+            scratch[5] = (byte) ('0' + d.getMonthValue() / 10);
+            scratch[6] = (byte) ('0' + d.getMonthValue() % 10);
+            scratch[7] = '-';
+            scratch[8] = (byte) ('0' + d.getDayOfMonth() / 10);
+            scratch[9] = (byte) ('0' + d.getDayOfMonth() % 10);
+            md.update(scratch, 0, 10);
+        }
+
+        private void updateInt(int v) {
+            long x = v;
+            int pos = scratch.length;
+            boolean negative = x < 0;
+            if (negative) {
+                x = -x;
+            }
+            do {
+                scratch[--pos] = (byte) ('0' + x % 10);
+                x /= 10;
+            } while (x != 0);
+            if (negative) {
+                scratch[--pos] = '-';
+            }
+            md.update(scratch, pos, scratch.length - pos);
         }
-        return new String(hexChars);
     }
 }
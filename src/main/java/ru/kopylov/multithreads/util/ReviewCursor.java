@@ -0,0 +1,104 @@
+package ru.kopylov.multithreads.util;
+
+import ru.kopylov.multithreads.model.Review;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Base64;
+
+/**
+ * Позиция в выдаче отзывов для keyset-пагинации: порядок сортировки и ключ (значение сортировки, id)
+ * последнего отданного отзыва. Клиенту отдаётся непрозрачной строкой encode().
+ *
+ * @param value значение поля сортировки последнего отзыва в строковом виде; null - у отзыва поле не заполнено
+ */
+public record ReviewCursor(SortKey sort, boolean descending, String value, long id) {
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+    private static final String NULL = "~";
+
+    /**
+     * Поля, по которым можно листать: у каждого есть составной индекс (поле, id) в reviews.
+     */
+    public enum SortKey {
+        FETCHED_AT("fetchedAt"),
+        CREATED_AT("createdAt"),
+        RATING("rating"),
+        ID("id");
+
+        private final String property;
+
+        SortKey(String property) {
+            this.property = property;
+        }
+
+        public String property() {
+            return property;
+        }
+
+        public static SortKey of(String property) {
+            for (SortKey k : values()) {
+                if (k.property.equals(property)) {
+                    return k;
+                }
+            }
+            throw new IllegalArgumentException("Сортировка не поддерживается: " + property
+                    + " (допустимо fetchedAt, createdAt, rating, id)");
+        }
+
+        public String valueOf(Review r) {
+            Object v = switch (this) {
+                case FETCHED_AT -> r.getFetchedAt();
+                case CREATED_AT -> r.getCreatedAt();
+                case RATING -> r.getRating();
+                case ID -> r.getId();
+            };
+            return v == null ? null : v.toString();
+        }
+
+        /**
+         * Значение из курсора в типе поля, для параметра запроса.
+         */
+        public Object parse(String value) {
+            return switch (this) {
+                case FETCHED_AT -> Instant.parse(value);
+                case CREATED_AT -> LocalDate.parse(value);
+                case RATING -> Integer.parseInt(value);
+                case ID -> Long.parseLong(value);
+            };
+        }
+    }
+
+    public static ReviewCursor after(SortKey sort, boolean descending, Review last) {
+        return new ReviewCursor(sort, descending, sort.valueOf(last), last.getId());
+    }
+
+    public String encode() {
+        String raw = sort.property + '|' + (descending ? "desc" : "asc") + '|' + id + '|' + (value == null ? NULL : value);
+        return ENCODER.encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException курсор повреждён или выдан не этим API
+     */
+    public static ReviewCursor decode(String token) {
+        try {
+            String raw = new String(DECODER.decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|", 4);
+            if (parts.length != 4 || !(parts[1].equals("asc") || parts[1].equals("desc"))) {
+                throw new IllegalArgumentException("Некорректный курсор");
+            }
+            SortKey sort = SortKey.of(parts[0]);
+            String value = parts[3].equals(NULL) ? null : parts[3];
+            if (value != null) {
+                sort.parse(value);
+            }
+            return new ReviewCursor(sort, parts[1].equals("desc"), value, Long.parseLong(parts[2]));
+        } catch (IllegalArgumentException | DateTimeException e) {
+            throw new IllegalArgumentException("Некорректный курсор: " + token, e);
+        }
+    }
+}
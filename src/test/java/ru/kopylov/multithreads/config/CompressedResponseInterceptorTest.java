@@ -0,0 +1,58 @@
+package ru.kopylov.multithreads.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompressedResponseInterceptorTest {
+
+    private final CompressedResponseInterceptor interceptor = new CompressedResponseInterceptor();
+
+    @Test
+    void shouldAskForCompression_andDecodeGzipBody() throws Exception {
+        String json = "{\"success\":1,\"reviews\":[]}";
+        byte[] compressed = gzip(json);
+        var request = new MockClientHttpRequest(HttpMethod.GET, URI.create("https://example.com/x"));
+
+        var response = interceptor.intercept(request, new byte[0], (req, body) -> {
+            var r = new MockClientHttpResponse(compressed, HttpStatus.OK);
+            r.getHeaders().set(HttpHeaders.CONTENT_ENCODING, "gzip");
+            r.getHeaders().setContentLength(123);
+            return r;
+        });
+
+        assertThat(request.getHeaders().getFirst(HttpHeaders.ACCEPT_ENCODING)).isEqualTo("gzip, deflate");
+        assertThat(response.getHeaders().containsHeader(HttpHeaders.CONTENT_ENCODING)).isFalse();
+        assertThat(response.getHeaders().containsHeader(HttpHeaders.CONTENT_LENGTH)).isFalse();
+        assertThat(new String(response.getBody().readAllBytes(), StandardCharsets.UTF_8)).isEqualTo(json);
+    }
+
+    @Test
+    void shouldPassThroughUncompressedBody() throws Exception {
+        var request = new MockClientHttpRequest(HttpMethod.GET, URI.create("https://example.com/x"));
+        var plain = new MockClientHttpResponse("plain".getBytes(StandardCharsets.UTF_8), HttpStatus.OK);
+
+        var response = interceptor.intercept(request, new byte[0], (req, body) -> plain);
+
+        assertThat(response).isSameAs(plain);
+    }
+
+    private static byte[] gzip(String s) throws IOException {
+        var out = new ByteArrayOutputStream();
+        try (var gz = new GZIPOutputStream(out)) {
+            gz.write(s.getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+}
@@ -103,4 +103,32 @@ class ParallelAnswerControllerTest {
                 .andExpect(jsonPath("$.content[2].createdAt").value("2024-01-11"))
                 .andExpect(jsonPath("$.content[3].createdAt").value("2024-01-12"));
     }
+
+    @Test
+    void parallel_shouldPageInDb() throws Exception {
+        mockMvc.perform(get("/answer/parallel")
+                        .param("page", "1")
+                        .param("size", "2")
+                        .param("sortBy", "fetchedAt")
+                        .param("direction", "desc")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements").value(4))
+                .andExpect(jsonPath("$.content.length()").value(2))
+                .andExpect(jsonPath("$.content[0].authorName").value("u2"))
+                .andExpect(jsonPath("$.content[1].authorName").value("u1"));
+    }
+
+    @Test
+    void parallel_memoryEngine_shouldMatchDbEngine() throws Exception {
+        mockMvc.perform(get("/answer/parallel")
+                        .param("minRating", "3")
+                        .param("sortBy", "rating")
+                        .param("direction", "asc")
+                        .param("engine", "memory")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements").value(3))
+                .andExpect(jsonPath("$.content[*].rating", contains(3, 4, 5)));
+    }
 }
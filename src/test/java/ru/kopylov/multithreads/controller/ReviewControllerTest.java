@@ -10,13 +10,21 @@ import org.springframework.test.web.servlet.MockMvc;
 import ru.kopylov.multithreads.model.ParseJob;
 import ru.kopylov.multithreads.model.ParseStatus;
 import ru.kopylov.multithreads.model.Review;
+import ru.kopylov.multithreads.service.JobProgress;
+import ru.kopylov.multithreads.service.ReviewAggregates;
+import ru.kopylov.multithreads.service.ReviewExporter;
 import ru.kopylov.multithreads.service.ReviewService;
 
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.util.List;
 import java.util.UUID;
+import java.util.zip.GZIPInputStream;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
@@ -31,6 +39,15 @@ class ReviewControllerTest {
     @MockitoBean
     private ReviewService reviewService;
 
+    @MockitoBean
+    private ReviewExporter reviewExporter;
+
+    @MockitoBean
+    private ReviewAggregates reviewAggregates;
+
+    @MockitoBean
+    private JobProgress jobProgress;
+
     @Test
     void postParse_shouldReturnJobId() throws Exception {
         UUID jobId = UUID.randomUUID();
@@ -44,6 +61,35 @@ class ReviewControllerTest {
                 .andExpect(jsonPath("$.jobId").value(jobId.toString()));
     }
 
+    @Test
+    void postParseBatch_shouldReturnJobIdPerUrl() throws Exception {
+        UUID batchId = UUID.randomUUID();
+        UUID jobId = UUID.randomUUID();
+        var urls = List.of("https://example.com/product/1", "https://example.com/product/1");
+
+        when(reviewService.startParseBatch(urls)).thenReturn(new ReviewService.ParseBatch(batchId, List.of(jobId, jobId)));
+
+        mockMvc.perform(post("/parse/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"urls\":[\"https://example.com/product/1\",\"https://example.com/product/1\"]}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.batchId").value(batchId.toString()))
+                .andExpect(jsonPath("$.jobs[1].url").value("https://example.com/product/1"))
+                .andExpect(jsonPath("$.jobs[1].jobId").value(jobId.toString()));
+    }
+
+    @Test
+    void postParseBatch_shouldReturn400_whenUrlsEmptyOrBlank() throws Exception {
+        mockMvc.perform(post("/parse/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"urls\":[]}"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(post("/parse/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"urls\":[\" \"]}"))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     void getJob_shouldReturnJobStatus() throws Exception {
         UUID jobId = UUID.randomUUID();
@@ -97,4 +143,71 @@ class ReviewControllerTest {
                 .andExpect(jsonPath("$.content[0].sourceUrl").value("https://example.com/product/123"))
                 .andExpect(jsonPath("$.content[0].rating").value(5));
     }
+
+    @Test
+    void getAnswerSeek_shouldReturnSliceWithNextCursor() throws Exception {
+        Review r = Review.builder()
+                .id(7L)
+                .sourceUrl("https://example.com/product/123")
+                .authorName("user1")
+                .rating(4)
+                .text("text")
+                .createdAt(LocalDate.now().minusDays(2))
+                .fetchedAt(Instant.now())
+                .build();
+
+        when(reviewService.getReviewsAfter(eq("rating"), eq("asc"), isNull(), eq(1), eq(false)))
+                .thenReturn(new ReviewService.ReviewSlice(List.of(r), "bmV4dA", null));
+
+        mockMvc.perform(get("/answer/seek")
+                        .param("size", "1")
+                        .param("sort", "rating")
+                        .param("direction", "asc"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content[0].id").value(7))
+                .andExpect(jsonPath("$.nextCursor").value("bmV4dA"))
+                .andExpect(jsonPath("$.totalElements").doesNotExist());
+    }
+
+    @Test
+    void getAnswerSeek_shouldReturn400_forBrokenCursor() throws Exception {
+        when(reviewService.getReviewsAfter(anyString(), anyString(), eq("broken"), anyInt(), anyBoolean()))
+                .thenThrow(new IllegalArgumentException("Некорректный курсор: broken"));
+
+        mockMvc.perform(get("/answer/seek").param("cursor", "broken"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void getExport_shouldStreamGzippedBody() throws Exception {
+        when(reviewExporter.export(eq(ReviewExporter.Format.CSV), eq("https://example.com/a"), isNull(), isNull(), any()))
+                .thenAnswer(inv -> {
+                    OutputStream out = inv.getArgument(4);
+                    out.write("id\r\n1\r\n".getBytes(StandardCharsets.UTF_8));
+                    return 1L;
+                });
+
+        var async = mockMvc.perform(get("/reviews/export")
+                        .param("format", "csv")
+                        .param("source", "https://example.com/a")
+                        .param("gzip", "true"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        var result = mockMvc.perform(asyncDispatch(async))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", "application/gzip"))
+                .andExpect(header().string("Content-Disposition", "attachment; filename=\"reviews.csv.gz\""))
+                .andReturn();
+
+        byte[] body = new GZIPInputStream(new ByteArrayInputStream(result.getResponse().getContentAsByteArray()))
+                .readAllBytes();
+        assertThat(new String(body, StandardCharsets.UTF_8)).isEqualTo("id\r\n1\r\n");
+    }
+
+    @Test
+    void getExport_shouldReturn400_forUnknownFormat() throws Exception {
+        mockMvc.perform(get("/reviews/export").param("format", "xml"))
+                .andExpect(status().isBadRequest());
+    }
 }
@@ -0,0 +1,80 @@
+package ru.kopylov.multithreads.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AsyncEventLoggerTest {
+
+    @Test
+    void shouldDropAndCount_whenRingIsFull_andAcceptAgainAfterDrain() {
+        // поток-потребитель не запущен: кольцо разбираем вручную
+        AsyncEventLogger logger = new AsyncEventLogger(8);
+        UUID jobId = UUID.randomUUID();
+
+        for (int i = 0; i < 10; i++) {
+            logger.logEvent(EventType.PAGE_FETCHED, jobId, i, 20);
+        }
+
+        assertThat(logger.capacity()).isEqualTo(8);
+        assertThat(logger.droppedCount()).isEqualTo(2);
+        assertThat(logger.drain(5)).isEqualTo(5);
+
+        for (int i = 0; i < 5; i++) {
+            logger.logEvent(EventType.PAGE_FETCHED, jobId, i, 20);
+        }
+        assertThat(logger.droppedCount()).isEqualTo(2);
+        assertThat(logger.drain(100)).isEqualTo(8);
+        assertThat(logger.drain(100)).isZero();
+    }
+
+    @Test
+    void shouldNotLoseEvents_fromConcurrentProducers_whenCapacityIsEnough() throws Exception {
+        AsyncEventLogger logger = new AsyncEventLogger(4096);
+        int producers = 8;
+        int perProducer = 500;
+        ExecutorService pool = Executors.newFixedThreadPool(producers);
+        CountDownLatch start = new CountDownLatch(1);
+
+        for (int p = 0; p < producers; p++) {
+            pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < perProducer; i++) {
+                    logger.logEvent(EventType.PAGE_STARTED, null, i);
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        pool.shutdown();
+        assertThat(pool.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(logger.droppedCount()).isZero();
+        assertThat(logger.drain(Integer.MAX_VALUE)).isEqualTo(producers * perProducer);
+    }
+
+    @Test
+    void shouldFormatPatternOnConsumerSide() {
+        AsyncEventLogger.Slot slot = new AsyncEventLogger.Slot(0);
+        UUID jobId = UUID.fromString("00000000-0000-0000-0000-000000000001");
+        slot.type = EventType.PAGE_SAVED;
+        slot.jobId = jobId;
+        slot.a = 3;
+        slot.b = 20;
+        slot.c = 17;
+        slot.thread = Thread.currentThread();
+
+        StringBuilder sb = new StringBuilder();
+        AsyncEventLogger.format(slot, sb);
+
+        assertThat(sb.toString())
+                .contains("[" + Thread.currentThread().getName() + "]")
+                .endsWith("Страница 3: получено=20, сохранено=17, id=" + jobId);
+    }
+}
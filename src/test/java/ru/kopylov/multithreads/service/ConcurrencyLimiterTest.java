@@ -0,0 +1,54 @@
+package ru.kopylov.multithreads.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConcurrencyLimiterTest {
+
+    @Test
+    void virtualMode_shouldCapConcurrencyPerSource() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("virtual", 2, 8);
+        AtomicInteger current = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+
+        try (ExecutorService vt = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                futures.add(vt.submit(() -> limiter.withSourcePermit("https://example.com/a", () -> {
+                    int now = current.incrementAndGet();
+                    peak.accumulateAndGet(now, Math::max);
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    current.decrementAndGet();
+                    return now;
+                })));
+            }
+            for (Future<Integer> f : futures) {
+                f.get();
+            }
+        }
+
+        assertThat(peak.get()).isLessThanOrEqualTo(2);
+    }
+
+    @Test
+    void platformMode_shouldNotLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("platform", 1, 1);
+
+        // в platform режиме вложенный захват того же источника не должен блокироваться
+        int result = limiter.withSourcePermit("s", () -> limiter.withSourcePermit("s", () -> 42));
+
+        assertThat(result).isEqualTo(42);
+    }
+}
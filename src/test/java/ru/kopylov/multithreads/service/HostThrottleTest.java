@@ -0,0 +1,138 @@
+package ru.kopylov.multithreads.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static ru.kopylov.multithreads.service.HostThrottle.HostState.NO_TRIAL;
+import static ru.kopylov.multithreads.service.HostThrottle.Outcome.*;
+
+class HostThrottleTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    // 10 запросов/с, пачка 2, размыкание после 3 ошибок на 30 с, ждать очереди не больше 1 с
+    private final HostThrottle.HostState state =
+            new HostThrottle.HostState("host", 10, 2, 3, 30 * SECOND, SECOND);
+
+    @Test
+    void bucketAllowsBurstThenSpacesRequests() {
+        long now = 1_000 * SECOND;
+
+        assertThat(state.admit(now).waitNanos()).isZero();
+        assertThat(state.admit(now).waitNanos()).isZero();
+        assertThat(state.admit(now).waitNanos()).isEqualTo(SECOND / 10);
+        assertThat(state.admit(now).waitNanos()).isEqualTo(2 * SECOND / 10);
+
+        // за секунду простоя пачка восстанавливается
+        assertThat(state.admit(now + 2 * SECOND).waitNanos()).isZero();
+    }
+
+    @Test
+    void rejectsWhenQueueIsLongerThanMaxWait() {
+        long now = 1_000 * SECOND;
+        for (int i = 0; i < 12; i++) {
+            state.admit(now);
+        }
+
+        assertThatThrownBy(() -> state.admit(now))
+                .isInstanceOfSatisfying(HostThrottle.HostUnavailableException.class,
+                        e -> assertThat(e.reason()).isEqualTo("wait"));
+    }
+
+    @Test
+    void throttlingHalvesRateAndSuccessRestoresIt() {
+        long now = 1_000 * SECOND;
+
+        state.onResult(NO_TRIAL, THROTTLED, 0, now);
+        assertThat(state.rate()).isEqualTo(5.0);
+
+        for (int i = 0; i < 20; i++) {
+            state.onResult(NO_TRIAL, SUCCESS, 0, now);
+        }
+        assertThat(state.rate()).isEqualTo(10.0);
+    }
+
+    @Test
+    void circuitOpensAfterFailures_thenTrialRequestClosesIt() {
+        long now = 1_000 * SECOND;
+
+        assertThat(state.onResult(NO_TRIAL, FAILED, 0, now)).isEqualTo(HostThrottle.Transition.NONE);
+        assertThat(state.onResult(NO_TRIAL, FAILED, 0, now)).isEqualTo(HostThrottle.Transition.NONE);
+        assertThat(state.onResult(NO_TRIAL, FAILED, 0, now)).isEqualTo(HostThrottle.Transition.OPENED);
+        assertThat(state.circuitState()).isEqualTo(2);
+
+        assertThatThrownBy(() -> state.admit(now + SECOND))
+                .isInstanceOfSatisfying(HostThrottle.HostUnavailableException.class,
+                        e -> assertThat(e.reason()).isEqualTo("open"));
+
+        // после open-seconds пропускается ровно один пробный запрос
+        long later = now + 31 * SECOND;
+        var trial = state.admit(later);
+        assertThat(trial.waitNanos()).isZero();
+        assertThat(trial.trial()).isNotEqualTo(NO_TRIAL);
+        assertThat(state.circuitState()).isEqualTo(1);
+        assertThatThrownBy(() -> state.admit(later)).isInstanceOf(HostThrottle.HostUnavailableException.class);
+
+        assertThat(state.onResult(trial.trial(), SUCCESS, 0, later)).isEqualTo(HostThrottle.Transition.CLOSED);
+        assertThat(state.admit(later).waitNanos()).isZero();
+    }
+
+    @Test
+    void staleResultsWhileHalfOpen_shouldNotCloseCircuit_norReleaseSecondTrial() {
+        long now = 1_000 * SECOND;
+        // запрос начат до размыкания, его ответ придёт, когда цепь уже полуоткрыта
+        var stale = state.admit(now);
+        for (int i = 0; i < 3; i++) {
+            state.onResult(NO_TRIAL, FAILED, 0, now);
+        }
+        assertThat(state.circuitState()).isEqualTo(2);
+
+        long later = now + 31 * SECOND;
+        var trial = state.admit(later);
+        assertThat(state.circuitState()).isEqualTo(1);
+
+        assertThat(state.onResult(stale.trial(), SUCCESS, 0, later)).isEqualTo(HostThrottle.Transition.NONE);
+        assertThat(state.onResult(stale.trial(), FAILED, 0, later)).isEqualTo(HostThrottle.Transition.NONE);
+        assertThat(state.circuitState()).isEqualTo(1);
+        // пробный запрос ещё в полёте - второй не пропускается
+        assertThatThrownBy(() -> state.admit(later)).isInstanceOf(HostThrottle.HostUnavailableException.class);
+
+        assertThat(state.onResult(trial.trial(), FAILED, 0, later)).isEqualTo(HostThrottle.Transition.OPENED);
+        assertThat(state.circuitState()).isEqualTo(2);
+    }
+
+    @Test
+    void retryAfterOpensCircuitImmediately() {
+        long now = 1_000 * SECOND;
+
+        assertThat(state.onResult(NO_TRIAL, THROTTLED, 120 * SECOND, now)).isEqualTo(HostThrottle.Transition.OPENED);
+        assertThat(state.openForNanos()).isEqualTo(120 * SECOND);
+        assertThatThrownBy(() -> state.admit(now + 60 * SECOND))
+                .isInstanceOf(HostThrottle.HostUnavailableException.class);
+    }
+
+    @Test
+    void classifiesUpstreamErrors() {
+        var headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, "5");
+
+        assertThat(HostThrottle.classify(HttpClientErrorException.create(
+                HttpStatus.TOO_MANY_REQUESTS, "", headers, null, null))).isEqualTo(THROTTLED);
+        assertThat(HostThrottle.classify(new HostThrottle.UpstreamThrottledException("success=2"))).isEqualTo(THROTTLED);
+        assertThat(HostThrottle.classify(HttpServerErrorException.create(
+                HttpStatus.BAD_GATEWAY, "", headers, null, null))).isEqualTo(FAILED);
+        assertThat(HostThrottle.classify(new ResourceAccessException("timeout"))).isEqualTo(FAILED);
+        // хост ответил, ошибка в самом запросе
+        assertThat(HostThrottle.classify(HttpClientErrorException.create(
+                HttpStatus.NOT_FOUND, "", headers, null, null))).isEqualTo(SUCCESS);
+        assertThat(HostThrottle.classify(new IllegalArgumentException())).isEqualTo(SUCCESS);
+    }
+}
@@ -0,0 +1,245 @@
+package ru.kopylov.multithreads.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.kopylov.multithreads.dto.JobProgressEvent;
+import ru.kopylov.multithreads.model.ParseJob;
+import ru.kopylov.multithreads.model.ParseStatus;
+import ru.kopylov.multithreads.repository.ParseJobRepository;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class JobProgressTest {
+
+    private final ParseJobRepository repository = mock(ParseJobRepository.class);
+    // потоки рассылки не запускаются: flush и refresh вызываются из теста, снимки пишутся в его же потоке
+    private final JobProgress progress = new JobProgress(repository, 250, 15, 300, 30);
+
+    @Test
+    void coalescesUpdatesBetweenFlushes_andClosesStreamOnFinish() {
+        UUID jobId = UUID.randomUUID();
+        progress.started(jobId, "https://example.com/p", 1, 3, JobProgress.Phase.FETCH);
+        var emitter = new CapturingEmitter();
+        progress.subscribe(jobId, emitter);
+
+        progress.pageFetched(jobId, 5);
+        progress.pageFetched(jobId, 5);
+        progress.phase(jobId, JobProgress.Phase.SAVE);
+        progress.flush();
+        progress.flush();
+
+        assertThat(emitter.events).hasSize(2);
+        JobProgressEvent update = emitter.events.get(1);
+        assertThat(update.pagesDone()).isEqualTo(2);
+        assertThat(update.raw()).isEqualTo(10);
+        assertThat(update.phase()).isEqualTo("SAVE");
+        assertThat(update.phaseMillis()).containsKeys("FETCH", "SAVE");
+
+        progress.succeeded(jobId, 10, 8, 2);
+        progress.flush();
+
+        JobProgressEvent last = emitter.events.getLast();
+        assertThat(last.status()).isEqualTo(ParseStatus.SUCCESS);
+        assertThat(last.saved()).isEqualTo(8);
+        assertThat(last.skipped()).isEqualTo(2);
+        assertThat(last.phase()).isNull();
+        assertThat(emitter.completed).isTrue();
+        assertThat(progress.subscriberCount()).isZero();
+    }
+
+    @Test
+    void jobOfAnotherNode_isReadFromDbOnSubscribe_andOnRefresh() {
+        UUID jobId = UUID.randomUUID();
+        ParseJob job = ParseJob.builder()
+                .id(jobId)
+                .sourceUrl("https://example.com/remote")
+                .status(ParseStatus.RUNNING)
+                .createdAt(Instant.now())
+                .build();
+        when(repository.findById(jobId)).thenReturn(Optional.of(job));
+        var emitter = new CapturingEmitter();
+
+        progress.subscribe(jobId, emitter);
+        assertThat(emitter.events).singleElement().extracting(JobProgressEvent::status).isEqualTo(ParseStatus.RUNNING);
+        assertThat(emitter.completed).isFalse();
+
+        job.setStatus(ParseStatus.SUCCESS);
+        job.setCreatedReviews(7);
+        when(repository.findAllById(any())).thenReturn(List.of(job));
+        progress.refresh();
+
+        assertThat(emitter.events.getLast().saved()).isEqualTo(7);
+        assertThat(emitter.completed).isTrue();
+        verify(repository, times(1)).findById(jobId);
+    }
+
+    @Test
+    void deferredJob_claimedByAnotherNode_isFollowedFromDb() {
+        UUID jobId = UUID.randomUUID();
+        progress.started(jobId, "https://example.com/deferred", 1, 3, JobProgress.Phase.FETCH);
+        var emitter = new CapturingEmitter();
+        progress.subscribe(jobId, emitter);
+        progress.deferred(jobId, "host unavailable");
+        progress.flush();
+        assertThat(emitter.events.getLast().status()).isEqualTo(ParseStatus.QUEUED);
+        assertThat(emitter.completed).isFalse();
+
+        // задачу забрал и выполняет другой узел
+        ParseJob job = ParseJob.builder()
+                .id(jobId)
+                .sourceUrl("https://example.com/deferred")
+                .status(ParseStatus.RUNNING)
+                .createdAt(Instant.now())
+                .build();
+        when(repository.findAllById(any())).thenReturn(List.of(job));
+        progress.refresh();
+
+        assertThat(emitter.events.getLast().status()).isEqualTo(ParseStatus.RUNNING);
+        assertThat(progress.snapshot(jobId)).isNull();
+
+        job.setStatus(ParseStatus.SUCCESS);
+        job.setCreatedReviews(4);
+        progress.refresh();
+
+        assertThat(emitter.events.getLast().saved()).isEqualTo(4);
+        assertThat(emitter.completed).isTrue();
+    }
+
+    @Test
+    void silentRunningJob_takenOverByAnotherAttempt_isRereadFromDb() {
+        UUID jobId = UUID.randomUUID();
+        progress.started(jobId, "https://example.com/stalled", 1, 3, JobProgress.Phase.FETCH);
+        var emitter = new CapturingEmitter();
+        progress.subscribe(jobId, emitter);
+
+        // пока задача сообщает о ходе, БД не читается
+        progress.refresh();
+        verify(repository, never()).findAllById(any());
+
+        // узел завис, аренда истекла, и задачу перезапустил другой узел
+        ParseJob job = ParseJob.builder()
+                .id(jobId)
+                .sourceUrl("https://example.com/stalled")
+                .status(ParseStatus.RUNNING)
+                .attempts(2)
+                .createdAt(Instant.now())
+                .build();
+        when(repository.findAllById(any())).thenReturn(List.of(job));
+        progress.refresh(System.nanoTime() + TimeUnit.MINUTES.toNanos(1));
+
+        assertThat(progress.snapshot(jobId)).isNull();
+        assertThat(emitter.events.getLast().status()).isEqualTo(ParseStatus.RUNNING);
+
+        job.setStatus(ParseStatus.SUCCESS);
+        job.setCreatedReviews(3);
+        progress.refresh();
+
+        assertThat(emitter.events.getLast().saved()).isEqualTo(3);
+        assertThat(emitter.completed).isTrue();
+    }
+
+    @Test
+    void slowSubscriber_doesNotDelayOthers() throws Exception {
+        // большие интервалы: flush вызывается из теста, а запись идёт в потоках доставки
+        JobProgress started = new JobProgress(repository, 3_600_000, 3_600, 300, 30);
+        started.start();
+        try {
+            UUID jobId = UUID.randomUUID();
+            started.started(jobId, "https://example.com/p", 1, 3, JobProgress.Phase.FETCH);
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch fastDone = new CountDownLatch(1);
+            CountDownLatch slowDone = new CountDownLatch(1);
+            var slow = new CapturingEmitter() {
+                @Override
+                public void send(SseEventBuilder builder) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    super.send(builder);
+                    if (events.getLast().pagesDone() == 5) {
+                        slowDone.countDown();
+                    }
+                }
+            };
+            var fast = new CapturingEmitter() {
+                @Override
+                public void send(SseEventBuilder builder) {
+                    super.send(builder);
+                    if (events.getLast().pagesDone() == 5) {
+                        fastDone.countDown();
+                    }
+                }
+            };
+            started.subscribe(jobId, slow);
+            started.subscribe(jobId, fast);
+
+            for (int i = 0; i < 5; i++) {
+                started.pageFetched(jobId, 5);
+                started.flush();
+            }
+            assertThat(fastDone.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(slow.events).isEmpty();
+
+            release.countDown();
+            // медленный получает первый снимок и сразу последний, промежуточные заменились
+            assertThat(slowDone.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(slow.events).hasSizeLessThanOrEqualTo(2);
+        } finally {
+            started.stop();
+        }
+    }
+
+    @Test
+    void finishedJob_getsSnapshotAndClosedStream_unknownJobFails() {
+        UUID jobId = UUID.randomUUID();
+        progress.started(jobId, "https://example.com/p", 1, 1, JobProgress.Phase.FETCH);
+        progress.failed(jobId, "boom");
+        var emitter = new CapturingEmitter();
+
+        progress.subscribe(jobId, emitter);
+
+        assertThat(emitter.events).singleElement().satisfies(e -> {
+            assertThat(e.status()).isEqualTo(ParseStatus.FAILED);
+            assertThat(e.message()).isEqualTo("boom");
+        });
+        assertThat(emitter.completed).isTrue();
+
+        UUID missing = UUID.randomUUID();
+        when(repository.findById(missing)).thenReturn(Optional.empty());
+        assertThatThrownBy(() -> progress.subscribe(missing, new CapturingEmitter()))
+                .isInstanceOf(NoSuchElementException.class);
+    }
+
+    private static class CapturingEmitter extends SseEmitter {
+        final List<JobProgressEvent> events = new CopyOnWriteArrayList<>();
+        volatile boolean completed;
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            for (var part : builder.build()) {
+                if (part.getData() instanceof JobProgressEvent e) {
+                    events.add(e);
+                }
+            }
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package ru.kopylov.multithreads.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PageFanOutTest {
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(2);
+    private final PageFanOut fanOut = new PageFanOut(pool);
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void slowPage_shouldBeCancelledByPageDeadline_andFreeItsThread() throws Exception {
+        CountDownLatch interrupted = new CountDownLatch(1);
+
+        var result = fanOut.run(3, page -> {
+            if (page == 1) {
+                try {
+                    Thread.sleep(10_000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    Thread.currentThread().interrupt();
+                }
+                return -1;
+            }
+            return page;
+        }, 200, 5_000, false);
+
+        assertThat(result.completed()).containsExactly(0, 2);
+        assertThat(result.failed()).containsOnlyKeys(1);
+        assertThat(result.failed().get(1)).isInstanceOf(TimeoutException.class);
+        assertThat(interrupted.await(2, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void pageDeadline_shouldNotCountTimeSpentInQueue() throws Exception {
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        try {
+            // каждая страница укладывается в свой дедлайн, но хвост очереди ждёт дольше него
+            var result = new PageFanOut(single).run(4, page -> {
+                try {
+                    Thread.sleep(150);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return page;
+            }, 300, 5_000, false);
+
+            assertThat(result.failed()).isEmpty();
+            assertThat(result.completed()).containsExactly(0, 1, 2, 3);
+        } finally {
+            single.shutdownNow();
+        }
+    }
+
+    @Test
+    void pageDeadline_shouldStartWhenTaskSignalsIt() throws Exception {
+        var result = fanOut.run(2, (int page, Runnable startDeadline) -> {
+            try {
+                // ожидание лимита до запроса в дедлайн не входит
+                Thread.sleep(400);
+                startDeadline.run();
+                Thread.sleep(page == 0 ? 50 : 10_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return -1;
+            }
+            return page;
+        }, 200, 5_000, false);
+
+        assertThat(result.completed()).containsExactly(0);
+        assertThat(result.failed().get(1)).isInstanceOf(TimeoutException.class);
+    }
+
+    @Test
+    void failFast_shouldStopWaitingAfterFirstError() throws Exception {
+        long started = System.nanoTime();
+
+        var result = fanOut.run(2, page -> {
+            if (page == 0) {
+                throw new IllegalStateException("boom");
+            }
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return page;
+        }, 20_000, 20_000, true);
+
+        assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started)).isLessThan(5);
+        assertThat(result.completed()).isEmpty();
+        assertThat(result.firstFailure()).isInstanceOf(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,129 @@
+package ru.kopylov.multithreads.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import ru.kopylov.multithreads.controller.SourceStubController;
+import ru.kopylov.multithreads.model.ReviewAggregate;
+import ru.kopylov.multithreads.repository.ReviewAggregateRepository;
+import ru.kopylov.multithreads.repository.ReviewRepository;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = "dispatcher.poll-ms=3600000")
+class ReviewAggregatesTest {
+
+    private static final String URL = "https://example.com/product/agg";
+    private static final LocalDate DAY = LocalDate.of(2025, 3, 1);
+
+    @Autowired
+    private ReviewIngestor reviewIngestor;
+
+    @Autowired
+    private ReviewAggregates reviewAggregates;
+
+    @Autowired
+    private ReviewRepository reviewRepository;
+
+    @Autowired
+    private ReviewAggregateRepository reviewAggregateRepository;
+
+    @BeforeEach
+    void cleanDb() {
+        reviewRepository.deleteAll();
+        reviewAggregateRepository.deleteAll();
+    }
+
+    @Test
+    void countersFollowInsertedReviewsOnly() {
+        reviewIngestor.ingest(URL, reviews(0, 10));
+        // 5 из 10 уже сохранены - в счётчики попадают только новые
+        reviewIngestor.ingest(URL, reviews(5, 10));
+        reviewIngestor.ingest("https://example.com/other", reviews(0, 4));
+
+        var summary = reviewAggregates.summary(URL, null, null);
+
+        assertThat(summary.getTotal()).isEqualTo(15).isEqualTo(countReviews(URL));
+        assertThat(summary.getRatingHistogram()).containsEntry(1, 3L).containsEntry(5, 3L);
+        assertThat(summary.getRatingHistogram().values().stream().mapToLong(Long::longValue).sum()).isEqualTo(15);
+        assertThat(summary.getUndated()).isEqualTo(3);
+        assertThat(summary.getDays()).extracting(d -> d.getDay())
+                .containsExactly(DAY, DAY.plusDays(1), DAY.plusDays(2));
+        assertThat(summary.getDays().getFirst().getCount()).isEqualTo(4);
+
+        assertThat(reviewAggregates.summary(null, null, null).getTotal()).isEqualTo(19);
+    }
+
+    @Test
+    void dateRangeSelectsDaysAndSkipsUndated() {
+        reviewIngestor.ingest(URL, reviews(0, 15));
+
+        var summary = reviewAggregates.summary(URL, DAY.plusDays(1), DAY.plusDays(2));
+
+        assertThat(summary.getDays()).hasSize(1);
+        assertThat(summary.getDays().getFirst().getDay()).isEqualTo(DAY.plusDays(1));
+        assertThat(summary.getUndated()).isZero();
+        assertThat(summary.getTotal()).isEqualTo(summary.getDays().getFirst().getCount());
+    }
+
+    @Test
+    void undatedReviewsShareOneBucketRow() {
+        reviewIngestor.ingest(URL, List.of(new SourceStubController.RawReviewDto("u1", 5, "first", null)));
+        reviewIngestor.ingest(URL, List.of(new SourceStubController.RawReviewDto("u2", 5, "second", null)));
+
+        var rows = reviewAggregateRepository.findAll();
+        assertThat(rows).hasSize(1);
+        assertThat(rows.getFirst().getReviewDate()).isEqualTo(ReviewAggregate.UNDATED);
+        assertThat(rows.getFirst().getReviewCount()).isEqualTo(2);
+
+        // вторую строку той же корзины не пустит уникальный индекс, поэтому приращение не размножится
+        assertThatThrownBy(() -> reviewAggregateRepository.saveAndFlush(ReviewAggregate.builder()
+                .sourceUrl(URL)
+                .reviewDate(ReviewAggregate.UNDATED)
+                .rating(5)
+                .reviewCount(1)
+                .build()))
+                .isInstanceOf(DataIntegrityViolationException.class);
+
+        reviewIngestor.ingest(URL, List.of(new SourceStubController.RawReviewDto("u3", 5, "third", null)));
+
+        var summary = reviewAggregates.summary(URL, null, null);
+        assertThat(summary.getTotal()).isEqualTo(3);
+        assertThat(summary.getUndated()).isEqualTo(3);
+        assertThat(summary.getDays()).isEmpty();
+        assertThat(reviewAggregates.summary(URL, null, DAY).getTotal()).isZero();
+    }
+
+    @Test
+    void rebuildMatchesIncrementalCounters() {
+        reviewIngestor.ingest(URL, reviews(0, 15));
+        var incremental = reviewAggregates.summary(URL, null, null);
+
+        reviewAggregateRepository.rebuildFromReviews();
+        var rebuilt = reviewAggregates.summary(URL, null, null);
+
+        assertThat(rebuilt).usingRecursiveComparison().isEqualTo(incremental);
+    }
+
+    private long countReviews(String url) {
+        return reviewRepository.findAll().stream().filter(r -> r.getSourceUrl().equals(url)).count();
+    }
+
+    // каждый пятый без даты, остальные по трём дням; рейтинг по кругу 1..5
+    private static List<SourceStubController.RawReviewDto> reviews(int from, int count) {
+        return IntStream.range(from, from + count)
+                .mapToObj(i -> new SourceStubController.RawReviewDto(
+                        "agg" + i,
+                        i % 5 + 1,
+                        "text " + i,
+                        i % 5 == 4 ? null : DAY.plusDays(i % 3)))
+                .toList();
+    }
+}
@@ -0,0 +1,95 @@
+package ru.kopylov.multithreads.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import ru.kopylov.multithreads.model.Review;
+import ru.kopylov.multithreads.repository.ReviewRepository;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {"dispatcher.poll-ms=3600000", "export.fetch-size=3"})
+class ReviewExporterTest {
+
+    private static final Instant BASE = Instant.parse("2025-01-01T00:00:00Z");
+
+    @Autowired
+    private ReviewExporter reviewExporter;
+
+    @Autowired
+    private ReviewRepository reviewRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @BeforeEach
+    void fillDb() {
+        reviewRepository.deleteAll();
+        reviewRepository.saveAll(IntStream.range(0, 10)
+                .mapToObj(i -> Review.builder()
+                        .sourceUrl(i % 2 == 0 ? "https://example.com/a" : "https://example.com/b")
+                        .authorName("user" + i)
+                        .rating(i % 5 + 1)
+                        .text(i == 4 ? "с запятой, \"кавычками\"\nи переводом строки" : "text " + i)
+                        .createdAt(i == 6 ? null : LocalDate.of(2024, 12, 1 + i))
+                        .fetchedAt(BASE.plusSeconds(i * 60L))
+                        .build())
+                .toList());
+    }
+
+    @Test
+    void ndjsonContainsOneObjectPerLineInIdOrder() throws Exception {
+        var out = new ByteArrayOutputStream();
+
+        long rows = reviewExporter.export(ReviewExporter.Format.NDJSON, null, null, null, out);
+
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertThat(rows).isEqualTo(10);
+        assertThat(lines).hasSize(10);
+
+        var fourth = objectMapper.readTree(lines[4]);
+        assertThat(fourth.get("text").asString()).isEqualTo("с запятой, \"кавычками\"\nи переводом строки");
+        assertThat(fourth.get("fetchedAt").asString()).isEqualTo("2025-01-01T00:04:00Z");
+        assertThat(objectMapper.readTree(lines[6]).get("createdAt").isNull()).isTrue();
+        assertThat(objectMapper.readTree(lines[0]).get("id").asLong())
+                .isLessThan(objectMapper.readTree(lines[9]).get("id").asLong());
+    }
+
+    @Test
+    void csvFiltersBySourceAndTimeRange() throws Exception {
+        var out = new ByteArrayOutputStream();
+
+        long rows = reviewExporter.export(ReviewExporter.Format.CSV, "https://example.com/a",
+                BASE.plusSeconds(120), BASE.plusSeconds(480), out);
+
+        // i = 2, 4, 6; 8 уже за границей to
+        assertThat(rows).isEqualTo(3);
+        String csv = out.toString(StandardCharsets.UTF_8);
+        assertThat(csv).startsWith("id,sourceUrl,authorName,rating,text,createdAt,fetchedAt\r\n");
+        assertThat(csv).contains(",user2,3,text 2,2024-12-03,2025-01-01T00:02:00Z\r\n");
+        assertThat(csv).contains(",user4,5,\"с запятой, \"\"кавычками\"\"\nи переводом строки\",2024-12-05,");
+        assertThat(csv).contains(",user6,2,text 6,,2025-01-01T00:06:00Z\r\n");
+        assertThat(csv).doesNotContain("user8").doesNotContain("example.com/b");
+    }
+
+    @Test
+    void csvQuotesOnlyWhenNeeded() throws Exception {
+        var w = new StringWriter();
+        ReviewExporter.csv(w, "plain");
+        w.write('|');
+        ReviewExporter.csv(w, "a,b");
+        w.write('|');
+        ReviewExporter.csv(w, null);
+
+        assertThat(w.toString()).isEqualTo("plain|\"a,b\"|");
+    }
+}
@@ -0,0 +1,112 @@
+package ru.kopylov.multithreads.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import ru.kopylov.multithreads.controller.SourceStubController;
+import ru.kopylov.multithreads.model.Review;
+import ru.kopylov.multithreads.repository.ReviewRepository;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class ReviewIngestorTest {
+
+    @Autowired
+    private ReviewIngestor reviewIngestor;
+
+    @Autowired
+    private ReviewRepository reviewRepository;
+
+    @BeforeEach
+    void cleanDb() {
+        reviewRepository.deleteAll();
+    }
+
+    @Test
+    void bulkInsert_shouldSkipRowsAlreadyInDb() {
+        String url = "https://example.com/product/bulk";
+
+        var first = reviewIngestor.ingest(url, rawReviews(0, 5));
+        var second = reviewIngestor.ingest(url, rawReviews(3, 5));
+
+        assertThat(first.saved()).isEqualTo(5);
+        assertThat(second.saved()).isEqualTo(3);
+        assertThat(second.skipped()).isEqualTo(2);
+        assertThat(reviewRepository.count()).isEqualTo(8);
+
+        var stored = reviewRepository.findAll().getFirst();
+        assertThat(stored.getDedupKey().toBytes()).hasSize(32);
+        assertThat(stored.getFetchedAt()).isNotNull();
+        assertThat(stored.getCreatedAt()).isEqualTo(LocalDate.of(2025, 1, 1));
+    }
+
+    @Test
+    void bulkInsert_shouldRecover_whenRowWasInsertedBehindFiltersBack() {
+        String url = "https://example.com/product/bypass";
+        var raw = rawReviews(100, 1).getFirst();
+
+        // строка вставлена в обход ReviewIngestor, фильтр о ней не знает
+        reviewRepository.save(Review.builder()
+                .sourceUrl(url)
+                .authorName(raw.getAuthorName())
+                .rating(raw.getRating())
+                .text(raw.getText())
+                .createdAt(raw.getCreatedAt())
+                .build());
+
+        var res = reviewIngestor.ingest(url, rawReviews(100, 3));
+
+        assertThat(res.saved()).isEqualTo(2);
+        assertThat(reviewRepository.count()).isEqualTo(3);
+    }
+
+    @Test
+    void concurrentIngest_ofSameKeys_shouldStoreEachRowOnce() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            for (int round = 0; round < 5; round++) {
+                String url = "https://example.com/product/race-" + round;
+                CountDownLatch start = new CountDownLatch(1);
+
+                Future<ReviewIngestor.IngestResult> first = pool.submit(() -> {
+                    start.await();
+                    return reviewIngestor.ingest(url, rawReviews(0, 50));
+                });
+                Future<ReviewIngestor.IngestResult> second = pool.submit(() -> {
+                    start.await();
+                    return reviewIngestor.ingest(url, rawReviews(25, 50));
+                });
+                start.countDown();
+
+                var a = first.get(30, TimeUnit.SECONDS);
+                var b = second.get(30, TimeUnit.SECONDS);
+
+                assertThat(a.saved() + b.saved()).isEqualTo(75);
+                assertThat(a.skipped() + b.skipped()).isEqualTo(25);
+                assertThat(reviewRepository.findAll().stream()
+                        .filter(r -> r.getSourceUrl().equals(url))
+                        .count()).isEqualTo(75);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static List<SourceStubController.RawReviewDto> rawReviews(int from, int count) {
+        return IntStream.range(from, from + count)
+                .mapToObj(i -> new SourceStubController.RawReviewDto(
+                        "user" + i, 4, "text " + i, LocalDate.of(2025, 1, 1)))
+                .toList();
+    }
+}
@@ -0,0 +1,212 @@
+package ru.kopylov.multithreads.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import ru.kopylov.multithreads.controller.SourceStubController;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.kopylov.multithreads.dto.ReviewExportRow;
+import ru.kopylov.multithreads.model.Review;
+import ru.kopylov.multithreads.repository.ReviewRepository;
+import ru.kopylov.multithreads.util.DedupUtils;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SpringBootTest(properties = {
+        "dispatcher.poll-ms=3600000",
+        // догон индекса из БД вызывается в тестах явно
+        "search.index.catch-up-ms=3600000",
+})
+class ReviewSearchTest {
+
+    private static final String URL = "https://example.com/product/search";
+
+    @Autowired
+    private ReviewIngestor reviewIngestor;
+
+    @Autowired
+    private ReviewService reviewService;
+
+    @Autowired
+    private ReviewRepository reviewRepository;
+
+    @Autowired
+    private ReviewSearchIndex reviewSearchIndex;
+
+    // у каждого теста своё слово: индекс общий на контекст и не чистится между тестами
+    private final String tag = "метка" + UUID.randomUUID().toString().replace("-", "");
+
+    @Test
+    void findsReviewsWithAllWordsRankedByRelevance() {
+        reviewIngestor.ingest(URL, List.of(
+                raw("a1", 5, "Отличная игра, " + tag + " " + tag + " " + tag),
+                raw("a2", 4, "Длинный отзыв про игру: сюжет, музыка, графика и " + tag + ", в целом отличная"),
+                raw("a3", 3, "Плохая графика, " + tag),
+                raw("a4", 5, "Отличная игра без метки")));
+
+        var found = reviewService.searchReviews("ОТЛИЧНАЯ " + tag, null, 1, 5, "relevance", 20);
+
+        assertThat(found.totalHits()).isEqualTo(2);
+        assertThat(found.reviews()).extracting(Review::getAuthorName).containsExactly("a1", "a2");
+    }
+
+    @Test
+    void filtersBySourceAndRating() {
+        reviewIngestor.ingest(URL, List.of(raw("b1", 5, "ёлка " + tag), raw("b2", 2, "елка " + tag)));
+        reviewIngestor.ingest("https://example.com/other", List.of(raw("b3", 5, "Ёлка " + tag)));
+
+        assertThat(reviewService.searchReviews("ёлка " + tag, null, 1, 5, "relevance", 20).totalHits()).isEqualTo(3);
+        assertThat(reviewService.searchReviews("елка " + tag, URL, 4, 5, "relevance", 20).reviews())
+                .extracting(Review::getAuthorName).containsExactly("b1");
+        assertThat(reviewService.searchReviews(tag, "https://example.com/none", 1, 5, "relevance", 20).totalHits())
+                .isZero();
+    }
+
+    @Test
+    void recencyOrderAndDuplicatesIndexedOnce() throws InterruptedException {
+        reviewIngestor.ingest(URL, List.of(raw("c1", 5, "старый " + tag)));
+        Thread.sleep(5);
+        reviewIngestor.ingest(URL, List.of(raw("c2", 5, "новый " + tag)));
+        // повтор уже сохранённых: в БД не попадает, значит и в индекс тоже
+        reviewIngestor.ingest(URL, List.of(raw("c1", 5, "старый " + tag), raw("c2", 5, "новый " + tag)));
+
+        var found = reviewService.searchReviews(tag, null, 1, 5, "recency", 1);
+
+        assertThat(found.totalHits()).isEqualTo(2);
+        assertThat(found.reviews()).extracting(Review::getAuthorName).containsExactly("c2");
+    }
+
+    @Test
+    void intersectsLongAndShortPostingLists() {
+        var raws = new ArrayList<SourceStubController.RawReviewDto>();
+        for (int i = 0; i < 300; i++) {
+            raws.add(raw("d" + i, 5, tag + (i % 7 == 0 ? " редкое" + tag : "") + (i % 2 == 0 ? " чёт" + tag : "")));
+        }
+        reviewIngestor.ingest(URL, raws);
+
+        // кратные 14 из 0..299
+        assertThat(reviewService.searchReviews("чет" + tag + " " + tag + " редкое" + tag, null, 1, 5, "relevance", 100)
+                .totalHits()).isEqualTo(22);
+    }
+
+    @Test
+    void catchUpIndexesReviewsWrittenByOtherNodes() {
+        // запись другого узла: в БД есть, локальный ReviewIngestor о ней не знает
+        reviewRepository.saveAndFlush(Review.builder()
+                .sourceUrl("https://example.com/product/other-node")
+                .authorName("e1")
+                .rating(4)
+                .text("чужой узел " + tag)
+                .fetchedAt(Instant.now())
+                .dedupKey(DedupUtils.dedupKey("e1", null, 4, "чужой узел " + tag))
+                .build());
+        reviewIngestor.ingest(URL, List.of(raw("e2", 5, "свой узел " + tag)));
+        assertThat(reviewService.searchReviews(tag, null, 1, 5, "relevance", 20).totalHits()).isEqualTo(1);
+
+        reviewSearchIndex.catchUp();
+        // повторный догон не дублирует документы
+        reviewSearchIndex.catchUp();
+
+        assertThat(reviewService.searchReviews(tag, null, 1, 5, "relevance", 20).reviews())
+                .extracting(Review::getAuthorName).containsExactlyInAnyOrder("e1", "e2");
+    }
+
+    @Test
+    void failedWarmUpIsRetriedByCatchUp() {
+        ReviewRepository repository = mock(ReviewRepository.class);
+        when(repository.streamAfterId(anyLong(), anyInt()))
+                .thenThrow(new IllegalStateException("БД недоступна"))
+                .thenAnswer(inv -> Stream.of(new ReviewExportRow(1L, URL, "f1", 5, "прогрев " + tag,
+                        null, Instant.now())));
+        var index = new ReviewSearchIndex(repository,
+                new TransactionTemplate(mock(PlatformTransactionManager.class)), true, 10_000);
+
+        index.warmUp();
+        assertThat(index.isActive()).isFalse();
+
+        index.scheduledCatchUp();
+        assertThat(index.isActive()).isTrue();
+        assertThat(index.search(tag, null, 1, 5, ReviewSearchIndex.Order.RELEVANCE, 10).totalHits()).isEqualTo(1);
+    }
+
+    @Test
+    void catchUpRereadsIdsCommittedAfterLargerOnes() {
+        ReviewRepository repository = mock(ReviewRepository.class);
+        // id 2 ещё не закоммичен, когда догон читает 1 и 3
+        when(repository.streamAfterId(anyLong(), anyInt()))
+                .thenAnswer(inv -> Stream.of(row(1, "первый"), row(3, "третий")))
+                .thenAnswer(inv -> Stream.empty());
+        when(repository.findRowsByIdIn(List.of(2L))).thenReturn(List.of(row(2, "второй")));
+        var index = new ReviewSearchIndex(repository,
+                new TransactionTemplate(mock(PlatformTransactionManager.class)), true, 10_000);
+
+        assertThat(index.catchUp()).isEqualTo(2);
+        assertThat(index.catchUp()).isEqualTo(1);
+        // заполненный пропуск больше не перечитывается
+        assertThat(index.catchUp()).isZero();
+
+        assertThat(index.search(tag, null, 1, 5, ReviewSearchIndex.Order.RELEVANCE, 10).totalHits()).isEqualTo(3);
+        verify(repository, times(1)).findRowsByIdIn(any());
+    }
+
+    @Test
+    void addAllAcceptsIdsBeyondIntRange() {
+        ReviewRepository repository = mock(ReviewRepository.class);
+        when(repository.streamAfterId(anyLong(), anyInt())).thenAnswer(inv -> Stream.empty());
+        var index = new ReviewSearchIndex(repository,
+                new TransactionTemplate(mock(PlatformTransactionManager.class)), true, 10_000);
+        index.catchUp();
+
+        Review big = Review.builder()
+                .id(Integer.MAX_VALUE + 10L)
+                .sourceUrl(URL)
+                .authorName("big")
+                .rating(5)
+                .text("большой id " + tag)
+                .fetchedAt(Instant.now())
+                .build();
+        index.addAll(List.of(big));
+        index.addAll(List.of(big));
+
+        assertThat(index.search(tag, null, 1, 5, ReviewSearchIndex.Order.RELEVANCE, 10).hits())
+                .extracting(ReviewSearchIndex.Hit::id).containsExactly(Integer.MAX_VALUE + 10L);
+    }
+
+    @Test
+    void rejectsQueriesWithoutWords() {
+        assertThatThrownBy(() -> reviewService.searchReviews(" ! ", null, 1, 5, "relevance", 20))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> reviewService.searchReviews(tag, null, 1, 5, "random", 20))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void tokenizesLettersAndDigitsLowercase() {
+        assertThat(ReviewSearchIndex.tokenize("Ёлка, ОТЛИЧНАЯ! и 42-й уровень"))
+                .containsExactly("елка", "отличная", "42", "уровень");
+    }
+
+    private ReviewExportRow row(long id, String text) {
+        return new ReviewExportRow(id, URL, "g" + id, 5, text + " " + tag, null, Instant.now());
+    }
+
+    private static SourceStubController.RawReviewDto raw(String author, int rating, String text) {
+        return new SourceStubController.RawReviewDto(author, rating, text, LocalDate.of(2025, 5, 1));
+    }
+}
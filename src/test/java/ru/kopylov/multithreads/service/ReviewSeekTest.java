@@ -0,0 +1,100 @@
+package ru.kopylov.multithreads.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import ru.kopylov.multithreads.model.Review;
+import ru.kopylov.multithreads.repository.ReviewRepository;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = "dispatcher.poll-ms=3600000")
+class ReviewSeekTest {
+
+    @Autowired
+    private ReviewService reviewService;
+
+    @Autowired
+    private ReviewRepository reviewRepository;
+
+    @BeforeEach
+    void fillDb() {
+        reviewRepository.deleteAll();
+        Instant base = Instant.parse("2025-01-01T00:00:00Z");
+        // повторяющиеся рейтинги и даты, часть отзывов без createdAt: порядок держится на id
+        reviewRepository.saveAll(IntStream.range(0, 23)
+                .mapToObj(i -> Review.builder()
+                        .sourceUrl("https://example.com/seek")
+                        .authorName("user" + i)
+                        .rating(i % 5 + 1)
+                        .text("text " + i)
+                        .createdAt(i % 4 == 0 ? null : LocalDate.of(2025, 1, 1 + i % 3))
+                        .fetchedAt(base.plusSeconds(i / 2))
+                        .build())
+                .toList());
+    }
+
+    @Test
+    void walkingAllPagesMatchesFullSort() {
+        for (String sort : List.of("fetchedAt", "createdAt", "rating", "id")) {
+            for (String direction : List.of("asc", "desc")) {
+                assertThat(walk(sort, direction, 5))
+                        .as("%s %s", sort, direction)
+                        .isEqualTo(expected(sort, direction));
+            }
+        }
+    }
+
+    @Test
+    void totalIsCountedOnlyOnRequest() {
+        assertThat(reviewService.getReviewsAfter("id", "asc", null, 5, false).total()).isNull();
+        assertThat(reviewService.getReviewsAfter("id", "asc", null, 5, true).total()).isEqualTo(23);
+    }
+
+    @Test
+    void rejectsUnknownSortAndBrokenCursor() {
+        assertThatThrownBy(() -> reviewService.getReviewsAfter("text", "asc", null, 5, false))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> reviewService.getReviewsAfter("id", "asc", "not-a-cursor", 5, false))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private List<Long> walk(String sort, String direction, int size) {
+        List<Long> ids = new ArrayList<>();
+        String cursor = null;
+        do {
+            var slice = reviewService.getReviewsAfter(sort, direction, cursor, size, false);
+            slice.reviews().forEach(r -> ids.add(r.getId()));
+            cursor = slice.nextCursor();
+        } while (cursor != null);
+        return ids;
+    }
+
+    private List<Long> expected(String sort, String direction) {
+        boolean desc = direction.equals("desc");
+        Comparator<Review> cmp = switch (sort) {
+            case "fetchedAt" -> Comparator.comparing(Review::getFetchedAt, order(desc));
+            // отзывы без createdAt - в конце при любом направлении
+            case "createdAt" -> Comparator.comparing(Review::getCreatedAt, Comparator.nullsLast(order(desc)));
+            case "rating" -> Comparator.comparing(Review::getRating, order(desc));
+            default -> (a, b) -> 0;
+        };
+        return reviewRepository.findAll().stream()
+                .sorted(cmp.thenComparing(Review::getId, order(desc)))
+                .map(Review::getId)
+                .toList();
+    }
+
+    private static <T extends Comparable<? super T>> Comparator<T> order(boolean desc) {
+        return desc ? Comparator.reverseOrder() : Comparator.naturalOrder();
+    }
+}
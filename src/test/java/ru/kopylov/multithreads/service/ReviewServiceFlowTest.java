@@ -1,5 +1,6 @@
 package ru.kopylov.multithreads.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -8,20 +9,30 @@ import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.context.annotation.Bean;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import ru.kopylov.multithreads.controller.SourceStubController;
+import ru.kopylov.multithreads.model.ParseJob;
 import ru.kopylov.multithreads.model.ParseStatus;
 import ru.kopylov.multithreads.repository.ParseJobRepository;
 import ru.kopylov.multithreads.repository.ReviewRepository;
 
+import java.time.Instant;
 import java.time.LocalDate;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.when;
 
 @SpringBootTest(properties = {
         "spring.main.allow-bean-definition-overriding=true",
+        // очередь разбирается только синхронно из startParseAsync, фоновый опрос не вмешивается
+        "dispatcher.poll-ms=3600000",
+        // список источников для тега source задаётся в тестах явно
+        "scheduler.metrics-sources-refresh-ms=3600000",
         "parser.pages=3",
         "parser.per-page=5",
 })
@@ -53,6 +64,18 @@ class ReviewServiceFlowTest {
     @Autowired
     private ParseJobRepository parseJobRepository;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private JobDispatcher jobDispatcher;
+
+    @Autowired
+    private JobProgress jobProgress;
+
+    @Autowired
+    private ParserMetrics parserMetrics;
+
     @BeforeEach
     void cleanDb() {
         reviewRepository.deleteAll();
@@ -62,28 +85,267 @@ class ReviewServiceFlowTest {
     @Test
     void startParseAsync_shouldFinishSuccess_andSave15Reviews() {
         String url = "https://example.com/product/123";
+        stubSource(url);
+
+        UUID jobId = reviewService.startParseAsync(url);
+
+        var job = parseJobRepository.findById(jobId).orElseThrow();
+
+        assertThat(job.getStatus()).isEqualTo(ParseStatus.SUCCESS);
+        assertThat(job.getCreatedReviews()).isEqualTo(15);
+        assertThat(job.getAttempts()).isEqualTo(1);
+        assertThat(job.getLeaseOwner()).isNull();
+        assertThat(reviewRepository.count()).isEqualTo(15);
+    }
+
+    @Test
+    void startParseAsync_shouldRecordJobMetrics() {
+        String url = "https://example.com/product/metrics";
+        stubSource(url);
+        parserMetrics.knownSources(List.of(url));
+
+        reviewService.startParseAsync(url);
 
-        when(sourceClient.fetchRawReviews(eq(url), anyInt(), anyInt()))
+        assertThat(meterRegistry.get("parser.job.duration")
+                .tags("source", url, "outcome", "success").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("parser.reviews.saved").tag("source", url).counter().count()).isEqualTo(15);
+        assertThat(meterRegistry.get("parser.job.queue.wait").timer().count()).isGreaterThanOrEqualTo(1);
+    }
+
+    @Test
+    void startParseAsync_shouldReportProgressPhases() {
+        String url = "https://example.com/product/progress";
+        stubSource(url);
+
+        UUID jobId = reviewService.startParseAsync(url);
+
+        var progress = jobProgress.snapshot(jobId);
+        assertThat(progress.status()).isEqualTo(ParseStatus.SUCCESS);
+        assertThat(progress.pagesDone()).isEqualTo(3);
+        assertThat(progress.raw()).isEqualTo(15);
+        assertThat(progress.saved()).isEqualTo(15);
+        assertThat(progress.phaseMillis()).containsKeys("FETCH", "SAVE");
+    }
+
+    @Test
+    void poll_shouldRequeueExpiredLease_andRunJobAgain() {
+        String url = "https://example.com/product/expired";
+        stubSource(url);
+
+        // задача, которую забрал упавший узел
+        UUID jobId = UUID.randomUUID();
+        parseJobRepository.saveAndFlush(ParseJob.builder()
+                .id(jobId)
+                .sourceUrl(url)
+                .status(ParseStatus.RUNNING)
+                .createdAt(Instant.now().minusSeconds(600))
+                .leaseOwner("dead-node")
+                .leaseUntil(Instant.now().minusSeconds(1))
+                .attempts(1)
+                .build());
+
+        jobDispatcher.poll();
+
+        var job = parseJobRepository.findById(jobId).orElseThrow();
+        assertThat(job.getStatus()).isEqualTo(ParseStatus.SUCCESS);
+        assertThat(job.getAttempts()).isEqualTo(2);
+        assertThat(job.getCreatedReviews()).isEqualTo(15);
+    }
+
+    @Test
+    void runner_shouldKeepNewOwnersState_whenLeaseIsTakenOverMidRun() {
+        String url = "https://example.com/product/takeover";
+        AtomicBoolean takenOver = new AtomicBoolean();
+        when(sourceClient.fetchRawReviews(eq(url), anyInt(), anyInt(), any()))
                 .thenAnswer(inv -> {
-                    int count = inv.getArgument(1);
-                    int page  = inv.getArgument(2);
-
-                    return java.util.stream.IntStream.range(0, count)
-                            .mapToObj(i -> new SourceStubController.RawReviewDto(
-                                    "testUser_p" + page + "_" + i,
-                                    5,
-                                    "test text p=" + page + " i=" + i,
-                                    LocalDate.now().minusDays(1)
-                            ))
-                            .toList();
+                    if (takenOver.compareAndSet(false, true)) {
+                        // аренда истекла, задачу вернули в очередь, и её забрал другой узел
+                        ParseJob running = parseJobRepository.findAll().stream()
+                                .filter(j -> j.getSourceUrl().equals(url))
+                                .findFirst().orElseThrow();
+                        running.setLeaseOwner("other-node");
+                        running.setLeaseUntil(Instant.now().plusSeconds(60));
+                        running.setAttempts(running.getAttempts() + 1);
+                        parseJobRepository.saveAndFlush(running);
+                    }
+                    return page(inv.getArgument(1), inv.getArgument(2));
                 });
 
         UUID jobId = reviewService.startParseAsync(url);
 
         var job = parseJobRepository.findById(jobId).orElseThrow();
+        assertThat(job.getStatus()).isEqualTo(ParseStatus.RUNNING);
+        assertThat(job.getLeaseOwner()).isEqualTo("other-node");
+        assertThat(job.getAttempts()).isEqualTo(2);
+        assertThat(job.getFinishedAt()).isNull();
+        assertThat(job.getCreatedReviews()).isNull();
+        assertThat(meterRegistry.get("parser.job.duration")
+                .tags("source", "other", "outcome", "lease_lost").timer().count()).isEqualTo(1);
+        assertThat(jobProgress.snapshot(jobId)).isNull();
+    }
+
+    @Test
+    void poll_shouldFailJob_whenLeaseExpiredAndAttemptsExhausted() {
+        UUID jobId = UUID.randomUUID();
+        parseJobRepository.saveAndFlush(ParseJob.builder()
+                .id(jobId)
+                .sourceUrl("https://example.com/product/stuck")
+                .status(ParseStatus.RUNNING)
+                .createdAt(Instant.now().minusSeconds(600))
+                .leaseOwner("dead-node")
+                .leaseUntil(Instant.now().minusSeconds(1))
+                .attempts(3)
+                .build());
+
+        jobDispatcher.poll();
+
+        var job = parseJobRepository.findById(jobId).orElseThrow();
+        assertThat(job.getStatus()).isEqualTo(ParseStatus.FAILED);
+        assertThat(job.getLeaseOwner()).isNull();
+        assertThat(job.getFinishedAt()).isNotNull();
+    }
+
+    @Test
+    void startParseAsync_shouldAttachToRunningJobOfSameSource() {
+        String url = "https://example.com/product/busy";
+
+        UUID runningId = UUID.randomUUID();
+        parseJobRepository.saveAndFlush(ParseJob.builder()
+                .id(runningId)
+                .sourceUrl(url)
+                .sourceKey(url)
+                .status(ParseStatus.RUNNING)
+                .createdAt(Instant.now())
+                .leaseOwner("other-node")
+                .leaseUntil(Instant.now().plusSeconds(60))
+                .attempts(1)
+                .build());
+
+        UUID jobId = reviewService.startParseAsync(" " + url);
+
+        assertThat(jobId).isEqualTo(runningId);
+        assertThat(parseJobRepository.count()).isEqualTo(1);
+        assertThat(parseJobRepository.findById(runningId).orElseThrow().getErrorMessage()).isNull();
+    }
+
+    @Test
+    void startParseBatch_shouldCreateJobsTogether_andReportBatchStatus() {
+        String a = "https://example.com/product/batch-a";
+        String b = "https://example.com/product/batch-b";
+        String busy = "https://example.com/product/batch-busy";
+        stubSource(a);
+        stubSource(b);
+
+        UUID runningId = UUID.randomUUID();
+        parseJobRepository.saveAndFlush(ParseJob.builder()
+                .id(runningId)
+                .sourceUrl(busy)
+                .sourceKey(busy)
+                .status(ParseStatus.RUNNING)
+                .createdAt(Instant.now())
+                .leaseOwner("other-node")
+                .leaseUntil(Instant.now().plusSeconds(60))
+                .attempts(1)
+                .build());
+
+        var batch = reviewService.startParseBatch(List.of(a, b, " " + a, busy));
+
+        // повтор источника - та же задача, источник с выполняющейся задачей присоединён к ней
+        assertThat(batch.jobIds()).hasSize(4);
+        assertThat(batch.jobIds().get(2)).isEqualTo(batch.jobIds().get(0));
+        assertThat(batch.jobIds().get(3)).isEqualTo(runningId);
+        assertThat(parseJobRepository.count()).isEqualTo(3);
+
+        var status = reviewService.getBatch(batch.batchId(), true);
+        assertThat(status.total()).isEqualTo(3);
+        assertThat(status.counts()).containsEntry(ParseStatus.SUCCESS, 2L).containsEntry(ParseStatus.RUNNING, 1L);
+        assertThat(status.createdReviews()).isEqualTo(30);
+        assertThat(status.finished()).isFalse();
+        assertThat(status.jobs()).extracting(ParseJob::getId).contains(runningId, batch.jobIds().get(1));
+
+        assertThatThrownBy(() -> reviewService.getBatch(UUID.randomUUID(), false))
+                .isInstanceOf(NoSuchElementException.class);
+    }
 
+    @Test
+    void dispatch_shouldNotStartQueuedJob_whileSourceHasRunningJob() {
+        String url = "https://example.com/product/follow-up";
+        stubSource(url);
+
+        parseJobRepository.saveAndFlush(ParseJob.builder()
+                .id(UUID.randomUUID())
+                .sourceUrl(url)
+                .sourceKey(url)
+                .status(ParseStatus.RUNNING)
+                .createdAt(Instant.now())
+                .leaseOwner("other-node")
+                .leaseUntil(Instant.now().plusSeconds(60))
+                .attempts(1)
+                .build());
+        UUID followUpId = UUID.randomUUID();
+        parseJobRepository.saveAndFlush(ParseJob.builder()
+                .id(followUpId)
+                .sourceUrl(url)
+                .sourceKey(url)
+                .status(ParseStatus.QUEUED)
+                .createdAt(Instant.now())
+                .build());
+
+        jobDispatcher.dispatch();
+
+        assertThat(parseJobRepository.findById(followUpId).orElseThrow().getStatus()).isEqualTo(ParseStatus.QUEUED);
+        assertThat(reviewService.startParseAsync(url)).isEqualTo(followUpId);
+    }
+
+    @Test
+    void startParseAsync_shouldDeferJob_whenHostIsUnavailable_andRunItLater() {
+        String url = "https://example.com/product/throttled";
+        when(sourceClient.fetchRawReviews(eq(url), anyInt(), anyInt(), any()))
+                .thenThrow(new HostThrottle.HostUnavailableException("localhost", "open", 60_000_000_000L));
+
+        UUID jobId = reviewService.startParseAsync(url);
+
+        var deferred = parseJobRepository.findById(jobId).orElseThrow();
+        assertThat(deferred.getStatus()).isEqualTo(ParseStatus.QUEUED);
+        assertThat(deferred.getNotBefore()).isAfter(Instant.now());
+        assertThat(deferred.getLeaseOwner()).isNull();
+        assertThat(deferred.getErrorMessage()).contains("localhost");
+        // очередь после возврата отсчитывается от notBefore, а не от создания задачи
+        assertThat(deferred.getRequeuedAt()).isNotNull();
+        assertThat(deferred.queuedSince()).isEqualTo(deferred.getNotBefore());
+        // источника нет в sources - произвольный URL не порождает свой ряд метрик
+        assertThat(meterRegistry.get("parser.job.duration")
+                .tags("source", "other", "outcome", "deferred").timer().count()).isEqualTo(1);
+
+        // до notBefore задачу никто не забирает
+        stubSource(url);
+        jobDispatcher.poll();
+        assertThat(parseJobRepository.findById(jobId).orElseThrow().getStatus()).isEqualTo(ParseStatus.QUEUED);
+
+        deferred = parseJobRepository.findById(jobId).orElseThrow();
+        deferred.setNotBefore(Instant.now().minusSeconds(1));
+        parseJobRepository.save(deferred);
+        jobDispatcher.poll();
+
+        var job = parseJobRepository.findById(jobId).orElseThrow();
         assertThat(job.getStatus()).isEqualTo(ParseStatus.SUCCESS);
+        assertThat(job.getErrorMessage()).isNull();
         assertThat(job.getCreatedReviews()).isEqualTo(15);
-        assertThat(reviewRepository.count()).isEqualTo(15);
+    }
+
+    private void stubSource(String url) {
+        when(sourceClient.fetchRawReviews(eq(url), anyInt(), anyInt(), any()))
+                .thenAnswer(inv -> page(inv.getArgument(1), inv.getArgument(2)));
+    }
+
+    private static List<SourceStubController.RawReviewDto> page(int count, int page) {
+        return java.util.stream.IntStream.range(0, count)
+                .mapToObj(i -> new SourceStubController.RawReviewDto(
+                        "testUser_p" + page + "_" + i,
+                        5,
+                        "test text p=" + page + " i=" + i,
+                        LocalDate.now().minusDays(1)
+                ))
+                .toList();
     }
 }
\ No newline at end of file
@@ -0,0 +1,45 @@
+package ru.kopylov.multithreads.service;
+
+import org.junit.jupiter.api.Test;
+import ru.kopylov.multithreads.model.ParseJob;
+import ru.kopylov.multithreads.model.ParseStatus;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ScheduledParserTest {
+
+    // base=30, min=15, max=600
+    private final ScheduledParser scheduler = new ScheduledParser(null, null, null, null, null, null, 30, 15, 600, 0.2, 16);
+
+    @Test
+    void nextInterval_shouldSpeedUpActiveSources_andBackOffQuietOnes() {
+        assertThat(scheduler.nextInterval(120, 0, job(ParseStatus.SUCCESS, 7))).isEqualTo(60);
+        assertThat(scheduler.nextInterval(20, 0, job(ParseStatus.SUCCESS, 7))).isEqualTo(15);
+
+        assertThat(scheduler.nextInterval(120, 0, job(ParseStatus.SUCCESS, 0))).isEqualTo(240);
+        assertThat(scheduler.nextInterval(480, 0, job(ParseStatus.SUCCESS, 0))).isEqualTo(600);
+
+        // первый обход - интервал не меняется
+        assertThat(scheduler.nextInterval(30, 0, null)).isEqualTo(30);
+    }
+
+    @Test
+    void nextInterval_shouldBackOffExponentially_onConsecutiveFailures() {
+        ParseJob failed = job(ParseStatus.FAILED, null);
+
+        int f1 = ScheduledParser.nextFailures(null, failed);
+        int f2 = ScheduledParser.nextFailures(f1, failed);
+        int f3 = ScheduledParser.nextFailures(f2, failed);
+
+        assertThat(scheduler.nextInterval(30, f1, failed)).isEqualTo(60);
+        assertThat(scheduler.nextInterval(30, f2, failed)).isEqualTo(120);
+        assertThat(scheduler.nextInterval(30, f3, failed)).isEqualTo(240);
+        assertThat(scheduler.nextInterval(30, 40, failed)).isEqualTo(600);
+
+        assertThat(ScheduledParser.nextFailures(f3, job(ParseStatus.SUCCESS, 0))).isZero();
+    }
+
+    private static ParseJob job(ParseStatus status, Integer created) {
+        return ParseJob.builder().status(status).createdReviews(created).build();
+    }
+}
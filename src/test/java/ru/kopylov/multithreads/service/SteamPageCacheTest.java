@@ -0,0 +1,61 @@
+package ru.kopylov.multithreads.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SteamPageCacheTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    void servesRepeatedPageUntilTtlExpires() {
+        var cache = new SteamPageCache(true, 60, 1 << 20, now::get);
+        String key = SteamPageCache.key("730", "*", 100);
+
+        assertThat(cache.get(key)).isNull();
+        cache.put(key, new byte[]{1, 2, 3});
+        assertThat(cache.get(key)).containsExactly(1, 2, 3);
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(61));
+        assertThat(cache.get(key)).isNull();
+
+        assertThat(cache.hits()).isEqualTo(1);
+        assertThat(cache.misses()).isEqualTo(2);
+        assertThat(cache.hitRatio()).isEqualTo(1.0 / 3);
+        assertThat(cache.size()).isZero();
+        assertThat(cache.sizeBytes()).isZero();
+    }
+
+    @Test
+    void evictsLeastRecentlyReadPagesOverMaxBytes() {
+        // ровно две записи по 1000 байт тела
+        long entry = 1000 + 2L * SteamPageCache.key("1", "*", 10).length() + 96;
+        var cache = new SteamPageCache(true, 60, 2 * entry, now::get);
+
+        cache.put(SteamPageCache.key("1", "*", 10), new byte[1000]);
+        cache.put(SteamPageCache.key("2", "*", 10), new byte[1000]);
+        // первая страница прочитана позже второй - вытеснена будет вторая
+        assertThat(cache.get(SteamPageCache.key("1", "*", 10))).isNotNull();
+        cache.put(SteamPageCache.key("3", "*", 10), new byte[1000]);
+
+        assertThat(cache.get(SteamPageCache.key("2", "*", 10))).isNull();
+        assertThat(cache.get(SteamPageCache.key("1", "*", 10))).isNotNull();
+        assertThat(cache.get(SteamPageCache.key("3", "*", 10))).isNotNull();
+        assertThat(cache.evictions()).isEqualTo(1);
+        assertThat(cache.sizeBytes()).isEqualTo(2 * entry);
+    }
+
+    @Test
+    void disabledCacheStoresNothing() {
+        var cache = new SteamPageCache(false, 60, 1 << 20, now::get);
+
+        cache.put("k", new byte[]{1});
+
+        assertThat(cache.get("k")).isNull();
+        assertThat(cache.size()).isZero();
+    }
+}
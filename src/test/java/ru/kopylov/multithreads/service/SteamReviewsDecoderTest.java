@@ -0,0 +1,105 @@
+package ru.kopylov.multithreads.service;
+
+import org.junit.jupiter.api.Test;
+import ru.kopylov.multithreads.controller.SourceStubController.RawReviewDto;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SteamReviewsDecoderTest {
+
+    private static final String PAGE = """
+            {
+              "success": 1,
+              "query_summary": {"num_reviews": 3, "review_score_desc": "Very Positive"},
+              "reviews": [
+                {
+                  "recommendationid": "101",
+                  "author": {"steamid": "76561198000000001", "num_games_owned": 10, "last_played": 1700000000},
+                  "language": "russian",
+                  "review": "отличная \\"игра\\"",
+                  "timestamp_created": 1700000100,
+                  "voted_up": true,
+                  "reactions": [{"type": 1, "count": 2}]
+                },
+                {
+                  "recommendationid": "100",
+                  "author": {"steamid": "76561198000000002"},
+                  "review": "так себе",
+                  "timestamp_created": 1700000050,
+                  "voted_up": false
+                },
+                {
+                  "recommendationid": "99",
+                  "review": "без автора",
+                  "timestamp_created": 1699913600,
+                  "voted_up": true
+                }
+              ],
+              "cursor": "AoJ4"
+            }
+            """;
+
+    @Test
+    void decodesReviewsAndSkipsUnknownFields() {
+        var page = decode(PAGE, SteamReviewsClient.ReviewFilter.ALL);
+
+        assertThat(page.nextCursor()).isEqualTo("AoJ4");
+        assertThat(page.total()).isEqualTo(3);
+        assertThat(page.reviews()).hasSize(3);
+
+        var first = page.reviews().getFirst();
+        assertThat(first.getAuthorName()).isEqualTo("76561198000000001");
+        assertThat(first.getRating()).isEqualTo(5);
+        assertThat(first.getText()).isEqualTo("отличная \"игра\"");
+        assertThat(first.getCreatedAt()).isEqualTo(LocalDate.of(2023, 11, 14));
+
+        assertThat(page.reviews().get(1).getRating()).isEqualTo(1);
+        assertThat(page.reviews().get(2).getAuthorName()).isEqualTo("unknown");
+        assertThat(page.reviews().get(2).getCreatedAt()).isEqualTo(LocalDate.of(2023, 11, 13));
+    }
+
+    @Test
+    void filterSeesEveryReviewButOnlyAcceptedAreKept() {
+        List<String> seen = new ArrayList<>();
+        var page = decode(PAGE, (id, ts) -> {
+            seen.add(id);
+            return !id.equals("100");
+        });
+
+        assertThat(seen).containsExactly("101", "100", "99");
+        assertThat(page.total()).isEqualTo(3);
+        assertThat(page.reviews()).extracting(RawReviewDto::getText).containsExactly("отличная \"игра\"", "без автора");
+    }
+
+    @Test
+    void cachingBodyCopiesWholeResponseWhileDecoding() throws Exception {
+        byte[] body = (PAGE + "\n\n").getBytes(StandardCharsets.UTF_8);
+        var tee = new SteamReviewsClient.CachingBody(new ByteArrayInputStream(body));
+
+        var page = SteamReviewsDecoder.decode(tee, SteamReviewsClient.ReviewFilter.ALL);
+        tee.close();
+
+        assertThat(page.reviews()).hasSize(3);
+        assertThat(tee.bytes()).isEqualTo(body);
+        assertThat(decode(new String(tee.bytes(), StandardCharsets.UTF_8), SteamReviewsClient.ReviewFilter.ALL)
+                .reviews()).hasSize(3);
+    }
+
+    @Test
+    void rejectsUnsuccessfulResponse() {
+        assertThatThrownBy(() -> decode("{\"success\": 2, \"reviews\": []}", SteamReviewsClient.ReviewFilter.ALL))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("success=2");
+    }
+
+    private static SteamReviewsClient.SteamPage decode(String json, SteamReviewsClient.ReviewFilter filter) {
+        return SteamReviewsDecoder.decode(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), filter);
+    }
+}
@@ -0,0 +1,228 @@
+package ru.kopylov.multithreads.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.stubbing.Answer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import ru.kopylov.multithreads.controller.SourceStubController;
+import ru.kopylov.multithreads.model.ParseStatus;
+import ru.kopylov.multithreads.repository.ParseJobRepository;
+import ru.kopylov.multithreads.repository.ReviewRepository;
+import ru.kopylov.multithreads.repository.SteamWatermarkRepository;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@SpringBootTest(properties = {
+        "spring.main.allow-bean-definition-overriding=true",
+        // очередь разбирается только синхронно из startParseAsync, фоновый опрос не вмешивается
+        "dispatcher.poll-ms=3600000",
+        "parser.pages=3",
+        "parser.per-page=5",
+        "parser.streaming.enabled=true",
+        "parser.streaming.window=1",
+})
+class StreamingParseFlowTest {
+
+    @TestConfiguration
+    static class TestExecutorsConfig {
+
+        @Bean(name = "parserExecutor")
+        public ExecutorService parserExecutor() {
+            return new DirectExecutorService();
+        }
+
+        @Bean(name = "pageExecutor")
+        public ExecutorService pageExecutor() {
+            return new DirectExecutorService();
+        }
+    }
+
+    @MockitoBean
+    private SourceClient sourceClient;
+
+    @MockitoBean
+    private SteamReviewsClient steamReviewsClient;
+
+    @Autowired
+    private ReviewService reviewService;
+
+    @Autowired
+    private ReviewRepository reviewRepository;
+
+    @Autowired
+    private ParseJobRepository parseJobRepository;
+
+    @Autowired
+    private SteamWatermarkRepository steamWatermarkRepository;
+
+    @BeforeEach
+    void cleanDb() {
+        reviewRepository.deleteAll();
+        parseJobRepository.deleteAll();
+        steamWatermarkRepository.deleteAll();
+
+        when(steamReviewsClient.sourceKey(anyString())).thenCallRealMethod();
+    }
+
+    @Test
+    void streaming_shouldPersistEveryPage_andSkipDuplicatesAcrossPages() {
+        String url = "https://example.com/product/streaming";
+
+        // страницы 0 и 1 отдают одинаковые отзывы, страница 2 — свои
+        when(sourceClient.fetchRawReviews(eq(url), anyInt(), anyInt()))
+                .thenAnswer(inv -> {
+                    int count = inv.getArgument(1);
+                    int page  = inv.getArgument(2);
+                    int group = page < 2 ? 0 : 1;
+
+                    return java.util.stream.IntStream.range(0, count)
+                            .mapToObj(i -> new SourceStubController.RawReviewDto(
+                                    "testUser_g" + group + "_" + i,
+                                    4,
+                                    "test text g=" + group + " i=" + i,
+                                    LocalDate.now().minusDays(1)
+                            ))
+                            .toList();
+                });
+
+        UUID jobId = reviewService.startParseAsync(url);
+
+        var job = parseJobRepository.findById(jobId).orElseThrow();
+
+        assertThat(job.getStatus()).isEqualTo(ParseStatus.SUCCESS);
+        assertThat(job.getCreatedReviews()).isEqualTo(10);
+        assertThat(reviewRepository.count()).isEqualTo(10);
+    }
+
+    @Test
+    void steamPipeline_shouldFollowCursor_andPersistEveryPage() {
+        String url = "https://store.steampowered.com/app/730/";
+
+        when(steamReviewsClient.supports(url)).thenReturn(true);
+        when(steamReviewsClient.extractAppId(url)).thenReturn("730");
+        when(steamReviewsClient.fetchPage(eq(url), eq("*"), anyInt(), any())).thenAnswer(steamPage("c1", 0, 5));
+        when(steamReviewsClient.fetchPage(eq(url), eq("c1"), anyInt(), any())).thenAnswer(steamPage("c2", 5, 5));
+        when(steamReviewsClient.fetchPage(eq(url), eq("c2"), anyInt(), any())).thenAnswer(steamPage("c2", 0, 0));
+
+        UUID jobId = reviewService.startParseAsync(url);
+
+        var job = parseJobRepository.findById(jobId).orElseThrow();
+
+        assertThat(job.getStatus()).isEqualTo(ParseStatus.SUCCESS);
+        assertThat(job.getCreatedReviews()).isEqualTo(10);
+        assertThat(reviewRepository.count()).isEqualTo(10);
+    }
+
+    @Test
+    void steamPipeline_shouldStopAtHighWaterMark_onRecrawl() {
+        String url = "https://store.steampowered.com/app/570/";
+
+        when(steamReviewsClient.supports(url)).thenReturn(true);
+        when(steamReviewsClient.extractAppId(url)).thenReturn("570");
+        // от новых к старым, как при filter=recent
+        when(steamReviewsClient.fetchPage(eq(url), eq("*"), anyInt(), any())).thenAnswer(recentPage("c1", 100, 5));
+        when(steamReviewsClient.fetchPage(eq(url), eq("c1"), anyInt(), any())).thenAnswer(recentPage("c2", 95, 5));
+        when(steamReviewsClient.fetchPage(eq(url), eq("c2"), anyInt(), any())).thenAnswer(recentPage("c2", 90, 0));
+
+        var first = parseJobRepository.findById(reviewService.startParseAsync(url)).orElseThrow();
+        assertThat(first.getCreatedReviews()).isEqualTo(10);
+        assertThat(steamWatermarkRepository.findById("steam:570").orElseThrow().getNewestCreatedAt())
+                .isEqualTo(1_700_000_100L);
+
+        // появился один новый отзыв, остальные на первой странице уже собраны
+        clearInvocations(steamReviewsClient);
+        when(steamReviewsClient.fetchPage(eq(url), eq("*"), anyInt(), any())).thenAnswer(recentPage("c1", 101, 5));
+
+        var second = parseJobRepository.findById(reviewService.startParseAsync(url)).orElseThrow();
+
+        assertThat(second.getStatus()).isEqualTo(ParseStatus.SUCCESS);
+        assertThat(second.getCreatedReviews()).isEqualTo(1);
+        assertThat(reviewRepository.count()).isEqualTo(11);
+        verify(steamReviewsClient, times(1)).fetchPage(eq(url), anyString(), anyInt(), any());
+        assertThat(steamWatermarkRepository.findById("steam:570").orElseThrow().getBoundaryIds()).isEqualTo("r101");
+    }
+
+    @Test
+    void steamPipeline_shouldKeepMark_andResumeFromCursor_whenPageLimitHitBeforeMark() {
+        String url = "https://store.steampowered.com/app/440/";
+
+        when(steamReviewsClient.supports(url)).thenReturn(true);
+        when(steamReviewsClient.extractAppId(url)).thenReturn("440");
+        when(steamReviewsClient.fetchPage(eq(url), eq("*"), anyInt(), any())).thenAnswer(recentPage("c1", 100, 5));
+        when(steamReviewsClient.fetchPage(eq(url), eq("c1"), anyInt(), any())).thenAnswer(recentPage("c1", 95, 0));
+        reviewService.startParseAsync(url);
+        assertThat(steamWatermarkRepository.findById("steam:440").orElseThrow().getNewestCreatedAt())
+                .isEqualTo(1_700_000_100L);
+
+        // вышло 15 новых отзывов: три страницы лимита кончаются раньше старой границы
+        when(steamReviewsClient.fetchPage(eq(url), eq("*"), anyInt(), any())).thenAnswer(recentPage("g1", 115, 5));
+        when(steamReviewsClient.fetchPage(eq(url), eq("g1"), anyInt(), any())).thenAnswer(recentPage("g2", 110, 5));
+        when(steamReviewsClient.fetchPage(eq(url), eq("g2"), anyInt(), any())).thenAnswer(recentPage("g3", 105, 5));
+
+        var second = parseJobRepository.findById(reviewService.startParseAsync(url)).orElseThrow();
+        assertThat(second.getCreatedReviews()).isEqualTo(15);
+
+        var gap = steamWatermarkRepository.findById("steam:440").orElseThrow();
+        assertThat(gap.getNewestCreatedAt()).isEqualTo(1_700_000_100L);
+        assertThat(gap.getResumeCursor()).isEqualTo("g3");
+        assertThat(gap.getResumeNewestCreatedAt()).isEqualTo(1_700_000_115L);
+
+        // следующий обход продолжает разрыв с курсора и, дойдя до старой границы, сдвигает её
+        clearInvocations(steamReviewsClient);
+        when(steamReviewsClient.fetchPage(eq(url), eq("g3"), anyInt(), any())).thenAnswer(recentPage("g4", 100, 5));
+
+        var third = parseJobRepository.findById(reviewService.startParseAsync(url)).orElseThrow();
+        assertThat(third.getStatus()).isEqualTo(ParseStatus.SUCCESS);
+        verify(steamReviewsClient, never()).fetchPage(eq(url), eq("*"), anyInt(), any());
+
+        var closed = steamWatermarkRepository.findById("steam:440").orElseThrow();
+        assertThat(closed.getNewestCreatedAt()).isEqualTo(1_700_000_115L);
+        assertThat(closed.getBoundaryIds()).isEqualTo("r115");
+        assertThat(closed.getResumeCursor()).isNull();
+        assertThat(reviewRepository.count()).isEqualTo(20);
+    }
+
+    private static Answer<SteamReviewsClient.SteamPage> recentPage(String cursor, int newest, int count) {
+        return page(cursor, java.util.stream.IntStream.range(0, count)
+                .mapToObj(i -> {
+                    int n = newest - i;
+                    return new FakeReview("r" + n, 1_700_000_000L + n, "7656119900000" + n, true, "recent review " + n);
+                })
+                .toList());
+    }
+
+    private static Answer<SteamReviewsClient.SteamPage> steamPage(String cursor, int from, int count) {
+        return page(cursor, java.util.stream.IntStream.range(from, from + count)
+                .mapToObj(i -> new FakeReview(null, 1_700_000_000L + i, "7656119800000" + i, i % 2 == 0,
+                        "steam review " + i))
+                .toList());
+    }
+
+    /**
+     * Как SteamReviewsDecoder: фильтр вызывается для каждого отзыва ответа, в страницу попадают принятые.
+     */
+    private static Answer<SteamReviewsClient.SteamPage> page(String cursor, List<FakeReview> reviews) {
+        return inv -> {
+            SteamReviewsClient.ReviewFilter filter = inv.getArgument(3);
+            var accepted = reviews.stream()
+                    .filter(r -> filter.accept(r.id(), r.createdAt()))
+                    .map(r -> new SourceStubController.RawReviewDto(r.author(), r.votedUp() ? 5 : 1, r.text(),
+                            LocalDate.ofEpochDay(Math.floorDiv(r.createdAt(), 86_400))))
+                    .toList();
+            return new SteamReviewsClient.SteamPage(cursor, accepted, reviews.size());
+        };
+    }
+
+    private record FakeReview(String id, long createdAt, String author, boolean votedUp, String text) {}
+}
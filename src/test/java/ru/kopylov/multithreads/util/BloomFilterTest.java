@@ -0,0 +1,38 @@
+package ru.kopylov.multithreads.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BloomFilterTest {
+
+    @Test
+    void shouldHaveNoFalseNegatives_andStayNearTargetFpp() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        SplittableRandom rnd = new SplittableRandom(1);
+
+        long[][] inserted = new long[10_000][2];
+        for (long[] h : inserted) {
+            h[0] = rnd.nextLong();
+            h[1] = rnd.nextLong();
+            filter.put(h[0], h[1]);
+        }
+        for (long[] h : inserted) {
+            assertThat(filter.mightContain(h[0], h[1])).isTrue();
+        }
+
+        int falsePositives = 0;
+        int probes = 100_000;
+        for (int i = 0; i < probes; i++) {
+            if (filter.mightContain(rnd.nextLong(), rnd.nextLong())) {
+                falsePositives++;
+            }
+        }
+
+        assertThat((double) falsePositives / probes).isLessThan(0.02);
+        assertThat(filter.expectedFpp()).isLessThan(0.02);
+        assertThat(filter.memoryBytes()).isLessThan(16_000);
+    }
+}
@@ -0,0 +1,35 @@
+package ru.kopylov.multithreads.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.LocalDate;
+import java.util.HexFormat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DedupUtilsTest {
+
+    @Test
+    void dedupKey_shouldMatchSha256OfConcatenatedFields() throws Exception {
+        String text = "Отличная игра 👍 ".repeat(200) + "\uD800 одиночный суррогат";
+        LocalDate date = LocalDate.of(2025, 3, 7);
+
+        DedupKey key = DedupUtils.dedupKey("автор", date, 5, text);
+
+        byte[] expected = MessageDigest.getInstance("SHA-256")
+                .digest(("автор|" + date + "|5|" + text).getBytes(StandardCharsets.UTF_8));
+        assertThat(key.toBytes()).isEqualTo(expected);
+        assertThat(key.toHex()).isEqualTo(HexFormat.of().formatHex(expected));
+    }
+
+    @Test
+    void dedupKey_shouldTreatNullsAsEmpty() throws Exception {
+        DedupKey key = DedupUtils.dedupKey(null, null, -1, null);
+
+        byte[] expected = MessageDigest.getInstance("SHA-256")
+                .digest("||-1|".getBytes(StandardCharsets.UTF_8));
+        assertThat(key).isEqualTo(DedupKey.fromBytes(expected));
+    }
+}